@@ -24,6 +24,7 @@ export const AdminDashboard: React.FC = () => {
   const [loading, setLoading] = useState(false);
   const [error, setError] = useState<string | null>(null);
   const [inviteEmail, setInviteEmail] = useState('');
+  const [knowledgeContent, setKnowledgeContent] = useState('');
   const [settings, setSettings] = useState({
     maxUsers: 10,
     maxMessagesPerMonth: 1000,
@@ -125,7 +126,7 @@ export const AdminDashboard: React.FC = () => {
     e.preventDefault();
     try {
       setLoading(true);
-      await apiClient.post('/admin/tenant/knowledge-base', { content: 'Knowledge base content' });
+      await apiClient.post('/admin/tenant/knowledge-base', { content: knowledgeContent });
       alert('Knowledge base updated successfully!');
     } catch (err: any) {
       setError(err?.response?.data?.message || 'Failed to update knowledge base');
@@ -294,6 +295,8 @@ export const AdminDashboard: React.FC = () => {
                   <textarea
                     rows={10}
                     placeholder="Enter knowledge base content..."
+                    value={knowledgeContent}
+                    onChange={(e) => setKnowledgeContent(e.target.value)}
                     style={{ width: '100%', padding: '0.5rem', borderRadius: '0.5rem', background: '#020617', color: '#e5e7eb', border: '1px solid #4b5563' }}
                   />
                 </label>
@@ -18,6 +18,15 @@ interface Conversation {
   messageCount: number;
 }
 
+// Conversations and messages come in pages; the next (older) page is fetched with this cursor
+const NEXT_CURSOR_HEADER = 'x-next-cursor';
+
+const toChatMessage = (m: any): ChatMessage => ({
+  id: m.id,
+  from: m.role === 'USER' ? 'user' : 'bot',
+  text: m.content
+});
+
 const SUGGESTED_PROMPTS = [
   "How do I handle workplace conflict?",
   "I'm feeling overwhelmed at work. What should I do?",
@@ -82,15 +91,21 @@ export const ChatPage: React.FC = () => {
   const [conversations, setConversations] = useState<Conversation[]>([]);
   const [showSidebar, setShowSidebar] = useState(true);
   const [loadingConversations, setLoadingConversations] = useState(false);
+  const [conversationsCursor, setConversationsCursor] = useState<string | null>(null);
+  const [messagesCursor, setMessagesCursor] = useState<string | null>(null);
+  const [loadingOlder, setLoadingOlder] = useState(false);
   const [darkMode, setDarkMode] = useState(() => {
     const saved = localStorage.getItem('darkMode');
     return saved ? saved === 'true' : true;
   });
   const chatWindowRef = React.useRef<HTMLDivElement>(null);
   const messagesEndRef = React.useRef<HTMLDivElement>(null);
+  // Distance from the bottom to keep while older messages are shown; null follows the newest message
+  const keepScrollRef = React.useRef<number | null>(null);
 
   // Helper function to scroll to bottom - instant like ChatGPT
   const scrollToBottom = React.useCallback((instant = false) => {
+    if (keepScrollRef.current !== null) return;
     if (messagesEndRef.current) {
       messagesEndRef.current.scrollIntoView({ behavior: instant ? 'auto' : 'smooth', block: 'end' });
     } else if (chatWindowRef.current) {
@@ -104,6 +119,14 @@ export const ChatPage: React.FC = () => {
     loadConversations();
   }, []);
 
+  // Older messages were prepended: stay on the message the user was reading
+  React.useLayoutEffect(() => {
+    if (keepScrollRef.current !== null && chatWindowRef.current) {
+      const element = chatWindowRef.current;
+      element.scrollTop = element.scrollHeight - keepScrollRef.current;
+    }
+  }, [messages]);
+
   // Auto-scroll to bottom when messages change - instant like ChatGPT
   useEffect(() => {
     // Immediate scroll (instant, like ChatGPT)
@@ -140,6 +163,7 @@ export const ChatPage: React.FC = () => {
       setLoadingConversations(true);
       const res = await chatClient.get('/chat/conversations');
       setConversations(res.data);
+      setConversationsCursor(res.headers[NEXT_CURSOR_HEADER] ?? null);
     } catch (err) {
       console.error('Failed to load conversations:', err);
     } finally {
@@ -147,11 +171,27 @@ export const ChatPage: React.FC = () => {
     }
   };
 
+  const loadOlderConversations = async () => {
+    if (!conversationsCursor) return;
+    try {
+      setLoadingOlder(true);
+      const res = await chatClient.get('/chat/conversations', { params: { before: conversationsCursor } });
+      setConversations((prev) => [...prev, ...res.data]);
+      setConversationsCursor(res.headers[NEXT_CURSOR_HEADER] ?? null);
+    } catch (err) {
+      console.error('Failed to load older conversations:', err);
+    } finally {
+      setLoadingOlder(false);
+    }
+  };
+
   const startNewChat = async () => {
     try {
       const res = await chatClient.post('/chat/conversations');
       setConversationId(res.data.id);
+      keepScrollRef.current = null;
       setMessages([]);
+      setMessagesCursor(null);
       setError(null);
       await loadConversations();
     } catch (err) {
@@ -166,12 +206,9 @@ export const ChatPage: React.FC = () => {
       const conversation = res.data;
       setConversationId(conversation.id);
       
-      const loadedMessages: ChatMessage[] = conversation.messages.map((m: any) => ({
-        id: m.id,
-        from: m.role === 'USER' ? 'user' : 'bot',
-        text: m.content
-      }));
-      setMessages(loadedMessages);
+      keepScrollRef.current = null;
+      setMessages(conversation.messages.map(toChatMessage));
+      setMessagesCursor(conversation.nextCursor ?? null);
       setError(null);
     } catch (err) {
       console.error('Failed to load conversation:', err);
@@ -181,6 +218,25 @@ export const ChatPage: React.FC = () => {
     }
   };
 
+  const loadOlderMessages = async () => {
+    if (!conversationId || !messagesCursor) return;
+    try {
+      setLoadingOlder(true);
+      const res = await chatClient.get(`/chat/conversations/${conversationId}/messages`, {
+        params: { before: messagesCursor }
+      });
+      const element = chatWindowRef.current;
+      keepScrollRef.current = element ? element.scrollHeight - element.scrollTop : 0;
+      setMessages((prev) => [...res.data.map(toChatMessage), ...prev]);
+      setMessagesCursor(res.headers[NEXT_CURSOR_HEADER] ?? null);
+    } catch (err) {
+      console.error('Failed to load older messages:', err);
+      setError('Failed to load older messages');
+    } finally {
+      setLoadingOlder(false);
+    }
+  };
+
   const deleteConversation = async (id: number, e: React.MouseEvent) => {
     e.stopPropagation();
     if (!confirm('Are you sure you want to delete this conversation?')) return;
@@ -189,7 +245,9 @@ export const ChatPage: React.FC = () => {
       await chatClient.delete(`/chat/conversations/${id}`);
       if (conversationId === id) {
         setConversationId(null);
+        keepScrollRef.current = null;
         setMessages([]);
+        setMessagesCursor(null);
       }
       await loadConversations();
     } catch (err) {
@@ -273,6 +331,7 @@ export const ChatPage: React.FC = () => {
       from: 'user',
       text: trimmed
     };
+    keepScrollRef.current = null;
     setMessages((prev) => [...prev, userMessage]);
     setInput('');
     
@@ -409,11 +468,29 @@ export const ChatPage: React.FC = () => {
                   ))}
                 </ul>
               )}
+              {!loadingConversations && conversationsCursor && (
+                <button
+                  className="secondary-button load-more-button"
+                  onClick={loadOlderConversations}
+                  disabled={loadingOlder}
+                >
+                  {loadingOlder ? 'Loading...' : 'Load older'}
+                </button>
+              )}
             </div>
           </aside>
         )}
         <main className="chat-main">
           <div className="chat-window" ref={chatWindowRef}>
+            {messagesCursor && (
+              <button
+                className="secondary-button load-more-button"
+                onClick={loadOlderMessages}
+                disabled={loadingOlder}
+              >
+                {loadingOlder ? 'Loading...' : 'Load older messages'}
+              </button>
+            )}
             {messages.length === 0 && (
               <div className="chat-empty">
                 <div>Start the conversation by typing a message below.</div>
@@ -1,9 +1,12 @@
 package com.vinncorp.orga.admin;
 
+import com.vinncorp.orga.knowledge.KnowledgeBases;
+import com.vinncorp.orga.security.TenantPrincipalCache;
 import com.vinncorp.orga.tenant.Tenant;
 import com.vinncorp.orga.tenant.TenantRepository;
 import com.vinncorp.orga.user.User;
 import com.vinncorp.orga.user.UserRepository;
+import com.vinncorp.orga.user.UserTenantSummary;
 import com.vinncorp.orga.user.User.UserRole;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -23,13 +26,19 @@ public class SuperAdminController {
     private final TenantRepository tenantRepository;
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
+    private final TenantPrincipalCache principalCache;
+    private final KnowledgeBases knowledgeBases;
 
     public SuperAdminController(TenantRepository tenantRepository, 
                                UserRepository userRepository,
-                               PasswordEncoder passwordEncoder) {
+                               PasswordEncoder passwordEncoder,
+                               TenantPrincipalCache principalCache,
+                               KnowledgeBases knowledgeBases) {
         this.tenantRepository = tenantRepository;
         this.userRepository = userRepository;
         this.passwordEncoder = passwordEncoder;
+        this.principalCache = principalCache;
+        this.knowledgeBases = knowledgeBases;
     }
 
     @PostMapping("/tenants")
@@ -97,6 +106,7 @@ public class SuperAdminController {
         }
 
         tenantRepository.save(tenant);
+        principalCache.invalidateTenant(tenantId);
         return ResponseEntity.ok(Map.of("message", "Tenant updated successfully"));
     }
 
@@ -106,6 +116,8 @@ public class SuperAdminController {
                 .orElseThrow(() -> new RuntimeException("Tenant not found"));
 
         tenantRepository.delete(tenant);
+        principalCache.invalidateTenant(tenantId);
+        knowledgeBases.drop(tenantId);
         return ResponseEntity.ok(Map.of("message", "Tenant deleted successfully"));
     }
 
@@ -113,9 +125,7 @@ public class SuperAdminController {
     public ResponseEntity<?> getSystemMetrics() {
         long totalTenants = tenantRepository.count();
         long totalUsers = userRepository.count();
-        long activeTenants = tenantRepository.findAll().stream()
-                .filter(Tenant::getIsActive)
-                .count();
+        long activeTenants = tenantRepository.countByIsActiveTrue();
 
         Map<String, Object> metrics = new HashMap<>();
         metrics.put("totalTenants", totalTenants);
@@ -162,6 +172,7 @@ public class SuperAdminController {
 
         user.setTenant(tenant);
         userRepository.save(user);
+        principalCache.invalidateUser(user.getEmail());
 
         return ResponseEntity.ok(Map.of(
                 "message", "User assigned to tenant successfully",
@@ -173,16 +184,17 @@ public class SuperAdminController {
 
     @GetMapping("/users")
     public ResponseEntity<?> getAllUsers() {
-        List<User> users = userRepository.findAll();
+        // Users and tenant names in one joined query instead of a tenant load per user
+        List<UserTenantSummary> users = userRepository.findAllWithTenant();
 
         List<Map<String, Object>> result = users.stream()
                 .map(u -> {
                     Map<String, Object> map = new HashMap<>();
-                    map.put("id", u.getId());
-                    map.put("email", u.getEmail());
-                    map.put("role", u.getRole().name());
-                    map.put("tenantId", u.getTenant().getId());
-                    map.put("tenantName", u.getTenant().getName());
+                    map.put("id", u.id());
+                    map.put("email", u.email());
+                    map.put("role", u.role().name());
+                    map.put("tenantId", u.tenantId());
+                    map.put("tenantName", u.tenantName());
                     return map;
                 })
                 .collect(Collectors.toList());
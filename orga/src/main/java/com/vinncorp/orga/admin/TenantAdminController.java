@@ -1,22 +1,41 @@
 package com.vinncorp.orga.admin;
 
-import com.vinncorp.orga.chat.MessageRepository;
+import com.vinncorp.orga.chat.AnswerCache;
+import com.vinncorp.orga.knowledge.KnowledgeBase;
+import com.vinncorp.orga.knowledge.KnowledgeBases;
+import com.vinncorp.orga.knowledge.dto.KnowledgeChunk;
+import com.vinncorp.orga.knowledge.dto.KnowledgeChunksRequest;
+import com.vinncorp.orga.knowledge.dto.TextSearchRequest;
+import com.vinncorp.orga.knowledge.dto.VectorSearchRequest;
+import com.vinncorp.orga.security.PasswordHashingBusyException;
+import com.vinncorp.orga.security.TenantPrincipal;
+import com.vinncorp.orga.security.TenantPrincipalCache;
 import com.vinncorp.orga.tenant.Tenant;
+import com.vinncorp.orga.tenant.TenantQuotaCounters;
 import com.vinncorp.orga.tenant.TenantRepository;
+import com.vinncorp.orga.usage.UsageRollups;
 import com.vinncorp.orga.user.User;
 import com.vinncorp.orga.user.UserRepository;
+import com.vinncorp.orga.user.UserSummary;
 import com.vinncorp.orga.user.User.UserRole;
+import jakarta.validation.Valid;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.YearMonth;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -28,28 +47,45 @@ public class TenantAdminController {
     private final UserRepository userRepository;
     private final TenantRepository tenantRepository;
     private final PasswordEncoder passwordEncoder;
-    private final MessageRepository messageRepository;
+    private final AnswerCache answerCache;
+    private final TenantQuotaCounters quotaCounters;
+    private final UsageRollups usageRollups;
+    private final TenantPrincipalCache principalCache;
+    private final KnowledgeBases knowledgeBases;
+
+    @Value("${knowledge.search.default-k:5}")
+    private int defaultK;
+
+    @Value("${knowledge.search.max-k:100}")
+    private int maxK;
 
     public TenantAdminController(UserRepository userRepository,
                                 TenantRepository tenantRepository,
                                 PasswordEncoder passwordEncoder,
-                                MessageRepository messageRepository) {
+                                AnswerCache answerCache,
+                                TenantQuotaCounters quotaCounters,
+                                UsageRollups usageRollups,
+                                TenantPrincipalCache principalCache,
+                                KnowledgeBases knowledgeBases) {
         this.userRepository = userRepository;
         this.tenantRepository = tenantRepository;
         this.passwordEncoder = passwordEncoder;
-        this.messageRepository = messageRepository;
+        this.answerCache = answerCache;
+        this.quotaCounters = quotaCounters;
+        this.usageRollups = usageRollups;
+        this.principalCache = principalCache;
+        this.knowledgeBases = knowledgeBases;
     }
 
-    private Tenant getCurrentUserTenant(UserDetails userDetails) {
-        User user = userRepository.findByEmail(userDetails.getUsername())
-                .orElseThrow(() -> new RuntimeException("User not found"));
-        return user.getTenant();
+    private Tenant getCurrentUserTenant(TenantPrincipal principal) {
+        return tenantRepository.findById(principal.getTenantId())
+                .orElseThrow(() -> new RuntimeException("Tenant not found"));
     }
 
     @PostMapping("/users/invite")
-    public ResponseEntity<?> inviteUser(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> inviteUser(@AuthenticationPrincipal TenantPrincipal principal,
                                        @RequestBody Map<String, String> request) {
-        Tenant tenant = getCurrentUserTenant(userDetails);
+        Tenant tenant = getCurrentUserTenant(principal);
         
         // Check user limit
         long currentUserCount = userRepository.count();
@@ -66,7 +102,14 @@ public class TenantAdminController {
         String password = request.getOrDefault("password", "TempPassword123!");
         String fullName = request.getOrDefault("fullName", email.split("@")[0]);
         String roleStr = request.getOrDefault("role", "EMPLOYEE");
-        String hashed = passwordEncoder.encode(password);
+        String hashed;
+        try {
+            hashed = passwordEncoder.encode(password);
+        } catch (PasswordHashingBusyException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, (e.getRetryAfterMillis() + 999) / 1000)))
+                    .body(Map.of("message", e.getMessage()));
+        }
         
         User newUser = new User(email, fullName, hashed, tenant);
         
@@ -88,14 +131,12 @@ public class TenantAdminController {
     }
 
     @DeleteMapping("/users/{userId}")
-    public ResponseEntity<?> removeUser(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> removeUser(@AuthenticationPrincipal TenantPrincipal principal,
                                        @PathVariable Long userId) {
-        Tenant tenant = getCurrentUserTenant(userDetails);
-        
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("User not found"));
         
-        if (!user.getTenant().getId().equals(tenant.getId())) {
+        if (!user.getTenant().getId().equals(principal.getTenantId())) {
             return ResponseEntity.status(403).body(Map.of("message", "Access denied"));
         }
 
@@ -104,37 +145,29 @@ public class TenantAdminController {
         }
 
         userRepository.delete(user);
+        principalCache.invalidateUser(user.getEmail());
         return ResponseEntity.ok(Map.of("message", "User removed successfully"));
     }
 
     @GetMapping("/users")
-    public ResponseEntity<?> getUsers(@AuthenticationPrincipal UserDetails userDetails) {
-        Tenant tenant = getCurrentUserTenant(userDetails);
-        
-        List<User> users = userRepository.findAll().stream()
-                .filter(u -> u.getTenant().getId().equals(tenant.getId()))
-                .collect(Collectors.toList());
+    public ResponseEntity<?> getUsers(@AuthenticationPrincipal TenantPrincipal principal) {
+        Long tenantId = principal.getTenantId();
+
+        List<UserSummary> users = userRepository.findSummariesByTenantId(tenantId);
+
+        // Message count per user for the current month, one grouped query over the daily rollup
+        YearMonth currentMonth = YearMonth.now();
+        Map<Long, Long> messagesByUser = usageRollups.messagesByUser(
+                tenantId, currentMonth.atDay(1), currentMonth.plusMonths(1).atDay(1));
 
         List<Map<String, Object>> result = users.stream()
                 .map(u -> {
                     Map<String, Object> map = new HashMap<>();
-                    map.put("id", u.getId());
-                    map.put("email", u.getEmail());
-                    map.put("fullName", u.getFullName());
-                    map.put("role", u.getRole().name());
-                    // Calculate message count for this user (current month)
-                    YearMonth currentMonth = YearMonth.now();
-                    LocalDateTime startOfMonth = currentMonth.atDay(1).atStartOfDay();
-                    LocalDateTime endOfMonth = currentMonth.atEndOfMonth().atTime(23, 59, 59);
-                    long messageCount = messageRepository.findAll().stream()
-                            .filter(m -> {
-                                User msgUser = m.getConversation().getUser();
-                                return msgUser.getId().equals(u.getId()) &&
-                                       m.getCreatedAt().isAfter(startOfMonth) &&
-                                       m.getCreatedAt().isBefore(endOfMonth);
-                            })
-                            .count();
-                    map.put("messagesUsed", messageCount);
+                    map.put("id", u.id());
+                    map.put("email", u.email());
+                    map.put("fullName", u.fullName());
+                    map.put("role", u.role().name());
+                    map.put("messagesUsed", messagesByUser.getOrDefault(u.id(), 0L));
                     return map;
                 })
                 .collect(Collectors.toList());
@@ -143,26 +176,13 @@ public class TenantAdminController {
     }
 
     @GetMapping("/usage/metrics")
-    public ResponseEntity<?> getUsageMetrics(@AuthenticationPrincipal UserDetails userDetails) {
-        Tenant tenant = getCurrentUserTenant(userDetails);
-        
-        YearMonth currentMonth = YearMonth.now();
-        LocalDateTime startOfMonth = currentMonth.atDay(1).atStartOfDay();
-        LocalDateTime endOfMonth = currentMonth.atEndOfMonth().atTime(23, 59, 59);
+    public ResponseEntity<?> getUsageMetrics(@AuthenticationPrincipal TenantPrincipal principal) {
+        Tenant tenant = getCurrentUserTenant(principal);
 
         // Count messages in current month (numbers only, no content)
-        long messageCount = messageRepository.findAll().stream()
-                .filter(m -> {
-                    User msgUser = m.getConversation().getUser();
-                    return msgUser.getTenant().getId().equals(tenant.getId()) &&
-                           m.getCreatedAt().isAfter(startOfMonth) &&
-                           m.getCreatedAt().isBefore(endOfMonth);
-                })
-                .count();
+        long messageCount = quotaCounters.messagesThisMonth(tenant.getId());
 
-        long userCount = userRepository.findAll().stream()
-                .filter(u -> u.getTenant().getId().equals(tenant.getId()))
-                .count();
+        long userCount = userRepository.countByTenant(tenant);
 
         Map<String, Object> metrics = new HashMap<>();
         metrics.put("messagesThisMonth", messageCount);
@@ -174,10 +194,41 @@ public class TenantAdminController {
         return ResponseEntity.ok(metrics);
     }
 
+    /**
+     * Messages per day (default: last 30 days) or per hour (default: last 48 hours), zero-filled, for
+     * usage histograms. {@code from} and {@code to} are ISO local date-times.
+     */
+    @GetMapping("/usage/timeseries")
+    public ResponseEntity<?> getUsageTimeSeries(@AuthenticationPrincipal TenantPrincipal principal,
+                                               @RequestParam(defaultValue = "day") String granularity,
+                                               @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                               @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        UsageRollups.Granularity unit;
+        try {
+            unit = UsageRollups.Granularity.valueOf(granularity.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "granularity must be day or hour"));
+        }
+        LocalDateTime end = to != null ? to : LocalDateTime.now();
+        LocalDateTime start = from != null ? from
+                : unit == UsageRollups.Granularity.DAY ? end.minusDays(30) : end.minusHours(48);
+        Duration maxRange = unit == UsageRollups.Granularity.DAY ? Duration.ofDays(366) : Duration.ofDays(31);
+        if (!start.isBefore(end) || Duration.between(start, end).compareTo(maxRange) > 0) {
+            return ResponseEntity.badRequest().body(Map.of("message",
+                    "from must be before to, at most " + maxRange.toDays() + " days apart"));
+        }
+
+        List<Map<String, Object>> points = usageRollups.series(principal.getTenantId(), unit, start, end).stream()
+                .map(p -> Map.<String, Object>of("bucket", p.bucket().toString(), "messages", p.messages()))
+                .collect(Collectors.toList());
+
+        return ResponseEntity.ok(Map.of("granularity", unit.name().toLowerCase(Locale.ROOT), "points", points));
+    }
+
     @PutMapping("/limits")
-    public ResponseEntity<?> updateLimits(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> updateLimits(@AuthenticationPrincipal TenantPrincipal principal,
                                          @RequestBody Map<String, Object> request) {
-        Tenant tenant = getCurrentUserTenant(userDetails);
+        Tenant tenant = getCurrentUserTenant(principal);
         
         if (request.containsKey("maxUsers")) {
             tenant.setMaxUsers(((Number) request.get("maxUsers")).intValue());
@@ -187,34 +238,133 @@ public class TenantAdminController {
         }
         
         tenantRepository.save(tenant);
+        principalCache.invalidateTenant(tenant.getId());
         return ResponseEntity.ok(Map.of("message", "Limits updated successfully"));
     }
 
     @PutMapping("/subscription")
-    public ResponseEntity<?> updateSubscription(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> updateSubscription(@AuthenticationPrincipal TenantPrincipal principal,
                                               @RequestBody Map<String, String> request) {
-        Tenant tenant = getCurrentUserTenant(userDetails);
+        Tenant tenant = getCurrentUserTenant(principal);
         
         String plan = request.get("plan");
         if (plan != null && (plan.equals("BASIC") || plan.equals("PRO") || plan.equals("ENTERPRISE"))) {
             tenant.setSubscriptionPlan(plan);
             tenantRepository.save(tenant);
+            principalCache.invalidateTenant(tenant.getId());
             return ResponseEntity.ok(Map.of("message", "Subscription updated successfully"));
         }
         
         return ResponseEntity.badRequest().body(Map.of("message", "Invalid subscription plan"));
     }
 
+    @DeleteMapping("/answer-cache")
+    public ResponseEntity<?> clearAnswerCache(@AuthenticationPrincipal TenantPrincipal principal) {
+        // Call after changing the knowledge base so employees don't keep getting outdated answers
+        int removed = answerCache.invalidateTenant(principal.getTenantId());
+        return ResponseEntity.ok(Map.of("message", "Answer cache cleared", "removed", removed));
+    }
+
+    /**
+     * Replaces a knowledge-base document with {@code content}, split into chunks for keyword search.
+     * {@code documentId} is optional; without it the content replaces document 0.
+     */
     @PostMapping("/knowledge-base")
-    public ResponseEntity<?> uploadKnowledgeBase(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> uploadKnowledgeBase(@AuthenticationPrincipal TenantPrincipal principal,
                                                 @RequestBody Map<String, String> request) {
-        // This is a placeholder - actual knowledge base implementation would store files/content
-        getCurrentUserTenant(userDetails); // Verify tenant access
-        
-        // In a real implementation, you would save this to a file storage or database
-        // For now, we'll just return success
-        
-        return ResponseEntity.ok(Map.of("message", "Knowledge base updated successfully"));
+        String content = request.get("content");
+        if (content == null || content.isBlank()) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Content is required"));
+        }
+        int documentId;
+        try {
+            documentId = request.get("documentId") != null ? Integer.parseInt(request.get("documentId")) : 0;
+        } catch (NumberFormatException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Invalid document id"));
+        }
+        if (documentId < 0) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Invalid document id"));
+        }
+
+        // Tenant access is established by the principal (tenant admin of principal.getTenantId())
+        int chunks = knowledgeBases.addDocument(principal.getTenantId(), documentId, content);
+        return ResponseEntity.ok(Map.of(
+                "message", "Knowledge base updated successfully",
+                "documentId", documentId,
+                "chunks", chunks));
+    }
+
+    /**
+     * Adds or replaces chunks, all of them or none. Each has an id whose high 32 bits are the id of the
+     * document it belongs to ({@code documentId << 32 | n}, as for uploaded text), that document id, and
+     * its text (for keyword search), its embedding of {@code knowledge.vectors.dimension} dimensions (for
+     * vector search), or both.
+     */
+    @PostMapping("/knowledge-base/chunks")
+    public ResponseEntity<?> addKnowledgeChunks(@AuthenticationPrincipal TenantPrincipal principal,
+                                                @Valid @RequestBody KnowledgeChunksRequest request) {
+        List<KnowledgeBase.Chunk> chunks = new ArrayList<>(request.getChunks().size());
+        for (KnowledgeChunk chunk : request.getChunks()) {
+            if (chunk.getText() == null && chunk.getEmbedding() == null) {
+                return ResponseEntity.badRequest().body(Map.of("message", "Each chunk needs a text or an embedding"));
+            }
+            chunks.add(new KnowledgeBase.Chunk(chunk.getId(), chunk.getDocumentId(), chunk.getText(),
+                    chunk.getEmbedding()));
+        }
+        try {
+            knowledgeBases.addChunks(principal.getTenantId(), chunks);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        }
+        return ResponseEntity.ok(Map.of(
+                "message", "Knowledge chunks indexed",
+                "indexed", request.getChunks().size(),
+                "chunks", knowledgeBases.size(principal.getTenantId())));
     }
-}
 
+    /** The chunks best matching a keyword query by BM25, best first, optionally only from some documents. */
+    @PostMapping("/knowledge-base/search")
+    public ResponseEntity<?> searchKnowledgeText(@AuthenticationPrincipal TenantPrincipal principal,
+                                                 @Valid @RequestBody TextSearchRequest request) {
+        int k = request.getK() == null ? defaultK : Math.max(1, Math.min(request.getK(), maxK));
+        return ResponseEntity.ok(toResponse(
+                knowledgeBases.searchText(principal.getTenantId(), request.getQuery(), k, request.getDocumentIds())));
+    }
+
+    /** The chunks nearest to an embedding, best first, optionally only from some documents. */
+    @PostMapping("/knowledge-base/vectors/search")
+    public ResponseEntity<?> searchKnowledgeVectors(@AuthenticationPrincipal TenantPrincipal principal,
+                                                    @Valid @RequestBody VectorSearchRequest request) {
+        int k = request.getK() == null ? defaultK : Math.max(1, Math.min(request.getK(), maxK));
+        List<KnowledgeBase.Hit> hits;
+        try {
+            hits = knowledgeBases.searchVectors(principal.getTenantId(), request.getEmbedding(), k, request.getDocumentIds());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        }
+        return ResponseEntity.ok(toResponse(hits));
+    }
+
+    @DeleteMapping("/knowledge-base/documents/{documentId}")
+    public ResponseEntity<?> deleteKnowledgeDocument(@AuthenticationPrincipal TenantPrincipal principal,
+                                                     @PathVariable int documentId) {
+        int removed = knowledgeBases.deleteDocument(principal.getTenantId(), documentId);
+        return ResponseEntity.ok(Map.of(
+                "message", "Knowledge document deleted",
+                "removed", removed));
+    }
+
+    private static List<Map<String, Object>> toResponse(List<KnowledgeBase.Hit> hits) {
+        // HashMap: chunks with only an embedding have no text
+        return hits.stream()
+                .map(hit -> {
+                    Map<String, Object> result = new HashMap<>();
+                    result.put("id", hit.id());
+                    result.put("documentId", hit.documentId());
+                    result.put("score", hit.score());
+                    result.put("text", hit.text());
+                    return result;
+                })
+                .collect(Collectors.toList());
+    }
+}
@@ -3,19 +3,24 @@ package com.vinncorp.orga.auth;
 import com.vinncorp.orga.auth.dto.AuthResponse;
 import com.vinncorp.orga.auth.dto.LoginRequest;
 import com.vinncorp.orga.auth.dto.SignupRequest;
+import com.vinncorp.orga.security.BoundedPasswordEncoder;
 import com.vinncorp.orga.security.JwtUtil;
+import com.vinncorp.orga.security.LoginThrottle;
+import com.vinncorp.orga.security.PasswordHashingBusyException;
+import com.vinncorp.orga.security.TenantPrincipal;
 import com.vinncorp.orga.tenant.Tenant;
 import com.vinncorp.orga.tenant.TenantRepository;
 import com.vinncorp.orga.user.User;
 import com.vinncorp.orga.user.UserRepository;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Map;
@@ -26,20 +31,23 @@ public class AuthController {
 
     private final UserRepository userRepository;
     private final TenantRepository tenantRepository;
-    private final PasswordEncoder passwordEncoder;
+    private final BoundedPasswordEncoder passwordEncoder;
     private final AuthenticationManager authenticationManager;
     private final JwtUtil jwtUtil;
+    private final LoginThrottle loginThrottle;
 
     public AuthController(UserRepository userRepository,
                           TenantRepository tenantRepository,
-                          PasswordEncoder passwordEncoder,
+                          BoundedPasswordEncoder passwordEncoder,
                           AuthenticationManager authenticationManager,
-                          JwtUtil jwtUtil) {
+                          JwtUtil jwtUtil,
+                          LoginThrottle loginThrottle) {
         this.userRepository = userRepository;
         this.tenantRepository = tenantRepository;
         this.passwordEncoder = passwordEncoder;
         this.authenticationManager = authenticationManager;
         this.jwtUtil = jwtUtil;
+        this.loginThrottle = loginThrottle;
     }
 
     @PostMapping("/signup")
@@ -67,12 +75,17 @@ public class AuthController {
                             });
                 });
 
-        String hashed = passwordEncoder.encode(request.getPassword());
+        String hashed;
+        try {
+            hashed = passwordEncoder.encode(request.getPassword());
+        } catch (PasswordHashingBusyException ex) {
+            return tooManyRequests(ex.getMessage(), ex.getRetryAfterMillis());
+        }
         User user = new User(request.getEmail(), request.getFullName(), hashed, tenant);
         userRepository.save(user);
 
         // Generate token and return it (auto-login after signup)
-        String token = jwtUtil.generateToken(request.getEmail());
+        String token = jwtUtil.generateToken(user);
         return ResponseEntity.ok(Map.of(
                 "token", token,
                 "message", "User created successfully",
@@ -104,19 +117,34 @@ public class AuthController {
     }
 
     @PostMapping("/login")
-    public ResponseEntity<?> login(@Valid @RequestBody LoginRequest request) {
+    public ResponseEntity<?> login(@Valid @RequestBody LoginRequest request, HttpServletRequest httpRequest) {
+        // Checked before any hashing, so throttled guesses cost no BCrypt. The remote address is the
+        // forwarded client address (server.forward-headers-strategy), not the proxy's
+        String clientIp = httpRequest.getRemoteAddr();
+        long retryAfterMillis = loginThrottle.retryAfterMillis(request.getEmail(), clientIp);
+        if (retryAfterMillis > 0) {
+            return tooManyRequests("Too many failed login attempts, try again later", retryAfterMillis);
+        }
+
         try {
             UsernamePasswordAuthenticationToken authToken =
                     new UsernamePasswordAuthenticationToken(request.getEmail(), request.getPassword());
             authenticationManager.authenticate(authToken);
         } catch (BadCredentialsException ex) {
+            loginThrottle.recordFailure(request.getEmail(), clientIp);
             return ResponseEntity.status(401).body(new AuthResponse(null, "Invalid credentials"));
+        } catch (PasswordHashingBusyException ex) {
+            return tooManyRequests(ex.getMessage(), ex.getRetryAfterMillis());
         }
+        loginThrottle.recordSuccess(request.getEmail());
 
-        String token = jwtUtil.generateToken(request.getEmail());
         User user = userRepository.findByEmail(request.getEmail())
                 .orElseThrow(() -> new RuntimeException("User not found"));
-        
+        // Rehash to the configured cost off the request, if the executor has room; never fails the login
+        passwordEncoder.upgradeInBackground(request.getPassword(), user.getPasswordHash(),
+                hash -> userRepository.updatePasswordHash(user.getEmail(), hash));
+        String token = jwtUtil.generateToken(user);
+
         return ResponseEntity.ok(Map.of(
                 "token", token,
                 "message", "Login successful",
@@ -125,16 +153,19 @@ public class AuthController {
         ));
     }
 
+    private ResponseEntity<?> tooManyRequests(String message, long retryAfterMillis) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, (retryAfterMillis + 999) / 1000)))
+                .body(new AuthResponse(null, message));
+    }
+
     @GetMapping("/me")
-    public ResponseEntity<?> getCurrentUser(@AuthenticationPrincipal UserDetails userDetails) {
-        User user = userRepository.findByEmail(userDetails.getUsername())
-                .orElseThrow(() -> new RuntimeException("User not found"));
-        
+    public ResponseEntity<?> getCurrentUser(@AuthenticationPrincipal TenantPrincipal principal) {
         return ResponseEntity.ok(Map.of(
-                "email", user.getEmail(),
-                "role", user.getRole().name(),
-                "tenantId", user.getTenant().getId(),
-                "tenantName", user.getTenant().getName()
+                "email", principal.getEmail(),
+                "role", principal.getRole().name(),
+                "tenantId", principal.getTenantId(),
+                "tenantName", principal.getTenantName()
         ));
     }
 }
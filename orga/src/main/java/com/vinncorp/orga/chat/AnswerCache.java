@@ -0,0 +1,158 @@
+package com.vinncorp.orga.chat;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Tenant-scoped cache of chatbot answers, so a question the tenant's employees already asked (with the
+ * same preceding history) is answered without another LLM round trip.
+ * <p>
+ * Keys are the tenant id, the normalized question and a fingerprint of the history window that was sent.
+ * Answers are fresh for {@code chat.answer-cache.ttl}; after that they are kept as stale fallbacks until
+ * {@code chat.answer-cache.stale-ttl}, served only when the chatbot fails. The cache is bounded by estimated
+ * retained bytes. Lookups are counted as {@code chat.answer.cache{result=hit|miss|stale}}.
+ */
+@Component
+public class AnswerCache {
+
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private final Cache<Key, Answer> cache;
+    private final boolean enabled;
+    private final long freshTtlNanos;
+    private final Ticker ticker;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter staleServed;
+
+    public record Key(Long tenantId, String question, long historyFingerprint) {
+    }
+
+    private record Answer(String reply, long storedAtNanos) {
+    }
+
+    @Autowired
+    public AnswerCache(MeterRegistry meterRegistry,
+                       @Value("${chat.answer-cache.enabled:true}") boolean enabled,
+                       @Value("${chat.answer-cache.ttl:PT1H}") Duration ttl,
+                       @Value("${chat.answer-cache.stale-ttl:PT24H}") Duration staleTtl,
+                       @Value("${chat.answer-cache.max-bytes:33554432}") long maxBytes) {
+        this(meterRegistry, enabled, ttl, staleTtl, maxBytes, Ticker.systemTicker());
+    }
+
+    /** As above, reading the time from {@code ticker} instead of {@link System#nanoTime}. */
+    AnswerCache(MeterRegistry meterRegistry, boolean enabled, Duration ttl, Duration staleTtl, long maxBytes,
+                Ticker ticker) {
+        this.enabled = enabled;
+        this.freshTtlNanos = ttl.toNanos();
+        this.ticker = ticker;
+        this.cache = Caffeine.newBuilder()
+                .ticker(ticker)
+                .maximumWeight(maxBytes)
+                .weigher((Key key, Answer answer) ->
+                        ENTRY_OVERHEAD_BYTES + 2 * (key.question().length() + answer.reply().length()))
+                .expireAfterWrite(staleTtl.compareTo(ttl) > 0 ? staleTtl : ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "chat.answer");
+        this.hits = counter(meterRegistry, "hit");
+        this.misses = counter(meterRegistry, "miss");
+        this.staleServed = counter(meterRegistry, "stale");
+    }
+
+    public Key keyFor(Long tenantId, String question, List<ChatTurn> history) {
+        return new Key(tenantId, normalize(question), fingerprint(history));
+    }
+
+    /** Cached answer younger than the TTL, if any. */
+    public Optional<String> getFresh(Key key) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Answer answer = cache.getIfPresent(key);
+        if (answer != null && ticker.read() - answer.storedAtNanos() < freshTtlNanos) {
+            hits.increment();
+            return Optional.of(answer.reply());
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    /** Any cached answer, however old, to fall back on when the chatbot is failing. */
+    public Optional<String> getStale(Key key) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Answer answer = cache.getIfPresent(key);
+        if (answer == null) {
+            return Optional.empty();
+        }
+        staleServed.increment();
+        return Optional.of(answer.reply());
+    }
+
+    public void put(Key key, String reply) {
+        if (enabled) {
+            cache.put(key, new Answer(reply, ticker.read()));
+        }
+    }
+
+    /** Drops every answer cached for the tenant and returns how many there were. */
+    public int invalidateTenant(Long tenantId) {
+        int[] removed = {0};
+        cache.asMap().keySet().removeIf(key -> {
+            boolean match = key.tenantId().equals(tenantId);
+            if (match) {
+                removed[0]++;
+            }
+            return match;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Lower-cases, collapses whitespace and drops trailing punctuation, so trivially different spellings
+     * of the same question share an entry.
+     */
+    static String normalize(String question) {
+        String collapsed = question.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+        int end = collapsed.length();
+        while (end > 0 && "?!.".indexOf(collapsed.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        return collapsed.substring(0, end).trim();
+    }
+
+    /** 64-bit FNV-1a over roles and contents of the history window. */
+    static long fingerprint(List<ChatTurn> history) {
+        long hash = 0xcbf29ce484222325L;
+        for (ChatTurn turn : history) {
+            hash = (hash ^ turn.role().ordinal()) * 0x100000001b3L;
+            String content = turn.content();
+            for (int i = 0; i < content.length(); i++) {
+                hash = (hash ^ content.charAt(i)) * 0x100000001b3L;
+            }
+            hash = (hash ^ 0x1f) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("chat.answer.cache")
+                .description("Answer cache lookups by outcome")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
@@ -1,21 +1,32 @@
 package com.vinncorp.orga.chat;
 
-import com.vinncorp.orga.tenant.Tenant;
+import com.vinncorp.orga.chatbot.ChatbotCaller;
+import com.vinncorp.orga.chatbot.ChatbotClient;
+import com.vinncorp.orga.chatbot.ChatbotUnavailableException;
+import com.vinncorp.orga.security.TenantPrincipal;
+import com.vinncorp.orga.tenant.TenantQuotaCounters;
 import com.vinncorp.orga.user.User;
 import com.vinncorp.orga.user.UserRepository;
 import jakarta.validation.constraints.NotBlank;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.*;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.RestClientException;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 @RestController
@@ -23,21 +34,60 @@ import java.util.stream.Collectors;
 public class ChatController {
 
     private static final Logger logger = LoggerFactory.getLogger(ChatController.class);
-    private final RestTemplate restTemplate;
+    private final ChatbotClient chatbotClient;
+    private final AsyncTaskExecutor streamExecutor;
+    private final ConversationContextAssembler contextAssembler;
+    private final ConversationContextCache contextCache;
+    private final AnswerCache answerCache;
+    private final ChatbotSessions chatbotSessions;
     private final ConversationRepository conversationRepository;
     private final MessageRepository messageRepository;
+    private final MessageAppendService messageAppendService;
+    private final MessageSearch messageSearch;
+    private final TenantQuotaCounters quotaCounters;
     private final UserRepository userRepository;
 
-    @Value("${chatbot.base-url:http://127.0.0.1:8000}")
-    private String chatbotBaseUrl;
+    @Value("${chatbot.stream.timeout-ms:180000}")
+    private long streamTimeoutMs;
 
-    public ChatController(RestTemplate restTemplate,
+    @Value("${chat.page.default-size:50}")
+    private int defaultPageSize;
+
+    @Value("${chat.page.max-size:200}")
+    private int maxPageSize;
+
+    @Value("${chat.search.default-size:20}")
+    private int defaultSearchSize;
+
+    @Value("${chat.search.max-size:50}")
+    private int maxSearchSize;
+
+    @Value("${chat.search.max-query-length:200}")
+    private int maxQueryLength;
+
+    public ChatController(ChatbotClient chatbotClient,
+                         @Qualifier("applicationTaskExecutor") AsyncTaskExecutor streamExecutor,
+                         ConversationContextAssembler contextAssembler,
+                         ConversationContextCache contextCache,
+                         AnswerCache answerCache,
+                         ChatbotSessions chatbotSessions,
                          ConversationRepository conversationRepository,
                          MessageRepository messageRepository,
+                         MessageAppendService messageAppendService,
+                         MessageSearch messageSearch,
+                         TenantQuotaCounters quotaCounters,
                          UserRepository userRepository) {
-        this.restTemplate = restTemplate;
+        this.chatbotClient = chatbotClient;
+        this.streamExecutor = streamExecutor;
+        this.contextAssembler = contextAssembler;
+        this.contextCache = contextCache;
+        this.answerCache = answerCache;
+        this.chatbotSessions = chatbotSessions;
         this.conversationRepository = conversationRepository;
         this.messageRepository = messageRepository;
+        this.messageAppendService = messageAppendService;
+        this.messageSearch = messageSearch;
+        this.quotaCounters = quotaCounters;
         this.userRepository = userRepository;
     }
 
@@ -64,115 +114,74 @@ public class ChatController {
     }
 
     @PostMapping("/ask")
-    public ResponseEntity<?> ask(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> ask(@AuthenticationPrincipal TenantPrincipal principal,
                                  @RequestBody ChatRequest request) {
-        User user = userRepository.findByEmail(userDetails.getUsername())
-                .orElseThrow(() -> new RuntimeException("User not found"));
-        
         // Ensure user can only access their own tenant's data
-        if (!user.getTenant().getIsActive()) {
+        if (!principal.isTenantActive()) {
             return ResponseEntity.status(403).body(Map.of("message", "Tenant is inactive"));
         }
-
-        // Get or create conversation
-        Conversation conversation;
-        if (request.getConversationId() != null) {
-            conversation = conversationRepository.findByIdAndUser(request.getConversationId(), user)
-                    .orElseThrow(() -> new RuntimeException("Conversation not found"));
-            // Ensure messages are loaded by accessing them
-            conversation.getMessages().size(); // Trigger lazy loading
-            
-            // Update title if it's still "New Chat" and this is the first user message
-            if ("New Chat".equals(conversation.getTitle()) && conversation.getMessages().isEmpty()) {
-                String title = request.getMessage().length() > 50 
-                        ? request.getMessage().substring(0, 50) + "..." 
-                        : request.getMessage();
-                conversation.setTitle(title);
-                conversationRepository.save(conversation); // Save the updated title
-            }
-        } else {
-            // Create new conversation with first message as title
-            String title = request.getMessage().length() > 50 
-                    ? request.getMessage().substring(0, 50) + "..." 
-                    : request.getMessage();
-            conversation = new Conversation(user, title);
-            conversationRepository.save(conversation);
-        }
-
-        // Build conversation history for context (before adding new message)
-        List<Map<String, String>> conversationHistory = new java.util.ArrayList<>();
-        List<Message> previousMessages = conversation.getMessages();
-        
-        // Include previous messages in conversation history
-        for (Message msg : previousMessages) {
-            Map<String, String> historyMsg = new java.util.HashMap<>();
-            historyMsg.put("role", msg.getRole() == Message.MessageRole.USER ? "user" : "assistant");
-            historyMsg.put("content", msg.getContent());
-            conversationHistory.add(historyMsg);
+        if (!quotaCounters.hasQuota(principal.getTenantId(), principal.getMaxMessagesPerMonth())) {
+            return quotaExceeded(principal);
         }
 
-        // Save user message
-        Message userMessage = new Message(conversation, request.getMessage(), Message.MessageRole.USER);
-        messageRepository.save(userMessage);
-        conversation.addMessage(userMessage);
+        Conversation conversation = resolveConversation(principal, request);
+        ConversationContextAssembler.HistoryWindow window = contextAssembler.assemble(
+                contextCache.recentTurns(conversation), principal.getSubscriptionPlan());
+        AnswerCache.Key answerKey = answerCache.keyFor(principal.getTenantId(), request.getMessage(), window.turns());
 
-        // Forward the message to the Python chatbot API
-        String url = chatbotBaseUrl + "/chat";
-        logger.info("Calling Python chatbot at: {}", url);
+        // The question is saved together with the reply once there is one
+        PendingTurn turn = openTurn(principal, conversation, request.getMessage(), window);
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-
-        // Python API expects { "question": "...", "conversation_history": [...] }
-        Map<String, Object> payload = new java.util.HashMap<>();
-        payload.put("question", request.getMessage());
-        if (!conversationHistory.isEmpty()) {
-            payload.put("conversation_history", conversationHistory);
+        // Same question with the same history already answered for this tenant
+        Optional<String> cachedReply = answerCache.getFresh(answerKey);
+        if (cachedReply.isPresent()) {
+            saveTurn(turn, cachedReply.get());
+            return ResponseEntity.ok(Map.of(
+                    "reply", cachedReply.get(),
+                    "conversationId", conversation.getId(),
+                    "cached", true
+            ));
         }
 
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(payload, headers);
-
         try {
-            logger.info("Sending request to Python API: {}", payload);
-            
-            // Use exchange for more control and better error handling
-            @SuppressWarnings("unchecked")
-            ResponseEntity<Map<String, Object>> chatbotResponse = (ResponseEntity<Map<String, Object>>) (ResponseEntity<?>) restTemplate.exchange(
-                url, 
-                HttpMethod.POST, 
-                entity, 
-                Map.class
-            );
-            
-            logger.info("Response status: {}", chatbotResponse.getStatusCode());
-            logger.info("Received response from Python API: {}", chatbotResponse.getBody());
-            
-            String replyText;
-            if (chatbotResponse.getBody() == null) {
-                logger.warn("Response body is null!");
-                replyText = "Chatbot returned empty response";
-            } else {
-                Object reply = chatbotResponse.getBody().get("reply");
-                replyText = reply != null ? reply.toString() : chatbotResponse.getBody().toString();
-            }
+            // Identical questions already pending upstream for this tenant share that call's reply
+            String replyText = chatbotClient.askShared(answerKey,
+                    () -> chatbotSessions.ask(turn.session(), payload -> chatbotClient.ask(turn.caller(), payload)));
 
             // Save bot response
-            Message botMessage = new Message(conversation, replyText, Message.MessageRole.BOT);
-            messageRepository.save(botMessage);
-            conversation.addMessage(botMessage);
-            conversationRepository.save(conversation);
+            saveTurn(turn, replyText);
+            cacheAnswer(answerKey, replyText);
 
             return ResponseEntity.ok(Map.of(
                     "reply", replyText,
                     "conversationId", conversation.getId()
             ));
         } catch (RestClientException e) {
-            logger.error("Error calling Python chatbot at {}: {}", url, e.getMessage(), e);
+            if (!(e instanceof ChatbotUnavailableException)) {
+                logger.error("Error calling Python chatbot: {}", e.getMessage(), e);
+            }
+            Optional<String> staleReply = answerCache.getStale(answerKey);
+            if (staleReply.isPresent()) {
+                logger.warn("Serving stale cached answer for conversation {}", conversation.getId());
+                saveTurn(turn, staleReply.get());
+                return ResponseEntity.ok(Map.of(
+                        "reply", staleReply.get(),
+                        "conversationId", conversation.getId(),
+                        "cached", true,
+                        "stale", true
+                ));
+            }
             String errorMsg = "Failed to contact chatbot service: " + e.getMessage();
-            Message errorMessage = new Message(conversation, errorMsg, Message.MessageRole.BOT);
-            messageRepository.save(errorMessage);
-            conversation.addMessage(errorMessage);
-            conversationRepository.save(conversation);
+            saveTurn(turn, errorMsg);
+
+            if (e instanceof ChatbotUnavailableException unavailable) {
+                // Breaker open or bulkhead full: fail fast rather than queue behind a struggling upstream
+                logger.warn("Chatbot unavailable, failing fast: {}", e.getMessage());
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(
+                                Math.max(1, (unavailable.getRetryAfterMillis() + 999) / 1000)))
+                        .body(Map.of("message", errorMsg, "conversationId", conversation.getId()));
+            }
             
             return ResponseEntity.status(HttpStatus.BAD_GATEWAY)
                     .body(Map.of("message", errorMsg, "conversationId", conversation.getId()));
@@ -183,12 +192,182 @@ public class ChatController {
         }
     }
 
+    /**
+     * Streaming variant of {@link #ask}: relays the chatbot reply as Server-Sent Events while it is
+     * being generated. Emits one {@code conversation} event with the conversation id, a {@code token}
+     * event per chunk, and finally {@code done} (or {@code error}). The BOT message is saved once the
+     * stream ends; if the upstream or the client drops out midway, whatever was received is saved.
+     */
+    @PostMapping(value = "/ask/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<?> askStream(@AuthenticationPrincipal TenantPrincipal principal,
+                                       @RequestBody ChatRequest request) {
+        if (!principal.isTenantActive()) {
+            return ResponseEntity.status(403).contentType(MediaType.APPLICATION_JSON)
+                    .body(Map.of("message", "Tenant is inactive"));
+        }
+        if (!quotaCounters.hasQuota(principal.getTenantId(), principal.getMaxMessagesPerMonth())) {
+            return quotaExceeded(principal);
+        }
+
+        Conversation conversation = resolveConversation(principal, request);
+        ConversationContextAssembler.HistoryWindow window = contextAssembler.assemble(
+                contextCache.recentTurns(conversation), principal.getSubscriptionPlan());
+        AnswerCache.Key answerKey = answerCache.keyFor(principal.getTenantId(), request.getMessage(), window.turns());
+
+        PendingTurn turn = openTurn(principal, conversation, request.getMessage(), window);
+
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        try {
+            streamExecutor.execute(() -> relayStream(conversation, turn, answerKey, emitter));
+        } catch (TaskRejectedException e) {
+            logger.warn("No capacity to stream chatbot reply: {}", e.getMessage());
+            saveTurn(turn, "Failed to contact chatbot service: server is busy");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).contentType(MediaType.APPLICATION_JSON)
+                    .body(Map.of("message", "Chat service is busy, please retry", "conversationId", conversation.getId()));
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
+    private void relayStream(Conversation conversation, PendingTurn turn, AnswerCache.Key answerKey,
+                             SseEmitter emitter) {
+        StringBuilder reply = new StringBuilder();
+        try {
+            emitter.send(SseEmitter.event().name("conversation")
+                    .data(Map.of("conversationId", conversation.getId())));
+            Optional<String> cachedReply = answerCache.getFresh(answerKey);
+            if (cachedReply.isPresent()) {
+                reply.append(cachedReply.get());
+                emitter.send(SseEmitter.event().name("token").data(Map.of("token", cachedReply.get())));
+            } else {
+                chatbotSessions.stream(turn.session(), payload -> chatbotClient.stream(turn.caller(), payload, token -> {
+                    reply.append(token);
+                    try {
+                        emitter.send(SseEmitter.event().name("token").data(Map.of("token", token)));
+                    } catch (IOException e) {
+                        throw new ClientDisconnectedException(e);
+                    }
+                }));
+                cacheAnswer(answerKey, reply.toString());
+            }
+        } catch (ClientDisconnectedException | IOException e) {
+            logger.info("Client left conversation {} mid-stream after {} chars", conversation.getId(), reply.length());
+            saveTurn(turn, reply.toString());
+            emitter.completeWithError(e);
+            return;
+        } catch (RuntimeException e) {
+            logger.error("Chatbot stream for conversation {} failed: {}", conversation.getId(), e.getMessage(), e);
+            Optional<String> staleReply = reply.length() == 0 ? answerCache.getStale(answerKey) : Optional.empty();
+            if (staleReply.isPresent()) {
+                logger.warn("Serving stale cached answer for conversation {}", conversation.getId());
+                saveTurn(turn, staleReply.get());
+                sendQuietly(emitter, SseEmitter.event().name("token").data(Map.of("token", staleReply.get())));
+                sendQuietly(emitter, SseEmitter.event().name("done")
+                        .data(Map.of("conversationId", conversation.getId(), "stale", true)));
+                emitter.complete();
+                return;
+            }
+            String text = reply.length() > 0 ? reply.toString() : "Failed to contact chatbot service: " + e.getMessage();
+            saveTurn(turn, text);
+            sendQuietly(emitter, SseEmitter.event().name("error")
+                    .data(Map.of("message", "Failed to contact chatbot service: " + e.getMessage(),
+                            "conversationId", conversation.getId())));
+            emitter.complete();
+            return;
+        }
+
+        String replyText = reply.length() > 0 ? reply.toString() : ChatbotClient.EMPTY_REPLY;
+        saveTurn(turn, replyText);
+        sendQuietly(emitter, SseEmitter.event().name("done").data(Map.of("conversationId", conversation.getId())));
+        emitter.complete();
+    }
+
+    private ResponseEntity<?> quotaExceeded(TenantPrincipal principal) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).contentType(MediaType.APPLICATION_JSON)
+                .body(Map.of("message", "Monthly message limit reached. Max messages per month: "
+                        + principal.getMaxMessagesPerMonth()));
+    }
+
+    private void sendQuietly(SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+        try {
+            emitter.send(event);
+        } catch (IOException | IllegalStateException e) {
+            logger.debug("Could not deliver final stream event: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the conversation the request continues, or starts a new one titled after the first message.
+     * Only the conversation row is read here; its history comes from the {@link ConversationContextCache}.
+     */
+    private Conversation resolveConversation(TenantPrincipal principal, ChatRequest request) {
+        // Reference only: binds the user id without loading the user
+        User user = userRepository.getReferenceById(principal.getUserId());
+        Conversation conversation;
+        if (request.getConversationId() != null) {
+            conversation = conversationRepository.findByIdAndUser(request.getConversationId(), user)
+                    .orElseThrow(() -> new RuntimeException("Conversation not found"));
+            
+            // Update title if it's still "New Chat" and this is the first user message
+            if ("New Chat".equals(conversation.getTitle()) && contextCache.recentTurns(conversation).isEmpty()) {
+                conversation.setTitle(titleFor(request.getMessage()));
+                conversationRepository.save(conversation); // Save the updated title
+            }
+        } else {
+            // Create new conversation with first message as title
+            conversation = new Conversation(user, titleFor(request.getMessage()));
+            conversationRepository.save(conversation);
+            contextCache.start(conversation.getId());
+        }
+        return conversation;
+    }
+
+    private String titleFor(String message) {
+        return message.length() > 50 ? message.substring(0, 50) + "..." : message;
+    }
+
+    /**
+     * Starts a turn: the question, when it was asked, and the chatbot call that decides how much of the
+     * history window the payload has to carry (see {@link ChatbotSessions}).
+     */
+    private PendingTurn openTurn(TenantPrincipal principal, Conversation conversation, String question,
+                                 ConversationContextAssembler.HistoryWindow window) {
+        int historyBudget = contextAssembler.budgetFor(principal.getSubscriptionPlan());
+        return new PendingTurn(principal.getUserId(), conversation.getId(), question, LocalDateTime.now(),
+                chatbotSessions.open(conversation.getId(), question, window, historyBudget),
+                new ChatbotCaller(principal.getTenantId(), principal.getSubscriptionPlan()));
+    }
+
+    private void cacheAnswer(AnswerCache.Key answerKey, String replyText) {
+        if (!replyText.isEmpty() && !ChatbotClient.EMPTY_REPLY.equals(replyText)) {
+            answerCache.put(answerKey, replyText);
+        }
+    }
+
+    private void saveTurn(PendingTurn turn, String reply) {
+        messageAppendService.appendTurn(turn.caller().tenantId(), turn.userId(), turn.conversationId(), turn.question(), turn.askedAt(), reply);
+        chatbotSessions.complete(turn.session(), reply);
+    }
+
+    /**
+     * A question waiting for its reply; both are written together by {@link MessageAppendService}.
+     */
+    private record PendingTurn(Long userId, Long conversationId, String question, LocalDateTime askedAt,
+                               ChatbotSessions.Call session, ChatbotCaller caller) {
+    }
+
+    /**
+     * Raised from the token callback when the SSE client has gone away, to stop reading upstream.
+     */
+    private static class ClientDisconnectedException extends RuntimeException {
+        ClientDisconnectedException(IOException cause) {
+            super(cause);
+        }
+    }
+
     @PostMapping("/conversations")
-    public ResponseEntity<?> createConversation(@AuthenticationPrincipal UserDetails userDetails) {
-        User user = userRepository.findByEmail(userDetails.getUsername())
-                .orElseThrow(() -> new RuntimeException("User not found"));
-        
-        Conversation conversation = new Conversation(user, "New Chat");
+    public ResponseEntity<?> createConversation(@AuthenticationPrincipal TenantPrincipal principal) {
+        Conversation conversation = new Conversation(
+                userRepository.getReferenceById(principal.getUserId()), "New Chat");
         conversation = conversationRepository.save(conversation);
         
         return ResponseEntity.ok(Map.of(
@@ -198,99 +377,200 @@ public class ChatController {
         ));
     }
 
+    /**
+     * The user's conversations, most recently active first, one page at a time. Pass the previous
+     * response's {@code X-Next-Cursor} header as {@code before} for the next page; the header is absent
+     * on the last page.
+     */
     @GetMapping("/conversations")
-    public ResponseEntity<?> getConversations(@AuthenticationPrincipal UserDetails userDetails) {
-        User user = userRepository.findByEmail(userDetails.getUsername())
-                .orElseThrow(() -> new RuntimeException("User not found"));
-        
+    public ResponseEntity<?> getConversations(@AuthenticationPrincipal TenantPrincipal principal,
+                                              @RequestParam(required = false) String before,
+                                              @RequestParam(required = false) Integer limit) {
+        PageCursor cursor;
+        try {
+            cursor = before != null ? PageCursor.decode(before) : null;
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        }
+        int size = pageSize(limit);
+        // One extra row tells whether another page follows
+        PageRequest page = PageRequest.of(0, size + 1);
+
         // Tenant isolation: Only get conversations for this user (which automatically filters by tenant)
-        List<Conversation> conversations = conversationRepository.findByUserOrderByUpdatedAtDesc(user);
-        
+        List<ConversationSummary> conversations = cursor == null
+                ? conversationRepository.findLatestSummaries(principal.getUserId(), page)
+                : conversationRepository.findSummariesBefore(principal.getUserId(), cursor.at(), cursor.id(), page);
+        boolean hasMore = conversations.size() > size;
+        if (hasMore) {
+            conversations = conversations.subList(0, size);
+        }
+
         List<Map<String, Object>> result = conversations.stream()
                 .map(c -> {
                     Map<String, Object> map = new java.util.HashMap<>();
-                    map.put("id", c.getId());
-                    map.put("title", c.getTitle());
-                    map.put("createdAt", c.getCreatedAt().toString());
-                    map.put("updatedAt", c.getUpdatedAt().toString());
-                    map.put("messageCount", c.getMessages().size());
+                    map.put("id", c.id());
+                    map.put("title", c.title());
+                    map.put("createdAt", c.createdAt().toString());
+                    map.put("updatedAt", c.updatedAt().toString());
+                    map.put("messageCount", c.messageCount());
+                    map.put("lastMessageAt", c.lastMessageAt() != null ? c.lastMessageAt().toString() : null);
+                    map.put("lastMessagePreview", c.lastMessagePreview());
                     return map;
                 })
                 .collect(Collectors.toList());
-        
-        return ResponseEntity.ok(result);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (hasMore) {
+            ConversationSummary last = conversations.get(conversations.size() - 1);
+            response.header(PageCursor.HEADER, new PageCursor(last.updatedAt(), last.id()).encode());
+        }
+        return response.body(result);
     }
 
+    /**
+     * The conversation with its newest page of messages (in chronological order). Older messages are
+     * fetched from {@code /conversations/{id}/messages} with the returned {@code nextCursor}.
+     */
     @GetMapping("/conversations/{conversationId}")
-    public ResponseEntity<?> getConversation(@AuthenticationPrincipal UserDetails userDetails,
-                                            @PathVariable Long conversationId) {
-        User user = userRepository.findByEmail(userDetails.getUsername())
-                .orElseThrow(() -> new RuntimeException("User not found"));
-        
-        Conversation conversation = conversationRepository.findByIdAndUser(conversationId, user)
+    public ResponseEntity<?> getConversation(@AuthenticationPrincipal TenantPrincipal principal,
+                                            @PathVariable Long conversationId,
+                                            @RequestParam(required = false) Integer limit) {
+        // Scoped to the user, and through them to their tenant
+        ConversationSummary conversation = conversationRepository.findSummary(conversationId, principal.getUserId())
                 .orElseThrow(() -> new RuntimeException("Conversation not found"));
-        
-        // Ensure conversation belongs to user's tenant
-        if (!conversation.getUser().getTenant().getId().equals(user.getTenant().getId())) {
-            return ResponseEntity.status(403).body(Map.of("message", "Access denied"));
+
+        MessagePage page = messagePage(conversationId, null, limit);
+
+        Map<String, Object> result = new java.util.HashMap<>();
+        result.put("id", conversation.id());
+        result.put("title", conversation.title());
+        result.put("createdAt", conversation.createdAt().toString());
+        result.put("updatedAt", conversation.updatedAt().toString());
+        result.put("messages", page.messages());
+        result.put("nextCursor", page.nextCursor());
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextCursor() != null) {
+            response.header(PageCursor.HEADER, page.nextCursor());
         }
-        
-        List<Map<String, Object>> messages = conversation.getMessages().stream()
-                .map(m -> {
+        return response.body(result);
+    }
+
+    /**
+     * One page of a conversation's messages, walking back from the newest: the {@code limit} messages
+     * before {@code before} (or the newest ones), in chronological order. {@code X-Next-Cursor} points at
+     * the next older page and is absent once the first message has been returned.
+     */
+    @GetMapping("/conversations/{conversationId}/messages")
+    public ResponseEntity<?> getMessages(@AuthenticationPrincipal TenantPrincipal principal,
+                                         @PathVariable Long conversationId,
+                                         @RequestParam(required = false) String before,
+                                         @RequestParam(required = false) Integer limit) {
+        // Scoped to the user, and through them to their tenant
+        if (!conversationRepository.existsByIdAndUserId(conversationId, principal.getUserId())) {
+            throw new RuntimeException("Conversation not found");
+        }
+
+        MessagePage page;
+        try {
+            page = messagePage(conversationId, before != null ? PageCursor.decode(before) : null, limit);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextCursor() != null) {
+            response.header(PageCursor.HEADER, page.nextCursor());
+        }
+        return response.body(page.messages());
+    }
+
+    private record MessagePage(List<Map<String, Object>> messages, String nextCursor) {
+    }
+
+    private MessagePage messagePage(Long conversationId, PageCursor before, Integer limit) {
+        int size = pageSize(limit);
+        PageRequest page = PageRequest.of(0, size + 1);
+        List<MessageView> newestFirst = before == null
+                ? messageRepository.findLatest(conversationId, page)
+                : messageRepository.findBefore(conversationId, before.at(), before.id(), page);
+
+        String nextCursor = null;
+        if (newestFirst.size() > size) {
+            newestFirst = newestFirst.subList(0, size);
+            MessageView oldest = newestFirst.get(size - 1);
+            nextCursor = new PageCursor(oldest.createdAt(), oldest.id()).encode();
+        }
+
+        List<Map<String, Object>> messages = new ArrayList<>(newestFirst.size());
+        for (int i = newestFirst.size() - 1; i >= 0; i--) {
+            MessageView m = newestFirst.get(i);
+            Map<String, Object> map = new java.util.HashMap<>();
+            map.put("id", m.id());
+            map.put("content", m.content());
+            map.put("role", m.role().name());
+            map.put("createdAt", m.createdAt().toString());
+            messages.add(map);
+        }
+        return new MessagePage(messages, nextCursor);
+    }
+
+    private int pageSize(Integer limit) {
+        return limit == null ? defaultPageSize : Math.max(1, Math.min(limit, maxPageSize));
+    }
+
+    /**
+     * The user's conversation titles and messages matching {@code q}, best match first, each with a
+     * highlighted snippet. {@code q} takes web-search syntax: words, {@code "phrases"}, {@code or},
+     * {@code -excluded}.
+     */
+    @GetMapping("/search")
+    public ResponseEntity<?> search(@AuthenticationPrincipal TenantPrincipal principal,
+                                    @RequestParam String q,
+                                    @RequestParam(required = false) Integer limit) {
+        if (q.isBlank() || q.length() > maxQueryLength) {
+            return ResponseEntity.badRequest().body(Map.of("message",
+                    "Search query must be 1 to " + maxQueryLength + " characters"));
+        }
+        if (!messageSearch.isAvailable()) {
+            // The search column has not been added yet (db/migration/message_search.sql)
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "60")
+                    .body(Map.of("message", "Conversation search is not available yet"));
+        }
+        int size = limit == null ? defaultSearchSize : Math.max(1, Math.min(limit, maxSearchSize));
+
+        // Scoped to the user, and through them to their tenant
+        List<Map<String, Object>> result = messageSearch.search(principal.getUserId(), q, size).stream()
+                .map(hit -> {
                     Map<String, Object> map = new java.util.HashMap<>();
-                    map.put("id", m.getId());
-                    map.put("content", m.getContent());
-                    map.put("role", m.getRole().name());
-                    map.put("createdAt", m.getCreatedAt().toString());
+                    map.put("conversationId", hit.conversationId());
+                    map.put("conversationTitle", hit.conversationTitle());
+                    map.put("messageId", hit.messageId());
+                    map.put("role", hit.role());
+                    map.put("createdAt", hit.createdAt().toString());
+                    map.put("rank", hit.rank());
+                    map.put("snippet", hit.snippet());
                     return map;
                 })
                 .collect(Collectors.toList());
-        
-        return ResponseEntity.ok(Map.of(
-                "id", conversation.getId(),
-                "title", conversation.getTitle(),
-                "createdAt", conversation.getCreatedAt().toString(),
-                "updatedAt", conversation.getUpdatedAt().toString(),
-                "messages", messages
-        ));
+        return ResponseEntity.ok(result);
     }
 
     @DeleteMapping("/conversations/{conversationId}")
-    public ResponseEntity<?> deleteConversation(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> deleteConversation(@AuthenticationPrincipal TenantPrincipal principal,
                                                @PathVariable Long conversationId) {
-        User user = userRepository.findByEmail(userDetails.getUsername())
-                .orElseThrow(() -> new RuntimeException("User not found"));
-        
+        // Scoped to the user, and through them to their tenant
+        User user = userRepository.getReferenceById(principal.getUserId());
         Conversation conversation = conversationRepository.findByIdAndUser(conversationId, user)
                 .orElseThrow(() -> new RuntimeException("Conversation not found"));
-        
-        // Ensure conversation belongs to user's tenant
-        if (!conversation.getUser().getTenant().getId().equals(user.getTenant().getId())) {
-            return ResponseEntity.status(403).body(Map.of("message", "Access denied"));
-        }
-        
+
         conversationRepository.delete(conversation);
+        contextCache.evict(conversationId);
+        chatbotSessions.forget(conversationId);
         
         return ResponseEntity.ok(Map.of("message", "Conversation deleted"));
     }
-    
-    private boolean checkUsageLimits(Tenant tenant) {
-        // Check monthly message limit
-        java.time.YearMonth currentMonth = java.time.YearMonth.now();
-        java.time.LocalDateTime startOfMonth = currentMonth.atDay(1).atStartOfDay();
-        java.time.LocalDateTime endOfMonth = currentMonth.atEndOfMonth().atTime(23, 59, 59);
-        
-        long messageCount = messageRepository.findAll().stream()
-                .filter(m -> {
-                    com.vinncorp.orga.user.User msgUser = m.getConversation().getUser();
-                    return msgUser.getTenant().getId().equals(tenant.getId()) &&
-                           m.getCreatedAt().isAfter(startOfMonth) &&
-                           m.getCreatedAt().isBefore(endOfMonth);
-                })
-                .count();
-        
-        return messageCount < tenant.getMaxMessagesPerMonth();
-    }
 }
 
 
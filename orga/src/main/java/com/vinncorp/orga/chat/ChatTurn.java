@@ -0,0 +1,12 @@
+package com.vinncorp.orga.chat;
+
+/**
+ * One message of conversation history as sent to the chatbot, detached from the {@link Message} entity.
+ */
+public record ChatTurn(Message.MessageRole role, String content) {
+
+    /** Role name in the chatbot's vocabulary ({@code user} / {@code assistant}). */
+    public String chatbotRole() {
+        return role == Message.MessageRole.USER ? "user" : "assistant";
+    }
+}
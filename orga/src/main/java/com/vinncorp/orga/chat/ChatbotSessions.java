@@ -0,0 +1,219 @@
+package com.vinncorp.orga.chat;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Builds chatbot payloads and, with {@code chatbot.protocol.version=2}, keeps them O(1) per turn.
+ * <p>
+ * Protocol 1 sends the whole history window with every question. Protocol 2 relies on the chatbot
+ * keeping a session per conversation: orga sends the conversation id, {@code seq} (the number of turns
+ * the session should already hold) and in {@code messages} only the turns the session has not seen, which
+ * is usually none since the chatbot records each question and the reply it generated. Turns the chatbot
+ * never produced (cached, stale or error replies) are queued here and sent with the next question.
+ * <p>
+ * When orga has no session state for a conversation (new conversation, restart, expiry) it sends a
+ * {@code resync} carrying the full window, which replaces the upstream session. If the chatbot's
+ * session does not match {@code seq} it answers 409 and the request is resent as a resync. Requests are
+ * counted as {@code chatbot.session.requests{mode=delta|full|conflict}}.
+ */
+@Component
+public class ChatbotSessions {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatbotSessions.class);
+
+    public static final int PROTOCOL_DELTA = 2;
+
+    private final int protocolVersion;
+    private final int maxPendingTurns;
+    private final Cache<Long, Session> sessions;
+    private final Counter deltaRequests;
+    private final Counter fullRequests;
+    private final Counter conflictRequests;
+
+    /** What orga believes the upstream session holds, plus turns it still has to be told about. */
+    private record Session(long seq, List<ChatTurn> pending) {
+    }
+
+    /**
+     * One question on its way to the chatbot. Decides between delta and full payload when opened and
+     * records whether the chatbot itself produced the reply.
+     */
+    public static final class Call {
+        private final Long conversationId;
+        private final String question;
+        private final ConversationContextAssembler.HistoryWindow window;
+        private final int historyTokenBudget;
+        private long baseSeq;
+        private List<ChatTurn> delta;
+        private boolean resync;
+        private volatile boolean answered;
+
+        private Call(Long conversationId, String question, ConversationContextAssembler.HistoryWindow window,
+                     int historyTokenBudget) {
+            this.conversationId = conversationId;
+            this.question = question;
+            this.window = window;
+            this.historyTokenBudget = historyTokenBudget;
+        }
+    }
+
+    public ChatbotSessions(MeterRegistry meterRegistry,
+                           @Value("${chatbot.protocol.version:1}") int protocolVersion,
+                           @Value("${chatbot.session.max-pending-turns:20}") int maxPendingTurns,
+                           @Value("${chatbot.session.expire-after-access:PT30M}") Duration expireAfterAccess) {
+        this.protocolVersion = protocolVersion;
+        this.maxPendingTurns = maxPendingTurns;
+        this.sessions = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterAccess(expireAfterAccess)
+                .build();
+        this.deltaRequests = counter(meterRegistry, "delta");
+        this.fullRequests = counter(meterRegistry, "full");
+        this.conflictRequests = counter(meterRegistry, "conflict");
+    }
+
+    public Call open(Long conversationId, String question, ConversationContextAssembler.HistoryWindow window,
+                     int historyTokenBudget) {
+        Call call = new Call(conversationId, question, window, historyTokenBudget);
+        Session session = protocolVersion >= PROTOCOL_DELTA ? sessions.getIfPresent(conversationId) : null;
+        if (session == null) {
+            call.resync = true;
+            call.delta = window.turns();
+        } else {
+            call.baseSeq = session.seq();
+            call.delta = session.pending();
+        }
+        return call;
+    }
+
+    /**
+     * Sends the call through {@code send}, resending it as a full resync if the chatbot reports a
+     * session mismatch.
+     */
+    public String ask(Call call, Function<Map<String, Object>, String> send) {
+        try {
+            String reply = send.apply(payload(call));
+            call.answered = true;
+            return reply;
+        } catch (HttpClientErrorException.Conflict e) {
+            resyncAfterConflict(call);
+            String reply = send.apply(payload(call));
+            call.answered = true;
+            return reply;
+        }
+    }
+
+    /**
+     * Streaming counterpart of {@link #ask}. A 409 arrives before any token, so resending is safe.
+     */
+    public void stream(Call call, Consumer<Map<String, Object>> send) {
+        try {
+            send.accept(payload(call));
+        } catch (HttpClientErrorException.Conflict e) {
+            resyncAfterConflict(call);
+            send.accept(payload(call));
+        }
+        call.answered = true;
+    }
+
+    /**
+     * Records the saved turn: if the chatbot produced the reply its session has moved on by the turns
+     * sent plus this question and reply, otherwise the turn is queued for the next request.
+     */
+    public void complete(Call call, String reply) {
+        if (protocolVersion < PROTOCOL_DELTA) {
+            return;
+        }
+        sessions.asMap().compute(call.conversationId, (id, current) -> {
+            if (!call.answered) {
+                if (current == null) {
+                    // Nothing to catch up on: the next request resyncs from the history window
+                    return null;
+                }
+                List<ChatTurn> pending = new ArrayList<>(current.pending());
+                pending.add(new ChatTurn(Message.MessageRole.USER, call.question));
+                pending.add(new ChatTurn(Message.MessageRole.BOT, reply));
+                return pending.size() <= maxPendingTurns ? new Session(current.seq(), List.copyOf(pending)) : null;
+            }
+            long seq = call.baseSeq + call.delta.size() + 2;
+            if (call.resync) {
+                return new Session(seq, List.of());
+            }
+            if (current == null || current.seq() != call.baseSeq || current.pending().size() < call.delta.size()) {
+                // Another turn of this conversation got there first; let the next request resync
+                return null;
+            }
+            // Keep turns queued while this call was in flight
+            return new Session(seq, current.pending().subList(call.delta.size(), current.pending().size()));
+        });
+    }
+
+    public void forget(Long conversationId) {
+        sessions.invalidate(conversationId);
+    }
+
+    private void resyncAfterConflict(Call call) {
+        logger.info("Chatbot session for conversation {} out of sync at seq {}, resending full history",
+                call.conversationId, call.baseSeq);
+        sessions.invalidate(call.conversationId);
+        call.resync = true;
+        call.baseSeq = 0;
+        call.delta = call.window.turns();
+        conflictRequests.increment();
+    }
+
+    private Map<String, Object> payload(Call call) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("question", call.question);
+        if (protocolVersion < PROTOCOL_DELTA) {
+            if (!call.window.turns().isEmpty()) {
+                payload.put("conversation_history", call.window.toPayload());
+            }
+            return payload;
+        }
+        payload.put("protocol", PROTOCOL_DELTA);
+        payload.put("conversation_id", call.conversationId);
+        payload.put("history_token_budget", call.historyTokenBudget);
+        if (call.resync) {
+            payload.put("resync", true);
+            payload.put("conversation_history", call.window.toPayload());
+            fullRequests.increment();
+        } else {
+            payload.put("seq", call.baseSeq);
+            payload.put("messages", toPayload(call.delta));
+            deltaRequests.increment();
+        }
+        return payload;
+    }
+
+    private static List<Map<String, String>> toPayload(List<ChatTurn> turns) {
+        List<Map<String, String>> messages = new ArrayList<>(turns.size());
+        for (ChatTurn turn : turns) {
+            messages.add(Map.of("role", turn.chatbotRole(), "content", turn.content()));
+        }
+        return messages;
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String mode) {
+        return Counter.builder("chatbot.session.requests")
+                .description("Chatbot requests by history mode: delta, full resync or resync after a conflict")
+                .tag("mode", mode)
+                .register(meterRegistry);
+    }
+}
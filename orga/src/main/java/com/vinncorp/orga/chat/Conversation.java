@@ -2,14 +2,18 @@ package com.vinncorp.orga.chat;
 
 import com.vinncorp.orga.user.User;
 import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "conversations")
+@Table(name = "conversations",
+        indexes = @Index(name = "idx_conversations_user_updated", columnList = "user_id, updated_at, id"))
 public class Conversation {
 
+    public static final int PREVIEW_LENGTH = 120;
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -27,6 +31,17 @@ public class Conversation {
     @Column(nullable = false)
     private LocalDateTime updatedAt;
 
+    // Sidebar summary, maintained by MessageAppendService (ConversationSummaryBackfill fills it for
+    // conversations written before it existed)
+    @Column(nullable = false)
+    @ColumnDefault("0")
+    private long messageCount;
+
+    private LocalDateTime lastMessageAt;
+
+    @Column(length = PREVIEW_LENGTH)
+    private String lastMessagePreview;
+
     @OneToMany(mappedBy = "conversation", cascade = CascadeType.ALL, orphanRemoval = true)
     @OrderBy("createdAt ASC")
     private List<Message> messages = new ArrayList<>();
@@ -77,6 +92,18 @@ public class Conversation {
         this.updatedAt = updatedAt;
     }
 
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    public LocalDateTime getLastMessageAt() {
+        return lastMessageAt;
+    }
+
+    public String getLastMessagePreview() {
+        return lastMessagePreview;
+    }
+
     public List<Message> getMessages() {
         return messages;
     }
@@ -90,5 +117,13 @@ public class Conversation {
         message.setConversation(this);
         this.updatedAt = LocalDateTime.now();
     }
-}
 
+    /** {@code content} on one line, cut to {@link #PREVIEW_LENGTH} characters. */
+    public static String preview(String content) {
+        String line = content.strip().replaceAll("\\s+", " ");
+        if (line.codePointCount(0, line.length()) <= PREVIEW_LENGTH) {
+            return line;
+        }
+        return line.substring(0, line.offsetByCodePoints(0, PREVIEW_LENGTH));
+    }
+}
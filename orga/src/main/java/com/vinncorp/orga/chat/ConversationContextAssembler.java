@@ -0,0 +1,144 @@
+package com.vinncorp.orga.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Selects the conversation history sent to the chatbot under a token budget.
+ * <p>
+ * Turns are taken newest first while they fit the budget of the tenant's subscription plan. The first
+ * turn that does not fit is cut down to the remaining budget (if enough is left to be useful) and
+ * everything older is dropped. Tokens sent and tokens saved by the window are published as the
+ * {@code chat.history.tokens} counter, tagged by plan.
+ */
+@Component
+public class ConversationContextAssembler {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversationContextAssembler.class);
+    private static final String TRUNCATION_MARKER = " [...]";
+    private static final int MIN_TRUNCATED_TOKENS = 32;
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Counter> sentCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> savedCounters = new ConcurrentHashMap<>();
+
+    @Value("${chat.history.token-budget.basic:2000}")
+    private int basicBudget;
+
+    @Value("${chat.history.token-budget.pro:6000}")
+    private int proBudget;
+
+    @Value("${chat.history.token-budget.enterprise:12000}")
+    private int enterpriseBudget;
+
+    public ConversationContextAssembler(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * History that made it into the payload, in chronological order, with the token accounting.
+     */
+    public record HistoryWindow(List<ChatTurn> turns, int tokensSent, int tokensSaved) {
+
+        public List<Map<String, String>> toPayload() {
+            List<Map<String, String>> history = new ArrayList<>(turns.size());
+            for (ChatTurn turn : turns) {
+                Map<String, String> historyMsg = new HashMap<>();
+                historyMsg.put("role", turn.chatbotRole());
+                historyMsg.put("content", turn.content());
+                history.add(historyMsg);
+            }
+            return history;
+        }
+    }
+
+    public HistoryWindow assemble(List<ChatTurn> history, String subscriptionPlan) {
+        int budget = budgetFor(subscriptionPlan);
+        int remaining = budget;
+        int sent = 0;
+        int saved = 0;
+        List<ChatTurn> selected = new ArrayList<>();
+
+        int i = history.size() - 1;
+        for (; i >= 0; i--) {
+            ChatTurn turn = history.get(i);
+            int tokens = TokenEstimator.estimate(turn.content());
+            if (tokens <= remaining) {
+                selected.add(turn);
+                remaining -= tokens;
+                sent += tokens;
+                continue;
+            }
+            if (remaining >= MIN_TRUNCATED_TOKENS) {
+                String truncated = truncate(turn.content(), remaining);
+                int truncatedTokens = TokenEstimator.estimate(truncated);
+                selected.add(new ChatTurn(turn.role(), truncated));
+                sent += truncatedTokens;
+                saved += tokens - truncatedTokens;
+            } else {
+                saved += tokens;
+            }
+            i--;
+            break;
+        }
+        for (; i >= 0; i--) {
+            saved += TokenEstimator.estimate(history.get(i).content());
+        }
+        Collections.reverse(selected);
+
+        String plan = normalizePlan(subscriptionPlan);
+        counter(sentCounters, plan, "sent").increment(sent);
+        counter(savedCounters, plan, "saved").increment(saved);
+        if (saved > 0) {
+            logger.debug("History window for plan {}: {} of {} turns, {} tokens sent, {} saved",
+                    plan, selected.size(), history.size(), sent, saved);
+        }
+        return new HistoryWindow(selected, sent, saved);
+    }
+
+    int budgetFor(String subscriptionPlan) {
+        return switch (normalizePlan(subscriptionPlan)) {
+            case "ENTERPRISE" -> enterpriseBudget;
+            case "PRO" -> proBudget;
+            default -> basicBudget;
+        };
+    }
+
+    /**
+     * Keeps the beginning of an older message, which usually carries its point, and marks the cut.
+     */
+    private String truncate(String content, int tokenBudget) {
+        int targetTokens = tokenBudget - TokenEstimator.estimate(TRUNCATION_MARKER);
+        int end = Math.min(content.length(), targetTokens * 4);
+        String candidate = content.substring(0, end);
+        while (end > 0 && TokenEstimator.estimate(candidate) > targetTokens) {
+            end = end * 9 / 10;
+            candidate = content.substring(0, end);
+        }
+        return candidate + TRUNCATION_MARKER;
+    }
+
+    private String normalizePlan(String subscriptionPlan) {
+        return subscriptionPlan == null ? "BASIC" : subscriptionPlan.toUpperCase(Locale.ROOT);
+    }
+
+    private Counter counter(Map<String, Counter> counters, String plan, String kind) {
+        return counters.computeIfAbsent(plan, p -> Counter.builder("chat.history.tokens")
+                .description("Estimated conversation history tokens sent to or trimmed from chatbot payloads")
+                .tag("plan", p)
+                .tag("kind", kind)
+                .register(meterRegistry));
+    }
+}
@@ -0,0 +1,110 @@
+package com.vinncorp.orga.chat;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps the last {@code chat.context-cache.max-turns} turns of active conversations in memory, so
+ * continuing a conversation does not read its messages back from the database every turn.
+ * <p>
+ * Bounded by an estimate of retained bytes ({@code chat.context-cache.max-bytes}) with Caffeine's
+ * W-TinyLFU eviction, and entries idle for {@code chat.context-cache.expire-after-access} are dropped.
+ * The cache is written through by {@link MessageAppendService} as it saves messages. Each window records
+ * the conversation's {@code message_count} it reflects, and is reloaded when the conversation row read
+ * for the request carries a different count, so turns another node appended are never missed.
+ * Statistics are published under {@code cache.*{cache="chat.context"}}.
+ */
+@Component
+public class ConversationContextCache {
+
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+    private static final int TURN_OVERHEAD_BYTES = 64;
+
+    // Turns of a conversation as of its messageCount-th message
+    private record Window(long messageCount, List<ChatTurn> turns) {
+    }
+
+    private final MessageRepository messageRepository;
+    private final Cache<Long, Window> cache;
+    private final int maxTurns;
+
+    public ConversationContextCache(MessageRepository messageRepository,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${chat.context-cache.max-turns:40}") int maxTurns,
+                                    @Value("${chat.context-cache.max-bytes:67108864}") long maxBytes,
+                                    @Value("${chat.context-cache.expire-after-access:PT30M}") Duration expireAfterAccess) {
+        this.messageRepository = messageRepository;
+        this.maxTurns = maxTurns;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Long id, Window window) -> weigh(window.turns()))
+                .expireAfterAccess(expireAfterAccess)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "chat.context");
+    }
+
+    /**
+     * Most recent turns of the conversation in chronological order, loading them with a single bounded
+     * query on a miss or when the cached window is behind the conversation's message count. The caller
+     * must already have checked that the user owns the conversation, read in this request.
+     */
+    public List<ChatTurn> recentTurns(Conversation conversation) {
+        Window window = cache.get(conversation.getId(), id -> load(conversation));
+        if (window.messageCount() != conversation.getMessageCount()) {
+            window = load(conversation);
+            cache.put(conversation.getId(), window);
+        }
+        return window.turns();
+    }
+
+    /**
+     * Registers a conversation that was just created and therefore has no history yet.
+     */
+    public void start(Long conversationId) {
+        cache.put(conversationId, new Window(0, List.of()));
+    }
+
+    /**
+     * Write-through for a message that was just saved. Conversations that are not cached are left
+     * alone: the next read loads them, new message included.
+     */
+    public void append(Long conversationId, ChatTurn turn) {
+        cache.asMap().computeIfPresent(conversationId, (id, window) -> {
+            List<ChatTurn> turns = window.turns();
+            List<ChatTurn> updated = new ArrayList<>(Math.min(turns.size() + 1, maxTurns));
+            updated.addAll(turns.size() >= maxTurns ? turns.subList(turns.size() - maxTurns + 1, turns.size()) : turns);
+            updated.add(turn);
+            return new Window(window.messageCount() + 1, Collections.unmodifiableList(updated));
+        });
+    }
+
+    public void evict(Long conversationId) {
+        cache.invalidate(conversationId);
+    }
+
+    private Window load(Conversation conversation) {
+        List<ChatTurn> turns = new ArrayList<>(messageRepository.findRecentTurns(
+                conversation.getId(), PageRequest.of(0, maxTurns)));
+        Collections.reverse(turns);
+        return new Window(conversation.getMessageCount(), Collections.unmodifiableList(turns));
+    }
+
+    private static int weigh(List<ChatTurn> turns) {
+        long bytes = ENTRY_OVERHEAD_BYTES;
+        for (ChatTurn turn : turns) {
+            bytes += TURN_OVERHEAD_BYTES + 2L * turn.content().length();
+        }
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+}
@@ -2,10 +2,14 @@ package com.vinncorp.orga.chat;
 
 import com.vinncorp.orga.tenant.Tenant;
 import com.vinncorp.orga.user.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -24,5 +28,42 @@ public interface ConversationRepository extends JpaRepository<Conversation, Long
     
     @Query("SELECT c FROM Conversation c WHERE c.id = :id AND c.user.tenant = :tenant")
     Optional<Conversation> findByIdAndTenant(@Param("id") Long id, @Param("tenant") Tenant tenant);
-}
 
+    String SUMMARY = "SELECT new com.vinncorp.orga.chat.ConversationSummary(c.id, c.title, c.createdAt,"
+            + " c.updatedAt, c.messageCount, c.lastMessageAt, c.lastMessagePreview) FROM Conversation c";
+
+    // Read-only keyset pages, newest first; served by idx_conversations_user_updated
+    @Transactional(readOnly = true)
+    @Query(SUMMARY + " WHERE c.user.id = :userId ORDER BY c.updatedAt DESC, c.id DESC")
+    List<ConversationSummary> findLatestSummaries(@Param("userId") Long userId, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query(SUMMARY + " WHERE c.user.id = :userId"
+            + " AND (c.updatedAt < :updatedAt OR (c.updatedAt = :updatedAt AND c.id < :id))"
+            + " ORDER BY c.updatedAt DESC, c.id DESC")
+    List<ConversationSummary> findSummariesBefore(@Param("userId") Long userId,
+                                                  @Param("updatedAt") LocalDateTime updatedAt,
+                                                  @Param("id") Long id, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query(SUMMARY + " WHERE c.id = :id AND c.user.id = :userId")
+    Optional<ConversationSummary> findSummary(@Param("id") Long id, @Param("userId") Long userId);
+
+    boolean existsByIdAndUserId(Long id, Long userId);
+
+    /**
+     * Bumps updatedAt and the sidebar summary for {@code added} new messages, without loading or merging
+     * the conversation and its messages. A conversation never summarized (written before the summary
+     * columns existed and not yet backfilled) gets its count recomputed instead, so the increment cannot
+     * race the backfill; the new messages must be flushed first.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE conversations SET updated_at = :at, last_message_at = :at, last_message_preview = :preview,"
+            + " message_count = CASE WHEN last_message_at IS NULL"
+            + " THEN (SELECT count(*) FROM messages WHERE conversation_id = :id)"
+            + " ELSE message_count + :added END"
+            + " WHERE id = :id", nativeQuery = true)
+    int recordAppend(@Param("id") Long id, @Param("at") LocalDateTime at, @Param("added") long added,
+                     @Param("preview") String preview);
+}
@@ -0,0 +1,8 @@
+package com.vinncorp.orga.chat;
+
+import java.time.LocalDateTime;
+
+/** Read-only row of the conversation list: the conversation's own columns, no user or messages. */
+public record ConversationSummary(Long id, String title, LocalDateTime createdAt, LocalDateTime updatedAt,
+                                  long messageCount, LocalDateTime lastMessageAt, String lastMessagePreview) {
+}
@@ -0,0 +1,94 @@
+package com.vinncorp.orga.chat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Fills the sidebar summary (message count, last message time and preview) of conversations written
+ * before {@link Conversation} carried it.
+ * <p>
+ * Runs once per startup in the background, walking unsummarized conversations in id order in batches of
+ * {@code chat.summary-backfill.batch-size}, one short UPDATE per batch so appends are never blocked for
+ * long. Only rows whose {@code last_message_at} is still NULL are written; an append racing the backfill
+ * recomputes the count itself (see {@link ConversationRepository#recordAppend}), so whichever commits
+ * first wins and the other leaves the row alone. Once everything is summarized a run costs one index
+ * lookup per empty conversation.
+ */
+@Component
+public class ConversationSummaryBackfill {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversationSummaryBackfill.class);
+
+    private static final String NEXT_BATCH = """
+            SELECT id FROM conversations
+            WHERE last_message_at IS NULL AND id > ?
+            ORDER BY id
+            LIMIT ?""";
+
+    private static final String SUMMARIZE = """
+            UPDATE conversations c
+            SET message_count = s.message_count,
+                last_message_at = s.created_at,
+                last_message_preview = left(btrim(regexp_replace(s.content, '\\s+', ' ', 'g')), ?)
+            FROM (
+                SELECT b.id, l.created_at, l.content,
+                       (SELECT count(*) FROM messages m WHERE m.conversation_id = b.id) AS message_count
+                FROM conversations b
+                JOIN LATERAL (
+                    SELECT created_at, content FROM messages m
+                    WHERE m.conversation_id = b.id
+                    ORDER BY created_at DESC, id DESC
+                    LIMIT 1
+                ) l ON true
+                WHERE b.id BETWEEN ? AND ? AND b.last_message_at IS NULL
+            ) s
+            WHERE c.id = s.id AND c.last_message_at IS NULL""";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final int batchSize;
+
+    public ConversationSummaryBackfill(JdbcTemplate jdbcTemplate,
+                                       @Value("${chat.summary-backfill.enabled:true}") boolean enabled,
+                                       @Value("${chat.summary-backfill.batch-size:1000}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (enabled) {
+            Thread.ofVirtual().name("conversation-summary-backfill").start(this::run);
+        }
+    }
+
+    void run() {
+        long lastId = 0;
+        int summarized = 0;
+        try {
+            while (true) {
+                List<Long> ids = jdbcTemplate.queryForList(NEXT_BATCH, Long.class, lastId, batchSize);
+                if (ids.isEmpty()) {
+                    break;
+                }
+                summarized += jdbcTemplate.update(SUMMARIZE, Conversation.PREVIEW_LENGTH,
+                        ids.get(0), ids.get(ids.size() - 1));
+                lastId = ids.get(ids.size() - 1);
+            }
+            if (summarized > 0) {
+                logger.info("Backfilled the summary of {} conversation(s)", summarized);
+            }
+        } catch (DataAccessException e) {
+            logger.error("Conversation summary backfill stopped after id {}: {}", lastId, e.getMessage(), e);
+        }
+    }
+}
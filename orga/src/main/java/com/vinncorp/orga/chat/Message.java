@@ -4,11 +4,18 @@ import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "messages")
+@Table(name = "messages",
+        indexes = {
+                @Index(name = "idx_messages_conversation_created", columnList = "conversation_id, created_at, id"),
+                @Index(name = "idx_messages_created_at", columnList = "created_at")
+        })
 public class Message {
 
+    // Pooled sequence (50 ids per fetch) instead of IDENTITY, which would disable JDBC insert batching.
+    // Existing databases need db/migration/messages_id_batching.sql to bump the sequence increment.
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "messages_id_seq")
+    @SequenceGenerator(name = "messages_id_seq", sequenceName = "messages_id_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -0,0 +1,74 @@
+package com.vinncorp.orga.chat;
+
+import com.vinncorp.orga.tenant.TenantQuotaCounters;
+import com.vinncorp.orga.usage.UsageRollups;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+
+/**
+ * Append-only write path for chat turns.
+ * <p>
+ * A question and its reply are written in one transaction: both rows are persisted against a reference
+ * to the conversation (no select, no merge of the aggregate or its message collection) and go out as one
+ * JDBC batch, followed by a single UPDATE of the conversation's {@code updated_at} and sidebar summary
+ * (message count, last message time and preview) and one upsert of the {@link UsageRollups}. Message ids
+ * come from a pooled sequence, so the batch needs no per-row round trip for generated keys. Once committed,
+ * the turn is written through to the {@link ConversationContextCache} and counted against the tenant's
+ * monthly quota in {@link TenantQuotaCounters}.
+ */
+@Service
+public class MessageAppendService {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final ConversationRepository conversationRepository;
+    private final ConversationContextCache contextCache;
+    private final TenantQuotaCounters quotaCounters;
+    private final UsageRollups usageRollups;
+    private final TransactionTemplate transactionTemplate;
+
+    public MessageAppendService(ConversationRepository conversationRepository,
+                                ConversationContextCache contextCache,
+                                TenantQuotaCounters quotaCounters,
+                                UsageRollups usageRollups,
+                                PlatformTransactionManager transactionManager) {
+        this.conversationRepository = conversationRepository;
+        this.contextCache = contextCache;
+        this.quotaCounters = quotaCounters;
+        this.usageRollups = usageRollups;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Saves the USER message asked at {@code askedAt} and the BOT message answering it in a conversation
+     * of user {@code userId} of tenant {@code tenantId}.
+     */
+    public void appendTurn(Long tenantId, Long userId, Long conversationId, String question, LocalDateTime askedAt, String reply) {
+        LocalDateTime answeredAt = LocalDateTime.now();
+        transactionTemplate.executeWithoutResult(status -> {
+            Conversation conversation = entityManager.getReference(Conversation.class, conversationId);
+
+            Message userMessage = new Message(conversation, question, Message.MessageRole.USER);
+            userMessage.setCreatedAt(askedAt);
+            Message botMessage = new Message(conversation, reply, Message.MessageRole.BOT);
+            botMessage.setCreatedAt(answeredAt);
+            entityManager.persist(userMessage);
+            entityManager.persist(botMessage);
+
+            // Both inserts go out as one batch, ahead of the summary update that may count them
+            entityManager.flush();
+            conversationRepository.recordAppend(conversationId, answeredAt, 2, Conversation.preview(reply));
+            usageRollups.recordTurn(tenantId, userId, askedAt, answeredAt);
+        });
+
+        contextCache.append(conversationId, new ChatTurn(Message.MessageRole.USER, question));
+        contextCache.append(conversationId, new ChatTurn(Message.MessageRole.BOT, reply));
+        quotaCounters.recordMessages(tenantId, 2);
+    }
+}
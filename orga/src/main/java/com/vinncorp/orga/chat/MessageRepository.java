@@ -1,11 +1,37 @@
 package com.vinncorp.orga.chat;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 public interface MessageRepository extends JpaRepository<Message, Long> {
     
     List<Message> findByConversationOrderByCreatedAtAsc(Conversation conversation);
-}
 
+    // Newest turns first, as history for the chatbot
+    @Transactional(readOnly = true)
+    @Query("SELECT new com.vinncorp.orga.chat.ChatTurn(m.role, m.content) FROM Message m"
+            + " WHERE m.conversation.id = :conversationId ORDER BY m.createdAt DESC, m.id DESC")
+    List<ChatTurn> findRecentTurns(@Param("conversationId") Long conversationId, Pageable pageable);
+
+    String VIEW = "SELECT new com.vinncorp.orga.chat.MessageView(m.id, m.content, m.role, m.createdAt)"
+            + " FROM Message m";
+
+    // Read-only keyset pages walking back from the newest message; served by idx_messages_conversation_created
+    @Transactional(readOnly = true)
+    @Query(VIEW + " WHERE m.conversation.id = :conversationId ORDER BY m.createdAt DESC, m.id DESC")
+    List<MessageView> findLatest(@Param("conversationId") Long conversationId, Pageable pageable);
+
+    @Transactional(readOnly = true)
+    @Query(VIEW + " WHERE m.conversation.id = :conversationId"
+            + " AND (m.createdAt < :createdAt OR (m.createdAt = :createdAt AND m.id < :id))"
+            + " ORDER BY m.createdAt DESC, m.id DESC")
+    List<MessageView> findBefore(@Param("conversationId") Long conversationId,
+                                 @Param("createdAt") LocalDateTime createdAt,
+                                 @Param("id") Long id, Pageable pageable);
+}
@@ -0,0 +1,156 @@
+package com.vinncorp.orga.chat;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full-text search over one user's conversation titles and messages.
+ * <p>
+ * Messages carry a {@code search_vector} column that Postgres generates from the content on every insert
+ * and a GIN index over it, so the index is maintained in the appending transaction with no work on our
+ * side. Titles are few per user and matched on the fly. Queries use web-search syntax ({@code "exact
+ * phrase"}, {@code or}, {@code -word}) with the {@code simple} configuration - no stemming or stop
+ * words, so product codes and non-English text match as typed. Hits are ranked by cover density, titles
+ * weighted double, and only the returned rows get a highlighted snippet. Every query is scoped to the
+ * user's own conversations, and through the user to their tenant.
+ * <p>
+ * The column and index come from {@code db/migration/message_search.sql}: adding the column rewrites the
+ * messages table under an exclusive lock, blocking chat writes until it is done, so it is only added on
+ * startup when {@code chat.search.create-schema} is set (meant for new or small databases). Until the
+ * column exists, {@link #isAvailable} is false (re-checked every minute) and search answers 503; the
+ * rest of the application runs normally.
+ */
+@Repository
+@DependsOn("entityManagerFactory")
+public class MessageSearch {
+
+    /**
+     * One hit: a message, or the conversation's title when {@code messageId} is null. {@code snippet} has
+     * the matched words wrapped in {@code <<} and {@code >>}.
+     */
+    public record SearchHit(Long conversationId, String conversationTitle, Long messageId, String role,
+                            LocalDateTime createdAt, double rank, String snippet) {
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageSearch.class);
+
+    private static final long RECHECK_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static final String[] CREATE_SCHEMA = {
+            """
+            ALTER TABLE messages ADD COLUMN IF NOT EXISTS search_vector tsvector
+                GENERATED ALWAYS AS (to_tsvector('simple', content)) STORED""",
+            "CREATE INDEX IF NOT EXISTS idx_messages_search ON messages USING gin (search_vector)"
+    };
+
+    private static final String COLUMN_EXISTS = """
+            SELECT count(*) FROM information_schema.columns
+            WHERE table_schema = current_schema() AND table_name = 'messages' AND column_name = 'search_vector'""";
+
+    private static final String INDEX_EXISTS = """
+            SELECT count(*) FROM pg_indexes
+            WHERE schemaname = current_schema() AND indexname = 'idx_messages_search'""";
+
+    // Ranks every match but builds snippets (the expensive part) only for the top rows
+    private static final String SEARCH = """
+            WITH q AS (SELECT websearch_to_tsquery('simple', ?) AS query),
+            hits AS (
+                SELECT c.id AS conversation_id, NULL::bigint AS message_id, NULL AS role, c.title AS body,
+                       c.updated_at AS hit_at, 2 * ts_rank_cd(to_tsvector('simple', c.title), q.query) AS rank
+                FROM conversations c, q
+                WHERE c.user_id = ? AND to_tsvector('simple', c.title) @@ q.query
+                UNION ALL
+                SELECT m.conversation_id, m.id, m.role, m.content, m.created_at,
+                       ts_rank_cd(m.search_vector, q.query)
+                FROM messages m JOIN conversations c ON c.id = m.conversation_id, q
+                WHERE c.user_id = ? AND m.search_vector @@ q.query
+                ORDER BY rank DESC, hit_at DESC, message_id DESC NULLS FIRST
+                LIMIT ?
+            )
+            SELECT h.conversation_id, c.title, h.message_id, h.role, h.hit_at, h.rank,
+                   ts_headline('simple', h.body, q.query,
+                               'StartSel=<<, StopSel=>>, MaxWords=30, MinWords=10, MaxFragments=2')
+            FROM hits h JOIN conversations c ON c.id = h.conversation_id, q
+            ORDER BY h.rank DESC, h.hit_at DESC, h.message_id DESC NULLS FIRST""";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean createSchema;
+    private volatile boolean available;
+    private volatile long checkedAt;
+
+    public MessageSearch(JdbcTemplate jdbcTemplate,
+                         @Value("${chat.search.create-schema:false}") boolean createSchema) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.createSchema = createSchema;
+    }
+
+    @PostConstruct
+    void prepareSchema() {
+        // Runs after Hibernate's schema update, so the messages table exists
+        if (createSchema) {
+            try {
+                for (String ddl : CREATE_SCHEMA) {
+                    jdbcTemplate.execute(ddl);
+                }
+            } catch (DataAccessException e) {
+                logger.error("Could not add the conversation search column: {}", e.getMessage(), e);
+            }
+        }
+        if (!checkColumn()) {
+            logger.warn("messages.search_vector is missing, conversation search answers 503 until"
+                    + " db/migration/message_search.sql has run (or chat.search.create-schema=true on a new database)");
+        } else if (count(INDEX_EXISTS, 1) == 0) {
+            logger.warn("Index idx_messages_search is missing, conversation search scans every message of the user;"
+                    + " see db/migration/message_search.sql");
+        }
+    }
+
+    /** Whether the search column exists; while it does not, looked up again at most once a minute. */
+    public boolean isAvailable() {
+        if (!available && System.nanoTime() - checkedAt > RECHECK_NANOS && checkColumn()) {
+            logger.info("messages.search_vector found, conversation search enabled");
+        }
+        return available;
+    }
+
+    /** The {@code limit} best hits for {@code query} among {@code userId}'s conversations, best first. */
+    @Transactional(readOnly = true)
+    public List<SearchHit> search(Long userId, String query, int limit) {
+        return jdbcTemplate.query(SEARCH, (rs, rowNum) -> new SearchHit(
+                rs.getLong(1),
+                rs.getString(2),
+                rs.getObject(3, Long.class),
+                rs.getString(4),
+                rs.getTimestamp(5).toLocalDateTime(),
+                rs.getDouble(6),
+                rs.getString(7)), query, userId, userId, limit);
+    }
+
+    private boolean checkColumn() {
+        checkedAt = System.nanoTime();
+        available = count(COLUMN_EXISTS, 0) > 0;
+        return available;
+    }
+
+    // fallback when the catalog cannot be read, so a database hiccup never fails startup
+    private long count(String sql, long fallback) {
+        try {
+            Long count = jdbcTemplate.queryForObject(sql, Long.class);
+            return count != null ? count : 0;
+        } catch (DataAccessException e) {
+            logger.warn("Could not check the conversation search schema: {}", e.getMessage());
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.vinncorp.orga.chat;
+
+import java.time.LocalDateTime;
+
+/** Read-only message as shown in the history, without its conversation. */
+public record MessageView(Long id, String content, Message.MessageRole role, LocalDateTime createdAt) {
+}
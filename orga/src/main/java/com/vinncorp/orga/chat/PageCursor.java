@@ -0,0 +1,37 @@
+package com.vinncorp.orga.chat;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+/**
+ * Position in a list walked backward from the newest entry: the {@code (timestamp, id)} of the last
+ * entry of the previous page. The next page holds the entries strictly before it in
+ * {@code (timestamp DESC, id DESC)} order, so the database seeks straight to it through the
+ * matching index instead of skipping an OFFSET.
+ * <p>
+ * Handed to clients as an opaque URL-safe token in the {@code X-Next-Cursor} header.
+ */
+public record PageCursor(LocalDateTime at, long id) {
+
+    public static final String HEADER = "X-Next-Cursor";
+
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((at + "|" + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code token} is not a cursor produced by {@link #encode}
+     */
+    public static PageCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = raw.lastIndexOf('|');
+            return new PageCursor(LocalDateTime.parse(raw.substring(0, separator)),
+                    Long.parseLong(raw.substring(separator + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.vinncorp.orga.chat;
+
+/**
+ * Cheap LLM token count estimate, good enough for budgeting history without running a real tokenizer.
+ * <p>
+ * English text averages about four characters per token, but short words and punctuation each cost at
+ * least one, so the estimate is the larger of {@code chars / 4} and the number of word/punctuation runs.
+ * Characters outside ASCII (CJK, emoji, accented text) are counted as one token each. Single pass, no
+ * allocation.
+ */
+public final class TokenEstimator {
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return 0;
+        }
+        int asciiChars = 0;
+        int nonAscii = 0;
+        int runs = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 128) {
+                if (!Character.isLowSurrogate(c)) {
+                    nonAscii++;
+                }
+                inWord = false;
+            } else if (Character.isLetterOrDigit(c)) {
+                asciiChars++;
+                if (!inWord) {
+                    runs++;
+                    inWord = true;
+                }
+            } else {
+                asciiChars++;
+                inWord = false;
+                if (!Character.isWhitespace(c)) {
+                    runs++;
+                }
+            }
+        }
+        return Math.max((asciiChars + 3) / 4, runs) + nonAscii;
+    }
+}
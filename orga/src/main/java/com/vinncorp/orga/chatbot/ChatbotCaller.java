@@ -0,0 +1,7 @@
+package com.vinncorp.orga.chatbot;
+
+/**
+ * The tenant a chatbot call is made for, which decides its share of upstream capacity.
+ */
+public record ChatbotCaller(Long tenantId, String subscriptionPlan) {
+}
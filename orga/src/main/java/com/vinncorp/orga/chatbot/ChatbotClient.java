@@ -0,0 +1,327 @@
+package com.vinncorp.orga.chatbot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import jakarta.annotation.PreDestroy;
+import org.springframework.http.*;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Thin client for the Python chatbot service.
+ * <p>
+ * {@link #ask} posts to {@code /chat} and waits for the whole reply, {@link #stream} posts the same
+ * payload to {@code /chat/stream} and hands each token to the caller as soon as it is read off the
+ * upstream {@code text/event-stream} response.
+ * <p>
+ * Every call goes to the replica picked by the {@link ChatbotLoadBalancer}. With hedging enabled, a
+ * blocking call still unanswered after the balancer's hedge delay is sent to a second replica as well;
+ * the first successful reply wins and the other attempt is cancelled. Streams are never hedged.
+ */
+@Component
+public class ChatbotClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatbotClient.class);
+    private static final String DONE_MARKER = "[DONE]";
+
+    /** Reply substituted when the chatbot answers with an empty body; never worth caching. */
+    public static final String EMPTY_REPLY = "Chatbot returned empty response";
+
+    private final RestTemplate restTemplate;
+    private final ObjectMapper objectMapper;
+    private final ChatbotResilience resilience;
+    private final ChatbotLoadBalancer balancer;
+    private final SingleFlight<Object, String> singleFlight = new SingleFlight<>();
+    // Hedged attempts block on socket reads; virtual threads make cancelling the loser interrupt its read
+    private final ExecutorService hedgeExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chatbot-hedge-", 0).factory());
+    private final Counter hedges;
+    private final Counter hedgeWins;
+
+    public ChatbotClient(RestTemplate restTemplate, ObjectMapper objectMapper, ChatbotResilience resilience,
+                         ChatbotLoadBalancer balancer, MeterRegistry meterRegistry) {
+        this.restTemplate = restTemplate;
+        this.objectMapper = objectMapper;
+        this.resilience = resilience;
+        this.balancer = balancer;
+        FunctionCounter.builder("chatbot.requests.coalesced", singleFlight, SingleFlight::sharedCount)
+                .description("Chatbot requests answered by an identical request already in flight")
+                .register(meterRegistry);
+        Gauge.builder("chatbot.requests.in_flight", singleFlight, SingleFlight::inFlightCount)
+                .description("Distinct chatbot requests currently waiting on the upstream")
+                .register(meterRegistry);
+        this.hedges = Counter.builder("chatbot.hedges")
+                .description("Chatbot calls sent to a second replica after exceeding the hedge delay")
+                .register(meterRegistry);
+        this.hedgeWins = Counter.builder("chatbot.hedges.won")
+                .description("Hedged chatbot calls answered first by the second replica")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        hedgeExecutor.shutdownNow();
+    }
+
+    /**
+     * Runs {@code call} (normally one or more {@link #ask} calls for a single question), but callers
+     * passing an equal {@code key} while a call for it is still pending upstream wait for that call and
+     * share its reply instead of running their own. The key must identify the payload (tenant, question
+     * and history); bursts of the same first-turn question then cost a single upstream call.
+     */
+    public String askShared(Object key, Supplier<String> call) {
+        return singleFlight.execute(key, call);
+    }
+
+    /**
+     * Sends the payload and blocks until the chatbot has produced its whole reply. The call queues for
+     * upstream capacity as {@code caller}'s tenant.
+     *
+     * @return the reply text
+     * @throws ChatbotUnavailableException if the circuit breaker or bulkhead turned the call away
+     * @throws RestClientException if the chatbot could not be reached or answered with an error
+     */
+    public String ask(ChatbotCaller caller, Map<String, Object> payload) {
+        return resilience.call(caller, () -> balancer.isHedgingEnabled()
+                ? hedgedExchange(payload)
+                : exchange(balancer.choose(null), payload), true);
+    }
+
+    private String hedgedExchange(Map<String, Object> payload) {
+        ChatbotEndpoint primary = balancer.choose(null);
+        long delay = balancer.hedgeDelayMillis();
+        if (delay < 0) {
+            return exchange(primary, payload);
+        }
+
+        ExecutorCompletionService<String> race = new ExecutorCompletionService<>(hedgeExecutor);
+        List<Future<String>> attempts = new ArrayList<>(2);
+        attempts.add(race.submit(() -> exchange(primary, payload)));
+        try {
+            Future<String> done = race.poll(delay, TimeUnit.MILLISECONDS);
+            if (done == null && balancer.tryAcquireHedge()) {
+                ChatbotEndpoint secondary = balancer.choose(primary);
+                if (secondary != primary) {
+                    hedges.increment();
+                    logger.info("No reply from {} after {} ms, hedging to {}", primary, delay, secondary);
+                    attempts.add(race.submit(() -> exchange(secondary, payload)));
+                }
+            }
+            if (done == null) {
+                done = race.take();
+            }
+            try {
+                String reply = done.get();
+                if (attempts.size() > 1 && done == attempts.get(1)) {
+                    hedgeWins.increment();
+                }
+                return reply;
+            } catch (ExecutionException e) {
+                if (attempts.size() == 1) {
+                    throw unwrap(e);
+                }
+                // One attempt failed, the other may still answer
+                Future<String> other = race.take();
+                try {
+                    String reply = other.get();
+                    if (other == attempts.get(1)) {
+                        hedgeWins.increment();
+                    }
+                    return reply;
+                } catch (ExecutionException otherFailure) {
+                    throw unwrap(otherFailure);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for the chatbot");
+        } finally {
+            attempts.forEach(attempt -> attempt.cancel(true));
+        }
+    }
+
+    private static RuntimeException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    private String exchange(ChatbotEndpoint endpoint, Map<String, Object> payload) {
+        long start = balancer.started(endpoint);
+        try {
+            String reply = post(endpoint.getBaseUrl() + "/chat", payload);
+            balancer.succeeded(endpoint, System.nanoTime() - start);
+            return reply;
+        } catch (HttpClientErrorException e) {
+            // 4xx means the replica is up and rejected this request
+            balancer.succeeded(endpoint, System.nanoTime() - start);
+            throw e;
+        } catch (RestClientException e) {
+            // A hedged attempt cancelled because its twin answered first is not the replica's fault
+            if (!Thread.currentThread().isInterrupted()) {
+                balancer.failed(endpoint);
+            }
+            throw e;
+        } finally {
+            balancer.finished(endpoint);
+        }
+    }
+
+    private String post(String url, Map<String, Object> payload) {
+        logger.info("Calling Python chatbot at: {}", url);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(payload, headers);
+
+        logger.info("Sending request to Python API: {}", payload);
+
+        // Use exchange for more control and better error handling
+        @SuppressWarnings("unchecked")
+        ResponseEntity<Map<String, Object>> chatbotResponse = (ResponseEntity<Map<String, Object>>) (ResponseEntity<?>) restTemplate.exchange(
+                url,
+                HttpMethod.POST,
+                entity,
+                Map.class
+        );
+
+        logger.info("Response status: {}", chatbotResponse.getStatusCode());
+        logger.info("Received response from Python API: {}", chatbotResponse.getBody());
+
+        if (chatbotResponse.getBody() == null) {
+            logger.warn("Response body is null!");
+            return EMPTY_REPLY;
+        }
+        Object reply = chatbotResponse.getBody().get("reply");
+        return reply != null ? reply.toString() : chatbotResponse.getBody().toString();
+    }
+
+    /**
+     * Sends the payload to the streaming endpoint and relays every token to {@code onToken} while the
+     * upstream response is still being read. Returns once the chatbot signals the end of the reply.
+     * <p>
+     * Upstream events are {@code data:} lines carrying either {@code {"token": "..."}} or plain text;
+     * {@code data: [DONE]} or the end of the body finishes the stream and an {@code error} event aborts it.
+     * Exceptions thrown by {@code onToken} abort the upstream read and are rethrown to the caller.
+     * Streams are never retried or hedged, since tokens may already have reached the client; the
+     * replica's latency sample is its time to first token.
+     *
+     * @throws ChatbotUnavailableException if the circuit breaker or bulkhead turned the call away
+     * @throws RestClientException if the chatbot could not be reached or the stream broke off
+     */
+    public void stream(ChatbotCaller caller, Map<String, Object> payload, Consumer<String> onToken) {
+        resilience.call(caller, () -> {
+            relay(balancer.choose(null), payload, onToken);
+            return null;
+        }, false);
+    }
+
+    private void relay(ChatbotEndpoint endpoint, Map<String, Object> payload, Consumer<String> onToken) {
+        String url = endpoint.getBaseUrl() + "/chat/stream";
+        logger.info("Streaming from Python chatbot at: {}", url);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setAccept(List.of(MediaType.TEXT_EVENT_STREAM));
+        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(payload, headers);
+
+        long start = balancer.started(endpoint);
+        boolean[] firstToken = {true};
+        Consumer<String> timedOnToken = token -> {
+            if (firstToken[0]) {
+                firstToken[0] = false;
+                balancer.succeeded(endpoint, System.nanoTime() - start);
+            }
+            onToken.accept(token);
+        };
+        try {
+            restTemplate.execute(url, HttpMethod.POST, restTemplate.httpEntityCallback(entity), response -> {
+                readEvents(response.getBody(), timedOnToken);
+                return null;
+            });
+            if (firstToken[0]) {
+                balancer.succeeded(endpoint, System.nanoTime() - start);
+            }
+        } catch (HttpClientErrorException e) {
+            balancer.succeeded(endpoint, System.nanoTime() - start);
+            throw e;
+        } catch (RestClientException e) {
+            balancer.failed(endpoint);
+            throw e;
+        } finally {
+            balancer.finished(endpoint);
+        }
+    }
+
+    private void readEvents(InputStream body, Consumer<String> onToken) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String eventName = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                eventName = null;
+            } else if (line.startsWith("event:")) {
+                eventName = line.substring(6).trim();
+            } else if (line.startsWith("data:")) {
+                String data = line.substring(5);
+                if (data.startsWith(" ")) {
+                    data = data.substring(1);
+                }
+                if (DONE_MARKER.equals(data)) {
+                    return;
+                }
+                if ("error".equals(eventName)) {
+                    throw new RestClientException("Chatbot stream failed: " + data);
+                }
+                String token = extractToken(data);
+                if (!token.isEmpty()) {
+                    onToken.accept(token);
+                }
+            }
+        }
+    }
+
+    private String extractToken(String data) {
+        if (!data.startsWith("{")) {
+            return data;
+        }
+        try {
+            JsonNode node = objectMapper.readTree(data);
+            JsonNode token = node.has("token") ? node.get("token") : node.get("reply");
+            return token != null ? token.asText() : "";
+        } catch (IOException e) {
+            return data;
+        }
+    }
+}
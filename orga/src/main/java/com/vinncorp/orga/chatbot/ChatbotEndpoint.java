@@ -0,0 +1,96 @@
+package com.vinncorp.orga.chatbot;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One chatbot replica as seen by the client-side balancer: requests outstanding against it, an EWMA of
+ * its latency, and whether it is currently ejected after repeated failures.
+ */
+public class ChatbotEndpoint {
+
+    private final String baseUrl;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final double initialLatencyMillis;
+
+    // Guarded by this
+    private double ewmaLatencyMillis;
+    private int consecutiveFailures;
+    private long ejectedUntilNanos;
+
+    ChatbotEndpoint(String baseUrl, double initialLatencyMillis) {
+        this.baseUrl = baseUrl;
+        this.initialLatencyMillis = initialLatencyMillis;
+        this.ewmaLatencyMillis = initialLatencyMillis;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public synchronized double getEwmaLatencyMillis() {
+        return ewmaLatencyMillis;
+    }
+
+    void onStart() {
+        outstanding.incrementAndGet();
+    }
+
+    void onFinish() {
+        outstanding.decrementAndGet();
+    }
+
+    synchronized void onSuccess(double latencyMillis, double alpha) {
+        ewmaLatencyMillis += alpha * (latencyMillis - ewmaLatencyMillis);
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * Counts a failure and raises the latency estimate to at least {@code penaltyMillis} so the balancer
+     * steers away immediately. The penalty does not compound, so a burst of failures cannot push the
+     * estimate out of reach of the successes that bring it back down.
+     *
+     * @return true if this failure got the endpoint ejected
+     */
+    synchronized boolean onFailure(double penaltyMillis, int ejectAfterFailures, long ejectionNanos, long nowNanos) {
+        ewmaLatencyMillis = Math.max(ewmaLatencyMillis, penaltyMillis);
+        if (++consecutiveFailures >= ejectAfterFailures && !isEjected(nowNanos)) {
+            ejectedUntilNanos = nowNanos + ejectionNanos;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether the endpoint is ejected at {@code nowNanos}. When an ejection has run out, the latency
+     * estimate goes back to its initial value so the recovered replica wins comparisons again.
+     */
+    synchronized boolean isEjected(long nowNanos) {
+        if (ejectedUntilNanos == 0) {
+            return false;
+        }
+        if (nowNanos - ejectedUntilNanos < 0) {
+            return true;
+        }
+        ejectedUntilNanos = 0;
+        ewmaLatencyMillis = initialLatencyMillis;
+        return false;
+    }
+
+    synchronized long getEjectedUntilNanos() {
+        return ejectedUntilNanos;
+    }
+
+    /** Lower is better: expected latency scaled by the queue the request would join. */
+    synchronized double score() {
+        return ewmaLatencyMillis * (outstanding.get() + 1);
+    }
+
+    @Override
+    public String toString() {
+        return baseUrl;
+    }
+}
@@ -0,0 +1,240 @@
+package com.vinncorp.orga.chatbot;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.IdleConnectionEvictor;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * HTTP transport dedicated to the chatbot replicas.
+ * <p>
+ * With {@code chatbot.http.version=HTTP_1_1} (the default) requests go through a pooled Apache
+ * HttpClient sized by {@code max-connections} / {@code max-connections-per-route}. Idle connections are
+ * kept for {@code keep-alive}, then evicted in the background, and at startup {@code prewarm-connections}
+ * connections per replica are opened before the first chat arrives. The pool is exposed as
+ * {@code chatbot.http.pool.{leased,pending,available,max}}. Pool waits and new connections are timed
+ * by {@link InstrumentedConnectionManager}.
+ * <p>
+ * {@code HTTP_2} switches to the JDK client, which multiplexes all requests to a replica over one
+ * connection (ALPN over TLS). The JDK client has no pool to report on, so pool gauges, connect timings
+ * and pre-warming only apply to HTTP/1.1.
+ * <p>
+ * With either version, {@link #timingInterceptor()} records time to first byte as {@code chatbot.http.ttfb}.
+ */
+@Component
+public class ChatbotHttpTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatbotHttpTransport.class);
+
+    private final ChatbotLoadBalancer balancer;
+    private final MeterRegistry meterRegistry;
+    private final Duration connectTimeout;
+    private final Duration responseTimeout;
+    private final Duration keepAlive;
+    private final int prewarmConnections;
+
+    private final ClientHttpRequestFactory requestFactory;
+    private PoolingHttpClientConnectionManager pool;
+    private CloseableHttpClient httpClient;
+    private IdleConnectionEvictor evictor;
+
+    public ChatbotHttpTransport(ChatbotLoadBalancer balancer, MeterRegistry meterRegistry,
+                                @Value("${chatbot.http.version:HTTP_1_1}") HttpClient.Version version,
+                                @Value("${chatbot.http.max-connections:200}") int maxConnections,
+                                @Value("${chatbot.http.max-connections-per-route:200}") int maxConnectionsPerRoute,
+                                @Value("${chatbot.http.connect-timeout:PT5S}") Duration connectTimeout,
+                                @Value("${chatbot.http.response-timeout:PT60S}") Duration responseTimeout,
+                                @Value("${chatbot.http.pool-wait-timeout:PT5S}") Duration poolWaitTimeout,
+                                @Value("${chatbot.http.keep-alive:PT4S}") Duration keepAlive,
+                                @Value("${chatbot.http.time-to-live:PT5M}") Duration timeToLive,
+                                @Value("${chatbot.http.prewarm-connections:4}") int prewarmConnections) {
+        this.balancer = balancer;
+        this.meterRegistry = meterRegistry;
+        this.connectTimeout = connectTimeout;
+        this.responseTimeout = responseTimeout;
+        this.keepAlive = keepAlive;
+        this.prewarmConnections = Math.min(prewarmConnections, maxConnectionsPerRoute);
+        this.requestFactory = version == HttpClient.Version.HTTP_2
+                ? http2RequestFactory()
+                : pooledRequestFactory(maxConnections, maxConnectionsPerRoute, poolWaitTimeout, timeToLive);
+    }
+
+    public ClientHttpRequestFactory requestFactory() {
+        return requestFactory;
+    }
+
+    /**
+     * Times each exchange until the response head has arrived: pool wait, connect, request upload and
+     * the upstream's time to first byte. For streams this is when the first event can be read.
+     */
+    public ClientHttpRequestInterceptor timingInterceptor() {
+        return (request, body, execution) -> {
+            long start = System.nanoTime();
+            String outcome = "IO_ERROR";
+            try {
+                ClientHttpResponse response = execution.execute(request, body);
+                outcome = (response.getStatusCode().value() / 100) + "xx";
+                return response;
+            } finally {
+                Timer.builder("chatbot.http.ttfb")
+                        .description("Time until the chatbot's response head arrived")
+                        .tag("host", String.valueOf(request.getURI().getAuthority()))
+                        .tag("outcome", outcome)
+                        .register(meterRegistry)
+                        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+
+    private ClientHttpRequestFactory pooledRequestFactory(int maxConnections, int maxConnectionsPerRoute,
+                                                          Duration poolWaitTimeout, Duration timeToLive) {
+        pool = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(responseTimeout))
+                        .setTimeToLive(TimeValue.of(timeToLive))
+                        // A connection idle this long may have been closed by the server; check before reuse
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.of(poolWaitTimeout))
+                .setResponseTimeout(Timeout.of(responseTimeout))
+                // Used when the upstream sends no Keep-Alive header; keep it below the server's idle timeout
+                .setConnectionKeepAlive(TimeValue.of(keepAlive))
+                .setRedirectsEnabled(true) // Enable redirect following - will wait for 200
+                .build();
+
+        httpClient = HttpClientBuilder.create()
+                .setDefaultRequestConfig(requestConfig)
+                .setConnectionManager(new InstrumentedConnectionManager(pool, meterRegistry))
+                .build();
+
+        // The wrapper hides the pool from HttpClientBuilder's own evictor, so run one here
+        evictor = new IdleConnectionEvictor(pool, TimeValue.ofSeconds(1), TimeValue.of(keepAlive));
+        evictor.start();
+
+        poolGauge("chatbot.http.pool.leased", "Chatbot connections currently in use", PoolStats::getLeased);
+        poolGauge("chatbot.http.pool.pending", "Requests waiting for a chatbot connection", PoolStats::getPending);
+        poolGauge("chatbot.http.pool.available", "Idle chatbot connections ready for reuse", PoolStats::getAvailable);
+        poolGauge("chatbot.http.pool.max", "Maximum chatbot connections", PoolStats::getMax);
+
+        return new HttpComponentsClientHttpRequestFactory(httpClient);
+    }
+
+    private ClientHttpRequestFactory http2RequestFactory() {
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(client);
+        factory.setReadTimeout(responseTimeout);
+        return factory;
+    }
+
+    private void poolGauge(String name, String description, ToIntFunction<PoolStats> stat) {
+        Gauge.builder(name, pool, p -> stat.applyAsInt(p.getTotalStats()))
+                .description(description)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Opens {@code prewarm-connections} connections to every replica and parks them in the pool, so the
+     * first chats after a deploy do not pay for TCP and TLS handshakes.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void prewarm() {
+        if (pool == null || prewarmConnections <= 0) {
+            return;
+        }
+        Thread.ofVirtual().name("chatbot-prewarm").start(() -> {
+            for (ChatbotEndpoint endpoint : balancer.getEndpoints()) {
+                prewarm(endpoint);
+            }
+        });
+    }
+
+    private void prewarm(ChatbotEndpoint endpoint) {
+        HttpRoute route;
+        try {
+            HttpHost target = HttpHost.create(endpoint.getBaseUrl());
+            route = new HttpRoute(target, null, "https".equalsIgnoreCase(target.getSchemeName()));
+        } catch (URISyntaxException e) {
+            logger.warn("Not pre-warming chatbot endpoint {}: {}", endpoint, e.getMessage());
+            return;
+        }
+
+        // Lease them all before releasing any, otherwise the same connection would be reused each time
+        List<ConnectionEndpoint> leased = new ArrayList<>(prewarmConnections);
+        int opened = 0;
+        try {
+            for (int i = 0; i < prewarmConnections; i++) {
+                ConnectionEndpoint connection = pool.lease("prewarm-" + i, route, Timeout.of(connectTimeout), null)
+                        .get(Timeout.of(connectTimeout));
+                leased.add(connection);
+                if (!connection.isConnected()) {
+                    pool.connect(connection, TimeValue.of(connectTimeout), HttpClientContext.create());
+                    opened++;
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Pre-warming chatbot endpoint {} stopped after {} connections: {}", endpoint, opened, e.toString());
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            for (ConnectionEndpoint connection : leased) {
+                pool.release(connection, null, TimeValue.of(keepAlive));
+            }
+        }
+        logger.info("Pre-warmed {} connections to chatbot endpoint {}", opened, endpoint);
+    }
+
+    @PreDestroy
+    void close() {
+        if (evictor != null) {
+            evictor.shutdown();
+        }
+        if (httpClient != null) {
+            httpClient.close(CloseMode.GRACEFUL);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.vinncorp.orga.chatbot;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Client-side balancing across the chatbot replicas listed in {@code chatbot.base-urls} (falling back to
+ * the single {@code chatbot.base-url}).
+ * <p>
+ * Each call picks the better of two random healthy endpoints, scored by EWMA latency times outstanding
+ * requests, so slow or busy replicas get less traffic without every caller piling onto the same "best"
+ * one. A replica failing {@code eject-after-failures} times in a row is ejected for
+ * {@code ejection-duration}; if every replica is ejected the one due back first is used anyway.
+ * <p>
+ * Also tracks recent latencies to derive the hedging delay (the {@code chatbot.hedging.percentile} of
+ * the last calls) and the hedging budget, which earns {@code budget-ratio} of a hedge per call.
+ */
+@Component
+public class ChatbotLoadBalancer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatbotLoadBalancer.class);
+
+    private static final int LATENCY_SAMPLES = 256;
+    private static final int MIN_SAMPLES_FOR_HEDGING = 20;
+    private static final int RECOMPUTE_EVERY = 32;
+
+    private final List<ChatbotEndpoint> endpoints;
+    private final double ewmaAlpha;
+    private final int ejectAfterFailures;
+    private final long ejectionNanos;
+    private final double failurePenaltyMillis;
+
+    private final boolean hedgingEnabled;
+    private final double hedgePercentile;
+    private final long hedgeMinDelayMillis;
+    private final double hedgeBudgetRatio;
+    private final double hedgeBudgetMax;
+
+    // Guarded by this
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private int latencyNext;
+    private int sinceRecompute;
+    private long hedgeDelayMillis = -1;
+    private double hedgeTokens;
+
+    private final MeterRegistry meterRegistry;
+    private final LongSupplier nanoClock;
+
+    @Autowired
+    public ChatbotLoadBalancer(MeterRegistry meterRegistry,
+                               @Value("${chatbot.base-urls:}") String baseUrls,
+                               @Value("${chatbot.base-url:http://127.0.0.1:8000}") String baseUrl,
+                               @Value("${chatbot.balancer.ewma-alpha:0.2}") double ewmaAlpha,
+                               @Value("${chatbot.balancer.initial-latency:PT1S}") Duration initialLatency,
+                               @Value("${chatbot.balancer.eject-after-failures:5}") int ejectAfterFailures,
+                               @Value("${chatbot.balancer.ejection-duration:PT30S}") Duration ejectionDuration,
+                               @Value("${chatbot.hedging.enabled:false}") boolean hedgingEnabled,
+                               @Value("${chatbot.hedging.percentile:0.95}") double hedgePercentile,
+                               @Value("${chatbot.hedging.min-delay:PT1S}") Duration hedgeMinDelay,
+                               @Value("${chatbot.hedging.budget-ratio:0.05}") double hedgeBudgetRatio) {
+        this(meterRegistry, baseUrls, baseUrl, ewmaAlpha, initialLatency, ejectAfterFailures, ejectionDuration,
+                hedgingEnabled, hedgePercentile, hedgeMinDelay, hedgeBudgetRatio, System::nanoTime);
+    }
+
+    /** As above, reading the time from {@code nanoClock} instead of {@link System#nanoTime}. */
+    ChatbotLoadBalancer(MeterRegistry meterRegistry, String baseUrls, String baseUrl, double ewmaAlpha,
+                        Duration initialLatency, int ejectAfterFailures, Duration ejectionDuration,
+                        boolean hedgingEnabled, double hedgePercentile, Duration hedgeMinDelay,
+                        double hedgeBudgetRatio, LongSupplier nanoClock) {
+        this.meterRegistry = meterRegistry;
+        this.nanoClock = nanoClock;
+        this.endpoints = parseEndpoints(baseUrls.isBlank() ? baseUrl : baseUrls, initialLatency.toMillis());
+        this.ewmaAlpha = ewmaAlpha;
+        this.ejectAfterFailures = Math.max(1, ejectAfterFailures);
+        this.ejectionNanos = ejectionDuration.toNanos();
+        this.failurePenaltyMillis = initialLatency.toMillis() * 10.0;
+        this.hedgingEnabled = hedgingEnabled && endpoints.size() > 1;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeMinDelayMillis = hedgeMinDelay.toMillis();
+        this.hedgeBudgetRatio = hedgeBudgetRatio;
+        this.hedgeBudgetMax = Math.max(1, 100 * hedgeBudgetRatio);
+        this.hedgeTokens = hedgeBudgetMax;
+
+        for (ChatbotEndpoint endpoint : endpoints) {
+            Gauge.builder("chatbot.endpoint.outstanding", endpoint, ChatbotEndpoint::getOutstanding)
+                    .description("Requests in flight against a chatbot replica")
+                    .tag("endpoint", endpoint.getBaseUrl())
+                    .register(meterRegistry);
+            Gauge.builder("chatbot.endpoint.latency.ewma", endpoint, ChatbotEndpoint::getEwmaLatencyMillis)
+                    .description("Smoothed latency of a chatbot replica in milliseconds")
+                    .tag("endpoint", endpoint.getBaseUrl())
+                    .register(meterRegistry);
+            Gauge.builder("chatbot.endpoint.ejected", endpoint, e -> e.isEjected(nanoClock.getAsLong()) ? 1 : 0)
+                    .description("1 while a chatbot replica is ejected after repeated failures")
+                    .tag("endpoint", endpoint.getBaseUrl())
+                    .register(meterRegistry);
+        }
+        logger.info("Chatbot endpoints: {} (hedging {})", endpoints, this.hedgingEnabled ? "on" : "off");
+    }
+
+    public List<ChatbotEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    public int size() {
+        return endpoints.size();
+    }
+
+    public boolean isHedgingEnabled() {
+        return hedgingEnabled;
+    }
+
+    /**
+     * Picks the endpoint for the next call, never {@code exclude} unless it is the only one.
+     */
+    public ChatbotEndpoint choose(ChatbotEndpoint exclude) {
+        if (endpoints.size() == 1) {
+            return endpoints.get(0);
+        }
+        long now = nanoClock.getAsLong();
+        List<ChatbotEndpoint> healthy = new ArrayList<>(endpoints.size());
+        for (ChatbotEndpoint endpoint : endpoints) {
+            if (endpoint != exclude && !endpoint.isEjected(now)) {
+                healthy.add(endpoint);
+            }
+        }
+        if (healthy.isEmpty()) {
+            return soonestBack(exclude);
+        }
+        if (healthy.size() == 1) {
+            return healthy.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(healthy.size());
+        int second = random.nextInt(healthy.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        ChatbotEndpoint a = healthy.get(first);
+        ChatbotEndpoint b = healthy.get(second);
+        return a.score() <= b.score() ? a : b;
+    }
+
+    /** Marks a call as started; must be paired with {@link #finished}. */
+    public long started(ChatbotEndpoint endpoint) {
+        endpoint.onStart();
+        depositHedgeToken();
+        return System.nanoTime();
+    }
+
+    public void finished(ChatbotEndpoint endpoint) {
+        endpoint.onFinish();
+    }
+
+    /** Records a healthy answer (including 4xx) that took {@code latencyNanos} to arrive. */
+    public void succeeded(ChatbotEndpoint endpoint, long latencyNanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+        endpoint.onSuccess(millis, ewmaAlpha);
+        recordLatency(millis);
+    }
+
+    public void failed(ChatbotEndpoint endpoint) {
+        if (endpoint.onFailure(failurePenaltyMillis, ejectAfterFailures, ejectionNanos, nanoClock.getAsLong())) {
+            logger.warn("Ejecting chatbot endpoint {} for {} ms after {} consecutive failures",
+                    endpoint, TimeUnit.NANOSECONDS.toMillis(ejectionNanos), ejectAfterFailures);
+            Counter.builder("chatbot.endpoint.ejections")
+                    .description("Chatbot replicas ejected after repeated failures")
+                    .tag("endpoint", endpoint.getBaseUrl())
+                    .register(meterRegistry)
+                    .increment();
+        }
+    }
+
+    /**
+     * Delay after which a still-pending call should be hedged, or -1 while there are too few samples
+     * to know what "slow" is.
+     */
+    public synchronized long hedgeDelayMillis() {
+        return hedgeDelayMillis;
+    }
+
+    /** Takes one hedge from the budget; false means the call must not be hedged. */
+    public synchronized boolean tryAcquireHedge() {
+        if (hedgeTokens < 1) {
+            return false;
+        }
+        hedgeTokens -= 1;
+        return true;
+    }
+
+    private synchronized void depositHedgeToken() {
+        hedgeTokens = Math.min(hedgeBudgetMax, hedgeTokens + hedgeBudgetRatio);
+    }
+
+    private synchronized void recordLatency(long millis) {
+        latencies[latencyNext] = millis;
+        latencyNext = (latencyNext + 1) % LATENCY_SAMPLES;
+        latencyCount = Math.min(LATENCY_SAMPLES, latencyCount + 1);
+        if (!hedgingEnabled || latencyCount < MIN_SAMPLES_FOR_HEDGING) {
+            return;
+        }
+        // Sorting 256 longs is cheap, but there is no need to do it on every call
+        if (hedgeDelayMillis >= 0 && ++sinceRecompute < RECOMPUTE_EVERY) {
+            return;
+        }
+        sinceRecompute = 0;
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(hedgePercentile * sorted.length) - 1;
+        hedgeDelayMillis = Math.max(hedgeMinDelayMillis, sorted[Math.max(0, Math.min(sorted.length - 1, index))]);
+    }
+
+    private ChatbotEndpoint soonestBack(ChatbotEndpoint exclude) {
+        ChatbotEndpoint best = null;
+        for (ChatbotEndpoint endpoint : endpoints) {
+            if (endpoint == exclude) {
+                continue;
+            }
+            if (best == null || endpoint.getEjectedUntilNanos() - best.getEjectedUntilNanos() < 0) {
+                best = endpoint;
+            }
+        }
+        return best != null ? best : exclude;
+    }
+
+    private static List<ChatbotEndpoint> parseEndpoints(String urls, double initialLatencyMillis) {
+        List<ChatbotEndpoint> parsed = new ArrayList<>();
+        for (String url : urls.split(",")) {
+            String trimmed = url.trim();
+            while (trimmed.endsWith("/")) {
+                trimmed = trimmed.substring(0, trimmed.length() - 1);
+            }
+            if (!trimmed.isEmpty()) {
+                parsed.add(new ChatbotEndpoint(trimmed, initialLatencyMillis));
+            }
+        }
+        if (parsed.isEmpty()) {
+            throw new IllegalStateException("No chatbot endpoint configured (chatbot.base-urls / chatbot.base-url)");
+        }
+        return List.copyOf(parsed);
+    }
+}
@@ -0,0 +1,266 @@
+package com.vinncorp.orga.chatbot;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
+
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Resilience layer every chatbot call goes through:
+ * <ul>
+ *   <li>a {@link CircuitBreaker} on failure rate and slow-call rate, failing fast while open;</li>
+ *   <li>a bulkhead capping concurrent upstream calls, handing slots to waiting tenants by weighted fair
+ *       queuing ({@link FairScheduler}) with plan weights and per-tenant caps from
+ *       {@code chatbot.scheduler.*}, waiting at most {@code bulkhead.max-wait};</li>
+ *   <li>retries of fast, transient failures (connection refused, 502/503/504), limited by a retry budget
+ *       that earns {@code retry.budget-ratio} of a retry per call so retries cannot multiply load during
+ *       an outage.</li>
+ * </ul>
+ * Rejections surface as {@link ChatbotUnavailableException}. Metrics: {@code chatbot.circuit.state}
+ * (0 closed, 1 open, 2 half-open), {@code chatbot.circuit.transitions{from,to}},
+ * {@code chatbot.bulkhead.available}, {@code chatbot.calls.rejected{reason}}, {@code chatbot.retries} and
+ * {@code chatbot.retry.budget} (retries currently affordable);
+ * per plan {@code chatbot.scheduler.queued{plan}}, {@code chatbot.scheduler.in_flight{plan}} and the
+ * {@code chatbot.scheduler.wait{plan}} timer. Meters are tagged by plan rather than tenant so their number
+ * stays fixed as tenants come and go.
+ */
+@Component
+public class ChatbotResilience {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatbotResilience.class);
+
+    private static final List<String> PLANS = List.of("BASIC", "PRO", "ENTERPRISE");
+
+    private final CircuitBreaker circuitBreaker;
+    private final FairScheduler bulkhead;
+    private final long bulkheadMaxWaitMillis;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+    private final double retryBudgetRatio;
+    private final double retryBudgetMax;
+    private double retryTokens;
+
+    private final MeterRegistry meterRegistry;
+    private final Counter rejectedOpen;
+    private final Counter rejectedBulkhead;
+    private final Counter retries;
+    private final Map<String, Timer> waitTimers = new HashMap<>();
+
+    public ChatbotResilience(MeterRegistry meterRegistry,
+                             @Value("${chatbot.resilience.circuit.window-size:50}") int windowSize,
+                             @Value("${chatbot.resilience.circuit.minimum-calls:20}") int minimumCalls,
+                             @Value("${chatbot.resilience.circuit.failure-rate-threshold:0.5}") double failureRateThreshold,
+                             @Value("${chatbot.resilience.circuit.slow-call-rate-threshold:0.8}") double slowCallRateThreshold,
+                             @Value("${chatbot.resilience.circuit.slow-call-duration:PT20S}") Duration slowCallDuration,
+                             @Value("${chatbot.resilience.circuit.open-duration:PT30S}") Duration openDuration,
+                             @Value("${chatbot.resilience.circuit.half-open-probes:3}") int halfOpenProbes,
+                             @Value("${chatbot.resilience.bulkhead.max-concurrent:200}") int maxConcurrent,
+                             @Value("${chatbot.resilience.bulkhead.max-wait:PT2S}") Duration bulkheadMaxWait,
+                             @Value("${chatbot.resilience.retry.max-attempts:2}") int maxAttempts,
+                             @Value("${chatbot.resilience.retry.backoff:PT0.2S}") Duration retryBackoff,
+                             @Value("${chatbot.resilience.retry.budget-ratio:0.1}") double retryBudgetRatio,
+                             @Value("${chatbot.scheduler.weight.basic:1}") double basicWeight,
+                             @Value("${chatbot.scheduler.weight.pro:2}") double proWeight,
+                             @Value("${chatbot.scheduler.weight.enterprise:4}") double enterpriseWeight,
+                             @Value("${chatbot.scheduler.max-in-flight.basic:20}") int basicMaxInFlight,
+                             @Value("${chatbot.scheduler.max-in-flight.pro:50}") int proMaxInFlight,
+                             @Value("${chatbot.scheduler.max-in-flight.enterprise:100}") int enterpriseMaxInFlight) {
+        this.meterRegistry = meterRegistry;
+        this.circuitBreaker = new CircuitBreaker(windowSize, minimumCalls, failureRateThreshold,
+                slowCallRateThreshold, slowCallDuration, openDuration, halfOpenProbes, this::onTransition);
+        Map<String, FairScheduler.PlanPolicy> policies = Map.of(
+                "BASIC", new FairScheduler.PlanPolicy(basicWeight, basicMaxInFlight),
+                "PRO", new FairScheduler.PlanPolicy(proWeight, proMaxInFlight),
+                "ENTERPRISE", new FairScheduler.PlanPolicy(enterpriseWeight, enterpriseMaxInFlight));
+        this.bulkhead = new FairScheduler(maxConcurrent, plan -> policies.get(planName(plan)));
+        this.bulkheadMaxWaitMillis = bulkheadMaxWait.toMillis();
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBackoffMillis = retryBackoff.toMillis();
+        this.retryBudgetRatio = retryBudgetRatio;
+        // Allow a small burst of retries after idle periods, never an unbounded backlog
+        this.retryBudgetMax = Math.max(1, maxConcurrent * retryBudgetRatio);
+        this.retryTokens = retryBudgetMax;
+
+        Gauge.builder("chatbot.circuit.state", circuitBreaker, breaker -> breaker.getState().ordinal())
+                .description("Chatbot circuit breaker state: 0 closed, 1 open, 2 half-open")
+                .register(meterRegistry);
+        Gauge.builder("chatbot.bulkhead.available", bulkhead, FairScheduler::availableSlots)
+                .description("Free slots for concurrent chatbot calls")
+                .register(meterRegistry);
+        Gauge.builder("chatbot.scheduler.queued.total", bulkhead, FairScheduler::waitingCount)
+                .description("Chatbot calls waiting for a slot, all tenants")
+                .register(meterRegistry);
+        for (String plan : PLANS) {
+            FairScheduler.PlanPolicy policy = policies.get(plan);
+            Gauge.builder("chatbot.scheduler.queued", bulkhead, scheduler -> scheduler.waitingCount(policy))
+                    .description("Chatbot calls of a plan's tenants waiting for a slot")
+                    .tag("plan", plan)
+                    .register(meterRegistry);
+            Gauge.builder("chatbot.scheduler.in_flight", bulkhead, scheduler -> scheduler.inFlightCount(policy))
+                    .description("Chatbot calls of a plan's tenants currently upstream")
+                    .tag("plan", plan)
+                    .register(meterRegistry);
+            waitTimers.put(plan, Timer.builder("chatbot.scheduler.wait")
+                    .description("Time chatbot calls of a plan's tenants waited for a slot")
+                    .tag("plan", plan)
+                    .register(meterRegistry));
+        }
+        Gauge.builder("chatbot.retry.budget", this, ChatbotResilience::retryTokens)
+                .description("Retries of chatbot calls the retry budget currently allows")
+                .register(meterRegistry);
+        this.rejectedOpen = rejectedCounter("circuit_open");
+        this.rejectedBulkhead = rejectedCounter("bulkhead_full");
+        this.retries = Counter.builder("chatbot.retries")
+                .description("Chatbot calls retried after a transient failure")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs a chatbot call for {@code caller} under the breaker and bulkhead, retrying transient failures
+     * if {@code retryable} and the budget allows.
+     */
+    public <T> T call(ChatbotCaller caller, Supplier<T> call, boolean retryable) {
+        if (!circuitBreaker.tryAcquirePermission()) {
+            rejectedOpen.increment();
+            throw new ChatbotUnavailableException("Chatbot service is temporarily unavailable",
+                    circuitBreaker.remainingOpenMillis());
+        }
+        FairScheduler.Permit permit = acquireBulkhead(caller);
+        if (permit == null) {
+            circuitBreaker.onIgnored();
+            rejectedBulkhead.increment();
+            throw new ChatbotUnavailableException("Chatbot service is at capacity", bulkheadMaxWaitMillis);
+        }
+        try {
+            depositRetryToken();
+            for (int attempt = 1; ; attempt++) {
+                long start = System.nanoTime();
+                try {
+                    T result = call.get();
+                    circuitBreaker.onSuccess(System.nanoTime() - start);
+                    return result;
+                } catch (HttpClientErrorException e) {
+                    // 4xx means the chatbot is up and rejected this request
+                    circuitBreaker.onSuccess(System.nanoTime() - start);
+                    throw e;
+                } catch (RestClientException e) {
+                    circuitBreaker.onFailure(System.nanoTime() - start);
+                    if (retryable && attempt < maxAttempts && isTransient(e) && withdrawRetryToken()) {
+                        if (circuitBreaker.tryAcquirePermission()) {
+                            retries.increment();
+                            logger.warn("Retrying chatbot call after transient failure (attempt {}): {}", attempt, e.getMessage());
+                            sleepBeforeRetry();
+                            continue;
+                        }
+                        // The breaker opened on this failure: the retry never happens, so neither does its cost
+                        refundRetryToken();
+                    }
+                    throw e;
+                } catch (RuntimeException | Error e) {
+                    // Not an upstream failure (e.g. the SSE client went away)
+                    circuitBreaker.onIgnored();
+                    throw e;
+                }
+            }
+        } finally {
+            bulkhead.release(permit);
+        }
+    }
+
+    public CircuitBreaker.State getState() {
+        return circuitBreaker.getState();
+    }
+
+    private FairScheduler.Permit acquireBulkhead(ChatbotCaller caller) {
+        long start = System.nanoTime();
+        try {
+            return bulkhead.acquire(caller.tenantId(), caller.subscriptionPlan(),
+                    bulkheadMaxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            waitTimers.get(planName(caller.subscriptionPlan())).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Unknown or missing plans are treated as BASIC
+    private static String planName(String plan) {
+        String name = plan == null ? "BASIC" : plan.toUpperCase(Locale.ROOT);
+        return PLANS.contains(name) ? name : "BASIC";
+    }
+
+    private boolean isTransient(RestClientException e) {
+        if (e instanceof HttpServerErrorException serverError) {
+            HttpStatus status = HttpStatus.resolve(serverError.getStatusCode().value());
+            return status == HttpStatus.BAD_GATEWAY || status == HttpStatus.SERVICE_UNAVAILABLE
+                    || status == HttpStatus.GATEWAY_TIMEOUT;
+        }
+        // Refused connections fail fast; read timeouts are not retried, they already took the full timeout
+        return e instanceof ResourceAccessException && e.getCause() instanceof ConnectException;
+    }
+
+    private synchronized void depositRetryToken() {
+        retryTokens = Math.min(retryBudgetMax, retryTokens + retryBudgetRatio);
+    }
+
+    private synchronized boolean withdrawRetryToken() {
+        if (retryTokens < 1) {
+            return false;
+        }
+        retryTokens -= 1;
+        return true;
+    }
+
+    private synchronized double retryTokens() {
+        return retryTokens;
+    }
+
+    private synchronized void refundRetryToken() {
+        retryTokens = Math.min(retryBudgetMax, retryTokens + 1);
+    }
+
+    private void sleepBeforeRetry() {
+        try {
+            Thread.sleep(retryBackoffMillis + ThreadLocalRandom.current().nextLong(retryBackoffMillis + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void onTransition(CircuitBreaker.State from, CircuitBreaker.State to) {
+        logger.warn("Chatbot circuit breaker {} -> {}", from, to);
+        Counter.builder("chatbot.circuit.transitions")
+                .description("Chatbot circuit breaker state transitions")
+                .tag("from", from.name())
+                .tag("to", to.name())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private Counter rejectedCounter(String reason) {
+        return Counter.builder("chatbot.calls.rejected")
+                .description("Chatbot calls rejected without contacting the upstream")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+}
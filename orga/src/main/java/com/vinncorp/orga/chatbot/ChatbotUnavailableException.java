@@ -0,0 +1,21 @@
+package com.vinncorp.orga.chatbot;
+
+import org.springframework.web.client.RestClientException;
+
+/**
+ * Thrown without contacting the chatbot when the circuit breaker is open or the concurrency bulkhead
+ * is full, so callers can fail fast with 503 instead of waiting for an upstream timeout.
+ */
+public class ChatbotUnavailableException extends RestClientException {
+
+    private final long retryAfterMillis;
+
+    public ChatbotUnavailableException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,235 @@
+package com.vinncorp.orga.chatbot;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Admits at most {@code capacity} concurrent upstream calls and, when they are all taken, hands freed
+ * slots to waiting tenants by weighted fair queuing (start-time fair queuing tags).
+ * <p>
+ * Each request is stamped on arrival with {@code start = max(virtualTime, tenant's last finish)} and
+ * {@code finish = start + 1 / weight}; a free slot goes to the oldest waiter of the tenant whose head has
+ * the smallest finish tag. A tenant with weight 4 is therefore served about four times as often as one
+ * with weight 1 while both are backlogged, a tenant that was idle gets no saved-up credit, and a single
+ * tenant flooding the queue only delays itself. On top of that a tenant never holds more than its
+ * plan's {@code maxInFlight} slots.
+ * <p>
+ * All state sits behind one lock; waiters park on their own condition so a release wakes exactly the
+ * waiter it admits. Selecting the next waiter scans the backlogged tenants, which are few.
+ */
+public class FairScheduler {
+
+    /** Share of the upstream a subscription plan is entitled to. */
+    public record PlanPolicy(double weight, int maxInFlight) {
+    }
+
+    /** An admitted call; hand it back to {@link #release} exactly once. */
+    public static final class Permit {
+        private final TenantQueue queue;
+        private final double start;
+        private final double finish;
+        private final Condition admitted;
+        private boolean granted;
+
+        private Permit(TenantQueue queue, double start, double finish, Condition admitted) {
+            this.queue = queue;
+            this.start = start;
+            this.finish = finish;
+            this.admitted = admitted;
+        }
+    }
+
+    private static final class TenantQueue {
+        private final ArrayDeque<Permit> waiting = new ArrayDeque<>();
+        private PlanPolicy policy;
+        private int inFlight;
+        private double lastFinish;
+    }
+
+    private final int capacity;
+    private final Function<String, PlanPolicy> policyForPlan;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Guarded by lock
+    private final Map<Long, TenantQueue> tenants = new HashMap<>();
+    private final Set<TenantQueue> backlogged = new LinkedHashSet<>();
+    private double virtualTime;
+    private int inFlight;
+    private int waiting;
+
+    public FairScheduler(int capacity, Function<String, PlanPolicy> policyForPlan) {
+        this.capacity = capacity;
+        this.policyForPlan = policyForPlan;
+    }
+
+    /**
+     * Waits up to {@code timeout} for a slot on behalf of {@code tenantId}.
+     *
+     * @return the permit, or null if none could be granted in time
+     */
+    public Permit acquire(Long tenantId, String plan, long timeout, TimeUnit unit) throws InterruptedException {
+        lock.lock();
+        try {
+            TenantQueue queue = tenants.computeIfAbsent(tenantId, id -> new TenantQueue());
+            queue.policy = policyForPlan.apply(plan);
+            double start = Math.max(virtualTime, queue.lastFinish);
+            Permit permit = new Permit(queue, start, start + 1.0 / queue.policy.weight(), lock.newCondition());
+            queue.lastFinish = permit.finish;
+            queue.waiting.addLast(permit);
+            backlogged.add(queue);
+            waiting++;
+            dispatch();
+
+            long nanos = unit.toNanos(timeout);
+            try {
+                while (!permit.granted) {
+                    if (nanos <= 0) {
+                        withdraw(permit);
+                        return null;
+                    }
+                    nanos = permit.admitted.awaitNanos(nanos);
+                }
+            } catch (InterruptedException e) {
+                if (permit.granted) {
+                    releaseLocked(permit);
+                } else {
+                    withdraw(permit);
+                }
+                throw e;
+            }
+            return permit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(Permit permit) {
+        lock.lock();
+        try {
+            releaseLocked(permit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int availableSlots() {
+        lock.lock();
+        try {
+            return capacity - inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int waitingCount() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int waitingCount(Long tenantId) {
+        lock.lock();
+        try {
+            TenantQueue queue = tenants.get(tenantId);
+            return queue != null ? queue.waiting.size() : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int inFlightCount(Long tenantId) {
+        lock.lock();
+        try {
+            TenantQueue queue = tenants.get(tenantId);
+            return queue != null ? queue.inFlight : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Calls waiting, summed over the tenants currently under {@code policy} (compared by identity). */
+    public int waitingCount(PlanPolicy policy) {
+        lock.lock();
+        try {
+            int count = 0;
+            for (TenantQueue queue : tenants.values()) {
+                if (queue.policy == policy) {
+                    count += queue.waiting.size();
+                }
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Calls upstream, summed over the tenants currently under {@code policy} (compared by identity). */
+    public int inFlightCount(PlanPolicy policy) {
+        lock.lock();
+        try {
+            int count = 0;
+            for (TenantQueue queue : tenants.values()) {
+                if (queue.policy == policy) {
+                    count += queue.inFlight;
+                }
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseLocked(Permit permit) {
+        permit.queue.inFlight--;
+        inFlight--;
+        dispatch();
+    }
+
+    private void withdraw(Permit permit) {
+        TenantQueue queue = permit.queue;
+        queue.waiting.remove(permit);
+        waiting--;
+        if (queue.waiting.isEmpty()) {
+            backlogged.remove(queue);
+        }
+        // Give the tag back if nothing was stamped after it, so a timeout does not push the tenant back
+        if (queue.lastFinish == permit.finish) {
+            queue.lastFinish = permit.start;
+        }
+    }
+
+    private void dispatch() {
+        while (inFlight < capacity) {
+            TenantQueue next = null;
+            for (TenantQueue queue : backlogged) {
+                if (queue.inFlight < queue.policy.maxInFlight()
+                        && (next == null || queue.waiting.peekFirst().finish < next.waiting.peekFirst().finish)) {
+                    next = queue;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            Permit permit = next.waiting.pollFirst();
+            if (next.waiting.isEmpty()) {
+                backlogged.remove(next);
+            }
+            waiting--;
+            virtualTime = Math.max(virtualTime, permit.start);
+            next.inFlight++;
+            inFlight++;
+            permit.granted = true;
+            permit.admitted.signal();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.vinncorp.orga.config;
+
+import org.slf4j.MDC;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.Map;
+
+/**
+ * Context propagation for work handed off from request threads.
+ * <p>
+ * Spring Boot applies the {@link TaskDecorator} bean to the application task executor in both threading
+ * modes (platform thread pool or virtual-thread-per-task), so async work such as SSE relays sees the
+ * caller's security context - and with it the authenticated user and tenant - and logging MDC.
+ */
+@Configuration
+public class AsyncConfig {
+
+    @Bean
+    public TaskDecorator contextPropagatingTaskDecorator() {
+        return runnable -> {
+            SecurityContext securityContext = SecurityContextHolder.getContext();
+            Map<String, String> mdc = MDC.getCopyOfContextMap();
+            return () -> {
+                SecurityContext previous = SecurityContextHolder.getContext();
+                SecurityContextHolder.setContext(securityContext);
+                if (mdc != null) {
+                    MDC.setContextMap(mdc);
+                }
+                try {
+                    runnable.run();
+                } finally {
+                    MDC.clear();
+                    SecurityContextHolder.setContext(previous);
+                }
+            };
+        };
+    }
+}
@@ -1,33 +1,18 @@
 package com.vinncorp.orga.config;
 
-import org.apache.hc.client5.http.classic.HttpClient;
-import org.apache.hc.client5.http.config.RequestConfig;
-import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
-import org.apache.hc.core5.util.Timeout;
+import com.vinncorp.orga.chatbot.ChatbotHttpTransport;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
 @Configuration
 public class RestTemplateConfig {
 
     @Bean
-    public RestTemplate restTemplate() {
-        // HttpComponents properly handles redirects for POST requests with body
-        RequestConfig requestConfig = RequestConfig.custom()
-                .setConnectionRequestTimeout(Timeout.ofSeconds(10))
-                .setResponseTimeout(Timeout.ofSeconds(60))
-                .setRedirectsEnabled(true) // Enable redirect following - will wait for 200
-                .build();
-
-        HttpClient httpClient = HttpClientBuilder.create()
-                .setDefaultRequestConfig(requestConfig)
-                .build();
-
-        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(httpClient);
-        
-        return new RestTemplate(factory);
+    public RestTemplate restTemplate(ChatbotHttpTransport chatbotTransport) {
+        // Pool sizing, keep-alive, timeouts and HTTP version live in the chatbot transport
+        RestTemplate restTemplate = new RestTemplate(chatbotTransport.requestFactory());
+        restTemplate.getInterceptors().add(chatbotTransport.timingInterceptor());
+        return restTemplate;
     }
 }
-
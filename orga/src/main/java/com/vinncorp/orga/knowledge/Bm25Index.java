@@ -0,0 +1,399 @@
+package com.vinncorp.orga.knowledge;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Keyword index over text chunks, ranked by BM25 ({@code k1 = 1.2, b = 0.75}) with
+ * {@link Bm25Searcher}.
+ * <p>
+ * Chunks are numbered in insertion order, so every posting list only ever grows at its end and is kept
+ * as variable-byte encoded (doc delta, term frequency) pairs in a {@code byte[]}, with a skip entry
+ * every {@link Bm25Searcher#BLOCK} postings. Each list also records its highest term frequency and
+ * shortest chunk, which bound the score any of its chunks can contribute, so frequent terms cost little
+ * once k good hits are known. {@link KnowledgeSegment}s store posting lists in the same format.
+ * <p>
+ * Deleting a chunk marks it in a tombstone bitmap; once more than {@link #COMPACT_RATIO} of the chunks
+ * are deleted the postings are rebuilt without them. Text is split into lowercase runs of letters and
+ * digits; codes joined by {@code - _ . /} (e.g. {@code SKU-4411/B}) are indexed whole as well as by
+ * their parts, so they can be matched exactly. There is no stemming and there are no stop words - IDF
+ * takes care of common words.
+ * <p>
+ * Readers share a lock, writers hold it exclusively.
+ */
+public class Bm25Index {
+
+    /** One search result with the chunk's text. */
+    public record Hit(long id, int label, float score, String text) {
+    }
+
+    private static final double COMPACT_RATIO = 0.3;
+    private static final int COMPACT_MIN_DELETED = 1024;
+    private static final int MAX_TOKEN_LENGTH = 64;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<Long, Integer> chunksById = new HashMap<>();
+    private long[] ids = new long[64];
+    private int[] labels = new int[64];
+    private int[] lengths = new int[64];
+    private String[] texts = new String[64];
+    private long[] deleted = new long[1];
+    private int chunkCount;
+    private int deletedCount;
+    private long liveLength;
+    private final Bm25Searcher.Source source = new Source();
+
+    /** Live chunks. */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return chunkCount - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Adds {@code text} as chunk {@code id}, replacing any chunk previously added with that id. */
+    public void add(long id, int label, String text) {
+        lock.writeLock().lock();
+        try {
+            Integer replaced = chunksById.get(id);
+            if (replaced != null) {
+                markDeleted(replaced);
+            }
+            append(id, label, text);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Removes chunk {@code id}; false if there is none. */
+    public boolean delete(long id) {
+        lock.writeLock().lock();
+        try {
+            Integer chunk = chunksById.get(id);
+            if (chunk == null) {
+                return false;
+            }
+            markDeleted(chunk);
+            compactIfNeeded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Removes every chunk carrying {@code label}; returns how many there were. */
+    public int deleteLabel(int label) {
+        lock.writeLock().lock();
+        try {
+            int removed = 0;
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                if (labels[chunk] == label && !isDeleted(chunk)) {
+                    markDeleted(chunk);
+                    removed++;
+                }
+            }
+            compactIfNeeded();
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The {@code k} chunks scoring highest for {@code query}, best first, among those whose label passes
+     * {@code labelFilter} (all when null). Chunks matching none of the query's terms are never returned.
+     */
+    public List<Hit> search(String query, int k, IntPredicate labelFilter) {
+        List<String> queryTerms = new ArrayList<>(terms(query).keySet());
+        lock.readLock().lock();
+        try {
+            List<Bm25Searcher.Match> matches = Bm25Searcher.search(List.of(source), queryTerms, k, labelFilter);
+            List<Hit> hits = new ArrayList<>(matches.size());
+            for (Bm25Searcher.Match match : matches) {
+                int chunk = match.chunk();
+                hits.add(new Hit(ids[chunk], labels[chunk], match.score(), texts[chunk]));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** The text of chunk {@code id}, or null if there is none. */
+    String textOf(long id) {
+        lock.readLock().lock();
+        try {
+            Integer chunk = chunksById.get(id);
+            return chunk != null ? texts[chunk] : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // For searches spanning several sources: the source, and its chunks' ids and texts, under readLock()
+
+    Lock readLock() {
+        return lock.readLock();
+    }
+
+    Bm25Searcher.Source source() {
+        return source;
+    }
+
+    long id(int chunk) {
+        return ids[chunk];
+    }
+
+    String text(int chunk) {
+        return texts[chunk];
+    }
+
+    // Writing
+
+    private void append(long id, int label, String text) {
+        int chunk = chunkCount++;
+        if (chunk == ids.length) {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            labels = Arrays.copyOf(labels, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+        }
+        if ((chunk >>> 6) == deleted.length) {
+            deleted = Arrays.copyOf(deleted, deleted.length * 2);
+        }
+        Map<String, Integer> frequencies = terms(text);
+        int length = 0;
+        for (int tf : frequencies.values()) {
+            length += tf;
+        }
+        ids[chunk] = id;
+        labels[chunk] = label;
+        lengths[chunk] = length;
+        texts[chunk] = text;
+        liveLength += length;
+        chunksById.put(id, chunk);
+        for (Map.Entry<String, Integer> term : frequencies.entrySet()) {
+            postings.computeIfAbsent(term.getKey(), t -> new Postings()).add(chunk, term.getValue(), length);
+        }
+    }
+
+    private boolean isDeleted(int chunk) {
+        return (deleted[chunk >>> 6] & (1L << chunk)) != 0;
+    }
+
+    private void markDeleted(int chunk) {
+        deleted[chunk >>> 6] |= 1L << chunk;
+        deletedCount++;
+        liveLength -= lengths[chunk];
+        chunksById.remove(ids[chunk], chunk);
+        texts[chunk] = null;
+    }
+
+    private void compactIfNeeded() {
+        if (deletedCount < COMPACT_MIN_DELETED || deletedCount < chunkCount * COMPACT_RATIO) {
+            return;
+        }
+        int count = chunkCount;
+        long[] oldIds = ids;
+        int[] oldLabels = labels;
+        String[] oldTexts = texts;
+        long[] oldDeleted = deleted;
+        reset(count - deletedCount);
+        for (int chunk = 0; chunk < count; chunk++) {
+            if ((oldDeleted[chunk >>> 6] & (1L << chunk)) == 0) {
+                append(oldIds[chunk], oldLabels[chunk], oldTexts[chunk]);
+            }
+        }
+    }
+
+    private void reset(int capacity) {
+        int size = Math.max(64, Integer.highestOneBit(Math.max(1, capacity)) << 1);
+        postings.clear();
+        chunksById.clear();
+        ids = new long[size];
+        labels = new int[size];
+        lengths = new int[size];
+        texts = new String[size];
+        deleted = new long[size >>> 6];
+        chunkCount = 0;
+        deletedCount = 0;
+        liveLength = 0;
+    }
+
+    // Analysis
+
+    /** Term frequencies of {@code text}, in order of first occurrence. */
+    static Map<String, Integer> terms(String text) {
+        Map<String, Integer> frequencies = new LinkedHashMap<>();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            if (!Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            // A compound: runs of letters and digits joined by single connectors
+            int start = i;
+            int partStart = i;
+            boolean joined = false;
+            while (i < length) {
+                char c = text.charAt(i);
+                if (Character.isLetterOrDigit(c)) {
+                    i++;
+                } else if (isConnector(c) && i + 1 < length && Character.isLetterOrDigit(text.charAt(i + 1))) {
+                    count(frequencies, text, partStart, i);
+                    joined = true;
+                    i++;
+                    partStart = i;
+                } else {
+                    break;
+                }
+            }
+            count(frequencies, text, partStart, i);
+            if (joined) {
+                count(frequencies, text, start, i);
+            }
+        }
+        return frequencies;
+    }
+
+    private static boolean isConnector(char c) {
+        return c == '-' || c == '_' || c == '.' || c == '/';
+    }
+
+    private static void count(Map<String, Integer> frequencies, String text, int start, int end) {
+        if (end - start <= MAX_TOKEN_LENGTH) {
+            frequencies.merge(text.substring(start, end).toLowerCase(Locale.ROOT), 1, Integer::sum);
+        }
+    }
+
+    /**
+     * One term's postings as they are built: variable-byte (chunk delta, tf) pairs, and after every
+     * {@link Bm25Searcher#BLOCK} postings a skip entry holding the last chunk of the block and the offset
+     * where the next begins.
+     */
+    static final class Postings {
+        private byte[] data = new byte[8];
+        private int size;
+        private int count;
+        private int lastChunk = -1;
+        private int maxTf;
+        private int minLength = Integer.MAX_VALUE;
+        // (last chunk, next offset) per skip entry
+        private int[] skips = new int[0];
+        private int skipCount;
+
+        void add(int chunk, int tf, int length) {
+            if (count > 0 && count % Bm25Searcher.BLOCK == 0) {
+                if (2 * skipCount == skips.length) {
+                    skips = Arrays.copyOf(skips, Math.max(8, skips.length * 2));
+                }
+                skips[2 * skipCount] = lastChunk;
+                skips[2 * skipCount + 1] = size;
+                skipCount++;
+            }
+            writeVInt(chunk - lastChunk);
+            writeVInt(tf);
+            lastChunk = chunk;
+            count++;
+            maxTf = Math.max(maxTf, tf);
+            minLength = Math.min(minLength, length);
+        }
+
+        private void writeVInt(int value) {
+            if (size + 5 > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + 5));
+            }
+            while ((value & ~0x7F) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+
+        Bm25Searcher.PostingList list() {
+            return new Bm25Searcher.PostingList(ByteBuffer.wrap(data), 0, count, maxTf, minLength,
+                    IntBuffer.wrap(skips, 0, 2 * skipCount));
+        }
+
+        int count() {
+            return count;
+        }
+
+        int maxTf() {
+            return maxTf;
+        }
+
+        int minLength() {
+            return minLength;
+        }
+
+        int skipCount() {
+            return skipCount;
+        }
+
+        int dataSize() {
+            return size;
+        }
+
+        /** Writes the skip entries, then the postings, as a {@link KnowledgeSegment} stores them. */
+        void writeTo(DataOutput out) throws IOException {
+            for (int i = 0; i < 2 * skipCount; i++) {
+                out.writeInt(skips[i]);
+            }
+            out.write(data, 0, size);
+        }
+    }
+
+    /** This index as a source for {@link Bm25Searcher}; used under the read lock. */
+    private final class Source implements Bm25Searcher.Source {
+
+        @Override
+        public int liveCount() {
+            return chunkCount - deletedCount;
+        }
+
+        @Override
+        public long liveLength() {
+            return liveLength;
+        }
+
+        @Override
+        public Bm25Searcher.PostingList postings(String term) {
+            Postings list = postings.get(term);
+            return list != null ? list.list() : null;
+        }
+
+        @Override
+        public boolean isDeleted(int chunk) {
+            return Bm25Index.this.isDeleted(chunk);
+        }
+
+        @Override
+        public int label(int chunk) {
+            return labels[chunk];
+        }
+
+        @Override
+        public int length(int chunk) {
+            return lengths[chunk];
+        }
+    }
+}
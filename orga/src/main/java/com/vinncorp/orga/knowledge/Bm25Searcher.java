@@ -0,0 +1,328 @@
+package com.vinncorp.orga.knowledge;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * BM25 top-k search ({@code k1 = 1.2, b = 0.75}) over one or more sources of chunks - the in-memory
+ * {@link Bm25Index} and the segments of a {@link KnowledgeBase} - ranked together as if they were one
+ * index: chunk count, average length and document frequencies are summed over all sources first.
+ * <p>
+ * Each source is then searched with MaxScore: terms whose bounds together cannot lift a chunk into the
+ * current top k are not used to find candidates, only probed (by skipping) for candidates found through
+ * the others, and probing stops as soon as the remaining bounds cannot make the difference. The top k
+ * carries over from one source to the next, so later sources start with a high bar.
+ */
+final class Bm25Searcher {
+
+    /** Chunks of one source, numbered from 0; deleted chunks are skipped. */
+    interface Source {
+
+        /** Live chunks that have text. */
+        int liveCount();
+
+        /** Total length of those chunks, in terms. */
+        long liveLength();
+
+        /** {@code term}'s postings, or null if no chunk of this source contains it. */
+        PostingList postings(String term);
+
+        boolean isDeleted(int chunk);
+
+        int label(int chunk);
+
+        int length(int chunk);
+    }
+
+    /**
+     * One term's postings in one source, wherever they are stored: variable-byte (chunk delta, tf) pairs
+     * from {@code start} in {@code data}, and {@code skips} holding, after every {@link #BLOCK} postings,
+     * the last chunk of the block and the offset (from {@code start}) where the next begins.
+     * {@code maxTf} and {@code minLength} bound the score any of its chunks can contribute.
+     */
+    record PostingList(ByteBuffer data, int start, int count, int maxTf, int minLength, IntBuffer skips) {
+    }
+
+    /** A chunk of {@code sources.get(source)} and its score. */
+    record Match(int source, int chunk, float score) {
+    }
+
+    static final int BLOCK = 128;
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int NO_MORE = Integer.MAX_VALUE;
+
+    private Bm25Searcher() {
+    }
+
+    /**
+     * The {@code k} chunks scoring highest for {@code terms}, best first, among those whose label passes
+     * {@code labelFilter} (all when null). Chunks matching none of the terms are never returned.
+     */
+    static List<Match> search(List<? extends Source> sources, Collection<String> terms, int k,
+                              IntPredicate labelFilter) {
+        long live = 0;
+        long totalLength = 0;
+        for (Source source : sources) {
+            live += source.liveCount();
+            totalLength += source.liveLength();
+        }
+        if (live == 0 || k <= 0 || terms.isEmpty()) {
+            return List.of();
+        }
+        float averageLength = (float) totalLength / live;
+
+        String[] queryTerms = terms.toArray(new String[0]);
+        PostingList[][] lists = new PostingList[sources.size()][queryTerms.length];
+        long[] documentFrequencies = new long[queryTerms.length];
+        for (int s = 0; s < sources.size(); s++) {
+            for (int t = 0; t < queryTerms.length; t++) {
+                PostingList list = sources.get(s).postings(queryTerms[t]);
+                lists[s][t] = list;
+                if (list != null) {
+                    documentFrequencies[t] += list.count();
+                }
+            }
+        }
+        float[] idfs = new float[queryTerms.length];
+        for (int t = 0; t < queryTerms.length; t++) {
+            // Deleted chunks still count towards df until they are compacted or merged away; close enough for ranking
+            long df = Math.min(documentFrequencies[t], live);
+            idfs[t] = (float) Math.log(1 + (live - df + 0.5) / (df + 0.5));
+        }
+
+        TopK top = new TopK(k);
+        for (int s = 0; s < sources.size(); s++) {
+            List<Cursor> found = new ArrayList<>(queryTerms.length);
+            for (int t = 0; t < queryTerms.length; t++) {
+                if (lists[s][t] != null) {
+                    found.add(new Cursor(lists[s][t], idfs[t], averageLength));
+                }
+            }
+            search(sources.get(s), s, found.toArray(new Cursor[0]), top, labelFilter);
+        }
+
+        Match[] matches = new Match[top.size()];
+        for (int i = matches.length - 1; i >= 0; i--) {
+            long entry = top.minEntry();
+            matches[i] = new Match((int) (entry >>> 32), (int) entry, top.minScore());
+            top.removeMin();
+        }
+        return Arrays.asList(matches);
+    }
+
+    private static void search(Source source, int sourceIndex, Cursor[] cursors, TopK top, IntPredicate labelFilter) {
+        // Cursors ordered by ascending upper bound; bounds[i] sums the bounds of cursors 0..i
+        Arrays.sort(cursors, (a, b) -> Float.compare(a.upperBound, b.upperBound));
+        float[] bounds = new float[cursors.length];
+        float sum = 0;
+        for (int i = 0; i < cursors.length; i++) {
+            sum += cursors[i].upperBound;
+            bounds[i] = sum;
+            cursors[i].next();
+        }
+
+        // Cursors below firstEssential cannot on their own produce a chunk beating the k-th best
+        int firstEssential = 0;
+        while (firstEssential < cursors.length && bounds[firstEssential] <= top.threshold()) {
+            firstEssential++;
+        }
+        while (firstEssential < cursors.length) {
+            int chunk = NO_MORE;
+            for (int i = firstEssential; i < cursors.length; i++) {
+                chunk = Math.min(chunk, cursors[i].chunk);
+            }
+            if (chunk == NO_MORE) {
+                break;
+            }
+            if (source.isDeleted(chunk) || (labelFilter != null && !labelFilter.test(source.label(chunk)))) {
+                for (int i = firstEssential; i < cursors.length; i++) {
+                    if (cursors[i].chunk == chunk) {
+                        cursors[i].next();
+                    }
+                }
+                continue;
+            }
+
+            float score = 0;
+            int length = source.length(chunk);
+            for (int i = firstEssential; i < cursors.length; i++) {
+                if (cursors[i].chunk == chunk) {
+                    score += cursors[i].score(length);
+                    cursors[i].next();
+                }
+            }
+            for (int i = firstEssential - 1; i >= 0; i--) {
+                if (score + bounds[i] <= top.threshold()) {
+                    break;
+                }
+                cursors[i].advance(chunk);
+                if (cursors[i].chunk == chunk) {
+                    score += cursors[i].score(length);
+                }
+            }
+
+            if (top.offer(((long) sourceIndex << 32) | chunk, score)) {
+                while (firstEssential < cursors.length && bounds[firstEssential] <= top.threshold()) {
+                    firstEssential++;
+                }
+            }
+        }
+    }
+
+    private static float termScore(float idf, int tf, int length, float averageLength) {
+        return idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / averageLength));
+    }
+
+    /** Walks one posting list; {@link #chunk} is {@link #NO_MORE} once exhausted. */
+    private static final class Cursor {
+        private final ByteBuffer data;
+        private final int start;
+        private final int count;
+        private final IntBuffer skips;
+        private final float idf;
+        private final float averageLength;
+        private final float upperBound;
+        private int index = -1;
+        private int offset;
+        private int chunk = -1;
+        private int tf;
+
+        Cursor(PostingList list, float idf, float averageLength) {
+            this.data = list.data();
+            this.start = list.start();
+            this.count = list.count();
+            this.skips = list.skips();
+            this.idf = idf;
+            this.averageLength = averageLength;
+            this.upperBound = termScore(idf, list.maxTf(), list.minLength(), averageLength);
+        }
+
+        float score(int length) {
+            return termScore(idf, tf, length, averageLength);
+        }
+
+        void next() {
+            if (++index >= count) {
+                chunk = NO_MORE;
+                return;
+            }
+            chunk += readVInt();
+            tf = readVInt();
+        }
+
+        /** Moves to the first chunk at or after {@code target}. */
+        void advance(int target) {
+            if (chunk >= target) {
+                return;
+            }
+            // Skip entry s ends block s, i.e. posting (s + 1) * BLOCK - 1; only entries ahead of us help
+            int skipCount = skips.limit() / 2;
+            for (int s = (index + 1) / BLOCK; s < skipCount && skips.get(2 * s) < target; s++) {
+                index = (s + 1) * BLOCK - 1;
+                chunk = skips.get(2 * s);
+                offset = skips.get(2 * s + 1);
+            }
+            while (chunk < target) {
+                next();
+            }
+        }
+
+        private int readVInt() {
+            int b = data.get(start + offset++);
+            int value = b & 0x7F;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = data.get(start + offset++);
+                value |= (b & 0x7F) << shift;
+            }
+            return value;
+        }
+    }
+
+    /** The k best (entry, score) pairs seen so far, as a min-heap on score; entries are source and chunk. */
+    private static final class TopK {
+        private final long[] entries;
+        private final float[] scores;
+        private int size;
+
+        TopK(int k) {
+            entries = new long[k];
+            scores = new float[k];
+        }
+
+        int size() {
+            return size;
+        }
+
+        /** Score an entry must beat to get in; 0 until k entries have been seen. */
+        float threshold() {
+            return size < entries.length ? 0 : scores[0];
+        }
+
+        /** Whether {@code entry} made it in and the top k is full, i.e. the threshold may have risen. */
+        boolean offer(long entry, float score) {
+            if (size < entries.length) {
+                siftUp(size++, entry, score);
+                return size == entries.length;
+            }
+            if (score <= scores[0]) {
+                return false;
+            }
+            siftDown(entry, score);
+            return true;
+        }
+
+        long minEntry() {
+            return entries[0];
+        }
+
+        float minScore() {
+            return scores[0];
+        }
+
+        void removeMin() {
+            size--;
+            if (size > 0) {
+                siftDown(entries[size], scores[size]);
+            }
+        }
+
+        private void siftUp(int i, long entry, float score) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] <= score) {
+                    break;
+                }
+                entries[i] = entries[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            entries[i] = entry;
+            scores[i] = score;
+        }
+
+        private void siftDown(long entry, float score) {
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && scores[child + 1] < scores[child]) {
+                    child++;
+                }
+                if (scores[child] >= score) {
+                    break;
+                }
+                entries[i] = entries[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            entries[i] = entry;
+            scores[i] = score;
+        }
+    }
+}
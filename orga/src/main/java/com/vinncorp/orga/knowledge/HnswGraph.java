@@ -0,0 +1,271 @@
+package com.vinncorp.orga.knowledge;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.IntPredicate;
+
+/**
+ * The search side of an HNSW graph: a greedy descent through the upper levels, then a best-first search
+ * of level 0. Shared by the in-memory {@link HnswIndex} and the read-only graphs of
+ * {@link KnowledgeSegment}s, which supply the storage.
+ * <p>
+ * Distances are cosine distances ({@code 1 - dot}) between normalized vectors. Nodes carry an
+ * {@code int} label that searches can filter on, and may be deleted: deleted nodes stay in the graph as
+ * waypoints but are never returned.
+ */
+abstract class HnswGraph {
+
+    final int dimension;
+    final int m;
+    final int maxM0;
+    private final ConcurrentLinkedQueue<VisitedSet> visitedPool = new ConcurrentLinkedQueue<>();
+
+    HnswGraph(int dimension, int m) {
+        this.dimension = dimension;
+        this.m = m;
+        this.maxM0 = 2 * m;
+    }
+
+    /** Top level in the high half, node in the low half; -1 while empty. */
+    abstract long entryPoint();
+
+    abstract int nodeCount();
+
+    /** Cosine distance between the normalized {@code q} and {@code node}'s vector. */
+    abstract float distance(float[] q, int node);
+
+    /** Copies {@code node}'s neighbours on {@code level} into {@code into}; returns how many there are. */
+    abstract int copyLinks(int node, int level, int[] into);
+
+    abstract int label(int node);
+
+    abstract boolean isDeleted(int node);
+
+    /**
+     * Up to {@code k} live nodes nearest to the normalized {@code q} whose label passes
+     * {@code labelFilter} (all when null), as a max-queue: farthest on top.
+     *
+     * @param ef candidate list size; higher finds the true nearest neighbours more often, slower
+     */
+    final NodeQueue nearest(float[] q, int k, int ef, IntPredicate labelFilter) {
+        long entryAndLevel = entryPoint();
+        if (entryAndLevel < 0 || k <= 0) {
+            return new NodeQueue(0, true);
+        }
+        int entry = (int) entryAndLevel;
+        int[] scratch = new int[maxM0];
+        float entryDistance = distance(q, entry);
+        for (int level = (int) (entryAndLevel >>> 32); level > 0; level--) {
+            int[] closest = {entry};
+            entryDistance = greedyClosest(q, closest, entryDistance, level, scratch);
+            entry = closest[0];
+        }
+
+        NodeQueue results = searchLevel(q, entry, Math.max(ef, k), 0, labelFilter, false, scratch);
+        while (results.size() > k) {
+            results.pop();
+        }
+        return results;
+    }
+
+    final float greedyClosest(float[] q, int[] closest, float closestDistance, int level, int[] scratch) {
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int count = copyLinks(closest[0], level, scratch);
+            for (int i = 0; i < count; i++) {
+                float d = distance(q, scratch[i]);
+                if (d < closestDistance) {
+                    closestDistance = d;
+                    closest[0] = scratch[i];
+                    improved = true;
+                }
+            }
+        }
+        return closestDistance;
+    }
+
+    /**
+     * Best-first search of one level from {@code entry}; returns up to {@code ef} accepted nodes as a
+     * max-queue (farthest on top). While building, deleted nodes are accepted: they still anchor the graph.
+     */
+    final NodeQueue searchLevel(float[] q, int entry, int ef, int level, IntPredicate labelFilter,
+                                boolean includeDeleted, int[] scratch) {
+        VisitedSet visited = acquireVisited();
+        try {
+            NodeQueue candidates = new NodeQueue(ef * 2, false);
+            NodeQueue results = new NodeQueue(ef + 1, true);
+            float entryDistance = distance(q, entry);
+            visited.visit(entry);
+            candidates.push(entry, entryDistance);
+            if (accepts(entry, labelFilter, includeDeleted)) {
+                results.push(entry, entryDistance);
+            }
+
+            while (candidates.size() > 0) {
+                float candidateDistance = candidates.peekDistance();
+                if (results.size() >= ef && candidateDistance > results.peekDistance()) {
+                    break;
+                }
+                int candidate = candidates.peekNode();
+                candidates.pop();
+                int count = copyLinks(candidate, level, scratch);
+                for (int i = 0; i < count; i++) {
+                    int neighbour = scratch[i];
+                    if (!visited.visit(neighbour)) {
+                        continue;
+                    }
+                    float d = distance(q, neighbour);
+                    if (results.size() < ef || d < results.peekDistance()) {
+                        candidates.push(neighbour, d);
+                        if (accepts(neighbour, labelFilter, includeDeleted)) {
+                            results.push(neighbour, d);
+                            if (results.size() > ef) {
+                                results.pop();
+                            }
+                        }
+                    }
+                }
+            }
+            return results;
+        } finally {
+            visitedPool.offer(visited);
+        }
+    }
+
+    private boolean accepts(int node, IntPredicate labelFilter, boolean includeDeleted) {
+        return (includeDeleted || !isDeleted(node)) && (labelFilter == null || labelFilter.test(label(node)));
+    }
+
+    private VisitedSet acquireVisited() {
+        VisitedSet visited = visitedPool.poll();
+        if (visited == null) {
+            visited = new VisitedSet();
+        }
+        visited.reset(nodeCount());
+        return visited;
+    }
+
+    /** {@code vector} scaled to unit length; it must have {@code dimension} finite, not all zero, components. */
+    static float[] normalize(float[] vector, int dimension) {
+        if (vector == null || vector.length != dimension) {
+            throw new IllegalArgumentException("Expected a vector of " + dimension + " dimensions");
+        }
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm == 0 || Double.isNaN(norm) || Double.isInfinite(norm)) {
+            throw new IllegalArgumentException("Vector must be non-zero and finite");
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        float[] normalized = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            normalized[i] = vector[i] * scale;
+        }
+        return normalized;
+    }
+
+    /**
+     * Nodes seen by one walk, as a stamp per node so resetting is O(1); pooled because it is as large as
+     * the graph.
+     */
+    private static final class VisitedSet {
+        private int[] stamps = new int[0];
+        private int stamp;
+
+        void reset(int nodes) {
+            if (stamps.length < nodes) {
+                stamps = new int[Math.max(nodes, stamps.length * 2) + 1024];
+                stamp = 0;
+            }
+            if (++stamp == 0) {
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+        }
+
+        /** Marks {@code node}; false if it was already marked. */
+        boolean visit(int node) {
+            if (node >= stamps.length) {
+                // Added after this walk began; grow rather than miss it
+                stamps = Arrays.copyOf(stamps, Math.max(node + 1, stamps.length * 2));
+            }
+            if (stamps[node] == stamp) {
+                return false;
+            }
+            stamps[node] = stamp;
+            return true;
+        }
+    }
+
+    /** Binary heap of (node, distance), nearest on top or - for a max-queue - farthest on top. */
+    static final class NodeQueue {
+        private int[] nodes;
+        private float[] distances;
+        private int size;
+        private final boolean max;
+
+        NodeQueue(int capacity, boolean max) {
+            this.nodes = new int[Math.max(capacity, 4)];
+            this.distances = new float[nodes.length];
+            this.max = max;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int peekNode() {
+            return nodes[0];
+        }
+
+        float peekDistance() {
+            return distances[0];
+        }
+
+        void push(int node, float distance) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!above(distance, distances[parent])) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            distances[i] = distance;
+        }
+
+        void pop() {
+            int lastNode = nodes[--size];
+            float lastDistance = distances[size];
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && above(distances[child + 1], distances[child])) {
+                    child++;
+                }
+                if (!above(distances[child], lastDistance)) {
+                    break;
+                }
+                nodes[i] = nodes[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            nodes[i] = lastNode;
+            distances[i] = lastDistance;
+        }
+
+        private boolean above(float a, float b) {
+            return max ? a > b : a < b;
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package com.vinncorp.orga.knowledge;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntPredicate;
+
+/**
+ * Approximate nearest-neighbour index over float vectors (HNSW, Malkov and Yashunin 2016), by cosine
+ * similarity.
+ * <p>
+ * Nodes are numbered in insertion order and stored in pages of primitive arrays - vectors, ids, labels,
+ * levels and level-0 links - that are allocated as the index grows and never moved, so readers need no
+ * lock to reach a node. Each node's neighbour lists are guarded by one of {@link #LOCK_STRIPES} striped
+ * monitors; an insert or search holds at most one of them at a time, and only to copy or rewrite one
+ * list, so inserts run concurrently with each other and with searches. Vectors are normalized on the
+ * way in, making cosine distance {@code 1 - dot}.
+ * <p>
+ * Every node carries a caller-chosen {@code long} id and {@code int} label. Adding an id again replaces
+ * its vector; deleting marks the node in a tombstone bitmap - it stays in the graph as a waypoint but is
+ * never returned. Searches can be restricted to labels with a filter, applied while walking the graph
+ * rather than afterwards, so a selective filter still yields {@code k} hits when they exist.
+ * <p>
+ * {@link KnowledgeSegmentWriter} also builds the graphs of segments with it, over vectors already written
+ * to the segment file ({@link #HnswIndex(int, int, MappedVectors)}), so the vectors of a large merge need
+ * not fit in the heap.
+ */
+public class HnswIndex extends HnswGraph {
+
+    /** One search result; {@code score} is the cosine similarity to the query. */
+    public record Hit(long id, int label, float score) {
+    }
+
+    // Pages hold about this many bytes of vectors, so a small index stays small
+    private static final int PAGE_BYTES = 1 << 20;
+    private static final int LOCK_STRIPES = 1024;
+    private static final int MAX_LEVEL = 15;
+
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final int pageBits;
+    private final int pageSize;
+    private final int pageMask;
+
+    // Outer arrays are replaced (copied) when they grow; pages themselves never move
+    private volatile float[][] vectorPages = new float[0][];
+    private volatile long[][] idPages = new long[0][];
+    private volatile int[][] labelPages = new int[0][];
+    private volatile byte[][] levelPages = new byte[0][];
+    // Level 0 links per node: [count, neighbour...] in a stride of maxM0 + 1
+    private volatile int[][] linkPages = new int[0][];
+    // Levels 1.. per node, null for nodes on level 0 only: [count, neighbour...] per level in a stride of m + 1
+    private volatile int[][][] upperLinkPages = new int[0][][];
+    private volatile AtomicLongArray[] deletedPages = new AtomicLongArray[0];
+    private final Object growLock = new Object();
+    // Set when building over vectors stored elsewhere; vector pages then stay empty
+    private final MappedVectors external;
+
+    private final AtomicInteger nodeCount = new AtomicInteger();
+    private final AtomicInteger deletedCount = new AtomicInteger();
+    private final Map<Long, Integer> nodesById = new ConcurrentHashMap<>();
+    private final Object[] linkLocks = new Object[LOCK_STRIPES];
+
+    // Top level in the high half, node in the low half, read and written together; -1 while empty
+    private volatile long entryPoint = -1;
+    private final Object entryLock = new Object();
+
+    /**
+     * @param m              neighbours kept per node on upper levels (twice that on level 0)
+     * @param efConstruction candidate list size while inserting; higher builds a better graph, slower
+     */
+    public HnswIndex(int dimension, int m, int efConstruction) {
+        this(dimension, m, efConstruction, null);
+    }
+
+    /**
+     * An index over {@code vectors}, which must be normalized: node {@code i} is vector {@code i}, its id
+     * is {@code i}, and it is added with {@link #link} rather than {@link #add}.
+     */
+    HnswIndex(int m, int efConstruction, MappedVectors vectors) {
+        this(vectors.dimension(), m, efConstruction, vectors);
+    }
+
+    private HnswIndex(int dimension, int m, int efConstruction, MappedVectors external) {
+        super(dimension, m);
+        if (dimension <= 0 || m < 2 || efConstruction < 1) {
+            throw new IllegalArgumentException("Invalid HNSW parameters");
+        }
+        this.external = external;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelMultiplier = 1 / Math.log(m);
+        this.pageBits = Math.max(6, Math.min(12, 31 - Integer.numberOfLeadingZeros(PAGE_BYTES / (4 * dimension) + 1)));
+        this.pageSize = 1 << pageBits;
+        this.pageMask = pageSize - 1;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            linkLocks[i] = new Object();
+        }
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    /** Vectors searchable, excluding deleted ones. */
+    public int size() {
+        return nodeCount.get() - deletedCount.get();
+    }
+
+    /** Adds {@code vector} under {@code id}, replacing any vector previously added with that id. */
+    public void add(long id, int label, float[] vector) {
+        if (external != null) {
+            throw new IllegalStateException("Nodes of an index over stored vectors are added with link");
+        }
+        float[] normalized = normalize(vector, dimension);
+        int node = nodeCount.getAndIncrement();
+        int level = randomLevel();
+        ensureCapacity(node);
+        int page = node >>> pageBits;
+        int slot = node & pageMask;
+        System.arraycopy(normalized, 0, vectorPages[page], slot * dimension, dimension);
+        idPages[page][slot] = id;
+        labelPages[page][slot] = label;
+        levelPages[page][slot] = (byte) level;
+        if (level > 0) {
+            upperLinkPages[page][slot] = new int[level * (m + 1)];
+        }
+        connect(node, level, normalized);
+        Integer replaced = nodesById.put(id, node);
+        if (replaced != null) {
+            markDeleted(replaced);
+        }
+    }
+
+    /** Links node {@code node} of the stored vectors into the graph; nodes may be linked concurrently, in any order. */
+    void link(int node, int label) {
+        int level = randomLevel();
+        ensureCapacity(node);
+        int page = node >>> pageBits;
+        int slot = node & pageMask;
+        idPages[page][slot] = node;
+        labelPages[page][slot] = label;
+        levelPages[page][slot] = (byte) level;
+        if (level > 0) {
+            upperLinkPages[page][slot] = new int[level * (m + 1)];
+        }
+        nodeCount.accumulateAndGet(node + 1, Math::max);
+        connect(node, level, external.vector(node));
+    }
+
+    /** Removes the vector added under {@code id}; false if there is none. */
+    public boolean delete(long id) {
+        Integer node = nodesById.remove(id);
+        if (node == null) {
+            return false;
+        }
+        markDeleted(node);
+        return true;
+    }
+
+    /** Removes every vector carrying {@code label}; returns how many there were. */
+    public int deleteLabel(int label) {
+        int removed = 0;
+        // Nodes being added concurrently may not have their page yet; they are not in nodesById either
+        int count = Math.min(nodeCount.get(), vectorPages.length << pageBits);
+        for (int node = 0; node < count; node++) {
+            if (label(node) == label && !isDeleted(node) && nodesById.remove(id(node), node)) {
+                markDeleted(node);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * The {@code k} vectors most similar to {@code query}, best first, among those whose label passes
+     * {@code labelFilter} (all when null).
+     *
+     * @param ef candidate list size; higher finds the true nearest neighbours more often, slower
+     */
+    public List<Hit> search(float[] query, int k, int ef, IntPredicate labelFilter) {
+        NodeQueue results = nearest(normalize(query, dimension), k, ef, labelFilter);
+        Hit[] hits = new Hit[results.size()];
+        for (int i = hits.length - 1; i >= 0; i--) {
+            int node = results.peekNode();
+            hits[i] = new Hit(id(node), label(node), 1 - results.peekDistance());
+            results.pop();
+        }
+        return Arrays.asList(hits);
+    }
+
+    /** The normalized vector added under {@code id}, or null if there is none. */
+    float[] vectorOf(long id) {
+        Integer node = nodesById.get(id);
+        return node != null ? vector(node) : null;
+    }
+
+    // Insertion: find neighbours top-down from the entry point and link both ways on each level
+
+    private void connect(int node, int level, float[] vector) {
+        int entry;
+        int top;
+        synchronized (entryLock) {
+            if (entryPoint < 0) {
+                entryPoint = pack(node, level);
+                return;
+            }
+            entry = (int) entryPoint;
+            top = (int) (entryPoint >>> 32);
+        }
+
+        int[] scratch = new int[maxM0];
+        float entryDistance = distance(vector, entry);
+        for (int l = top; l > level; l--) {
+            int[] closest = {entry};
+            entryDistance = greedyClosest(vector, closest, entryDistance, l, scratch);
+            entry = closest[0];
+        }
+        for (int l = Math.min(level, top); l >= 0; l--) {
+            NodeQueue candidates = searchLevel(vector, entry, efConstruction, l, null, true, scratch);
+            int[] neighbours = selectNeighbours(candidates, l == 0 ? maxM0 : m);
+            synchronized (lockFor(node)) {
+                int[] links = links(node, l);
+                int offset = linkOffset(node, l);
+                links[offset] = neighbours.length;
+                System.arraycopy(neighbours, 0, links, offset + 1, neighbours.length);
+            }
+            for (int neighbour : neighbours) {
+                linkBack(neighbour, node, l);
+            }
+            // The closest candidate is the next level's entry point
+            entry = neighbours.length > 0 ? neighbours[0] : entry;
+        }
+
+        if (level > top) {
+            synchronized (entryLock) {
+                if (level > (int) (entryPoint >>> 32)) {
+                    entryPoint = pack(node, level);
+                }
+            }
+        }
+    }
+
+    private void linkBack(int from, int to, int level) {
+        int capacity = level == 0 ? maxM0 : m;
+        synchronized (lockFor(from)) {
+            int[] links = links(from, level);
+            int offset = linkOffset(from, level);
+            int count = links[offset];
+            if (count < capacity) {
+                links[offset + 1 + count] = to;
+                links[offset] = count + 1;
+                return;
+            }
+            // Full: keep the best spread of the existing neighbours plus the new one
+            NodeQueue candidates = new NodeQueue(count + 1, true);
+            float[] fromVector = vector(from);
+            candidates.push(to, distance(fromVector, to));
+            for (int i = 0; i < count; i++) {
+                int neighbour = links[offset + 1 + i];
+                candidates.push(neighbour, distance(fromVector, neighbour));
+            }
+            int[] kept = selectNeighbours(candidates, capacity);
+            links[offset] = kept.length;
+            System.arraycopy(kept, 0, links, offset + 1, kept.length);
+        }
+    }
+
+    /**
+     * The heuristic of the paper: take candidates nearest first, skipping any that is closer to an
+     * already selected neighbour than to the base, so links spread out instead of clustering.
+     * Consumes {@code candidates} (a max-queue); the result is sorted nearest first.
+     */
+    private int[] selectNeighbours(NodeQueue candidates, int max) {
+        int n = candidates.size();
+        int[] nearestFirst = new int[n];
+        float[] distances = new float[n];
+        for (int i = n - 1; i >= 0; i--) {
+            nearestFirst[i] = candidates.peekNode();
+            distances[i] = candidates.peekDistance();
+            candidates.pop();
+        }
+        int[] selected = new int[Math.min(n, max)];
+        int count = 0;
+        for (int i = 0; i < n && count < selected.length; i++) {
+            int candidate = nearestFirst[i];
+            float[] candidateVector = vector(candidate);
+            boolean keep = true;
+            for (int j = 0; j < count; j++) {
+                if (distance(candidateVector, selected[j]) < distances[i]) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[count++] = candidate;
+            }
+        }
+        return count == selected.length ? selected : Arrays.copyOf(selected, count);
+    }
+
+    private int randomLevel() {
+        return Math.min(MAX_LEVEL, (int) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * levelMultiplier));
+    }
+
+    // Storage
+
+    @Override
+    long entryPoint() {
+        return entryPoint;
+    }
+
+    @Override
+    int nodeCount() {
+        return nodeCount.get();
+    }
+
+    @Override
+    int copyLinks(int node, int level, int[] into) {
+        synchronized (lockFor(node)) {
+            int[] links = links(node, level);
+            int offset = linkOffset(node, level);
+            int count = links[offset];
+            System.arraycopy(links, offset + 1, into, 0, count);
+            return count;
+        }
+    }
+
+    private void ensureCapacity(int node) {
+        int page = node >>> pageBits;
+        if (page < vectorPages.length) {
+            return;
+        }
+        synchronized (growLock) {
+            int pages = vectorPages.length;
+            if (page < pages) {
+                return;
+            }
+            int newPages = Math.max(page + 1, pages * 2);
+            float[][] vectors = Arrays.copyOf(vectorPages, newPages);
+            long[][] ids = Arrays.copyOf(idPages, newPages);
+            int[][] labels = Arrays.copyOf(labelPages, newPages);
+            byte[][] levels = Arrays.copyOf(levelPages, newPages);
+            int[][] links = Arrays.copyOf(linkPages, newPages);
+            int[][][] upperLinks = Arrays.copyOf(upperLinkPages, newPages);
+            AtomicLongArray[] deleted = Arrays.copyOf(deletedPages, newPages);
+            for (int i = pages; i < newPages; i++) {
+                vectors[i] = external == null ? new float[pageSize * dimension] : new float[0];
+                ids[i] = new long[pageSize];
+                labels[i] = new int[pageSize];
+                levels[i] = new byte[pageSize];
+                links[i] = new int[pageSize * (maxM0 + 1)];
+                upperLinks[i] = new int[pageSize][];
+                deleted[i] = new AtomicLongArray(pageSize / 64);
+            }
+            // Vectors last: a reader that sees the page there sees the others too
+            idPages = ids;
+            labelPages = labels;
+            levelPages = levels;
+            linkPages = links;
+            upperLinkPages = upperLinks;
+            deletedPages = deleted;
+            vectorPages = vectors;
+        }
+    }
+
+    private float[] vector(int node) {
+        if (external != null) {
+            return external.vector(node);
+        }
+        float[] page = vectorPages[node >>> pageBits];
+        return Arrays.copyOfRange(page, (node & pageMask) * dimension, ((node & pageMask) + 1) * dimension);
+    }
+
+    long id(int node) {
+        return idPages[node >>> pageBits][node & pageMask];
+    }
+
+    @Override
+    int label(int node) {
+        return labelPages[node >>> pageBits][node & pageMask];
+    }
+
+    int level(int node) {
+        return levelPages[node >>> pageBits][node & pageMask];
+    }
+
+    private int[] links(int node, int level) {
+        return level == 0 ? linkPages[node >>> pageBits] : upperLinkPages[node >>> pageBits][node & pageMask];
+    }
+
+    private int linkOffset(int node, int level) {
+        return level == 0 ? (node & pageMask) * (maxM0 + 1) : (level - 1) * (m + 1);
+    }
+
+    @Override
+    boolean isDeleted(int node) {
+        int slot = node & pageMask;
+        return (deletedPages[node >>> pageBits].get(slot >>> 6) & (1L << slot)) != 0;
+    }
+
+    private void markDeleted(int node) {
+        int slot = node & pageMask;
+        long bit = 1L << slot;
+        long before = deletedPages[node >>> pageBits].getAndAccumulate(slot >>> 6, bit, (a, b) -> a | b);
+        if ((before & bit) == 0) {
+            deletedCount.incrementAndGet();
+        }
+    }
+
+    private static long pack(int node, int level) {
+        return ((long) level << 32) | node;
+    }
+
+    private Object lockFor(int node) {
+        return linkLocks[node & (LOCK_STRIPES - 1)];
+    }
+
+    @Override
+    float distance(float[] q, int node) {
+        if (external != null) {
+            return 1 - external.dot(q, node);
+        }
+        float[] page = vectorPages[node >>> pageBits];
+        int offset = (node & pageMask) * dimension;
+        float dot = 0;
+        for (int i = 0; i < dimension; i++) {
+            dot += q[i] * page[offset + i];
+        }
+        return 1 - dot;
+    }
+}
@@ -0,0 +1,558 @@
+package com.vinncorp.orga.knowledge;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.stream.Stream;
+
+/**
+ * One tenant's knowledge base: chunks with a text, an embedding or both, labelled with their document
+ * id, searchable by keywords (BM25) and by vector similarity (HNSW). It lives in its own directory as a
+ * few immutable, memory-mapped {@link KnowledgeSegment}s, plus a small {@link KnowledgeBuffer} in the
+ * heap for recent changes, so opening it reads almost nothing.
+ * <p>
+ * Adds go to the buffer, and {@link #flush} writes the buffer out as a new segment. Deleting or replacing
+ * a chunk that is in a segment marks it in the segment's tombstones, saved by {@link #writeDeletes}.
+ * {@link #merge} rewrites mostly-deleted segments, and the smallest ones once there are too many, into
+ * one. The {@code segments} file lists the live segments by generation and is replaced atomically after
+ * every flush and merge, so a crash leaves either the old or the new set; files it does not list are
+ * leftovers, removed on opening. Chunks still in the buffer are lost on a crash.
+ * <p>
+ * Searches read the current state and see each chunk once: in the segments, the buffer being flushed, if
+ * any, or the buffer. Adds and deletes share a lock that switching states takes exclusively; segments
+ * themselves are written outside it, and deletes that happen meanwhile are carried over to the new
+ * segment before it is published. Batches ({@link #addAll}, {@link #replaceDocument}) are checked before
+ * anything changes and then applied while searches wait, so a search sees all of a batch or none of it.
+ */
+public final class KnowledgeBase {
+
+    /** One search result; {@code score} is the BM25 score or the cosine similarity. */
+    public record Hit(long id, int documentId, float score, String text) {
+    }
+
+    /** A chunk to add: its id, its label, and its text, its embedding or both. */
+    public record Chunk(long id, int label, String text, float[] embedding) {
+    }
+
+    /** Index parameters, see {@link KnowledgeBases}. */
+    record Settings(int dimension, int m, int efConstruction, int efSearch, int buildThreads) {
+    }
+
+    private record State(List<KnowledgeSegment> segments, KnowledgeBuffer flushing, KnowledgeBuffer buffer) {
+    }
+
+    private record Candidate(float score, KnowledgeSegment segment, int chunk, KnowledgeBuffer buffer,
+                             long id, int label) {
+    }
+
+    private static final String MANIFEST = "segments";
+    // A segment with more of its chunks deleted than this is rewritten without them
+    private static final double MAX_DELETED_RATIO = 0.3;
+
+    private final Path dir;
+    private final Settings settings;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Held shared by searches and exclusively while a batch is applied
+    private final ReentrantReadWriteLock batchLock = new ReentrantReadWriteLock();
+    private final AtomicLong nextGeneration;
+    private volatile State state;
+    private volatile boolean dropped;
+
+    private KnowledgeBase(Path dir, Settings settings, List<KnowledgeSegment> segments, long nextGeneration) {
+        this.dir = dir;
+        this.settings = settings;
+        this.nextGeneration = new AtomicLong(nextGeneration);
+        this.state = new State(List.copyOf(segments), null, newBuffer());
+    }
+
+    /** Opens the knowledge base in {@code dir}, creating it if needed. */
+    static KnowledgeBase open(Path dir, Settings settings) throws IOException {
+        Files.createDirectories(dir);
+        List<KnowledgeSegment> segments = new ArrayList<>();
+        Set<Path> listed = new HashSet<>();
+        listed.add(dir.resolve(MANIFEST));
+        long nextGeneration = 1;
+        Path manifest = dir.resolve(MANIFEST);
+        if (Files.exists(manifest)) {
+            for (String line : Files.readAllLines(manifest)) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                long generation = Long.parseLong(line.strip());
+                KnowledgeSegment segment = KnowledgeSegment.open(generation, segmentFile(dir, generation),
+                        deletesFile(dir, generation));
+                if (segment.graph() != null && segment.graph().dimension != settings.dimension()) {
+                    throw new IOException("Segment " + generation + " in " + dir + " has vectors of "
+                            + segment.graph().dimension + " dimensions, expected " + settings.dimension());
+                }
+                segments.add(segment);
+                listed.add(segmentFile(dir, generation));
+                listed.add(deletesFile(dir, generation));
+                nextGeneration = Math.max(nextGeneration, generation + 1);
+            }
+        }
+        // Leftovers of a flush or merge that did not finish
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                if (!listed.contains(file)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        return new KnowledgeBase(dir, settings, segments, nextGeneration);
+    }
+
+    /** Adds chunk {@code id}, replacing any chunk with that id. */
+    void add(long id, int label, String text, float[] embedding) {
+        if (embedding != null) {
+            // Rejects a bad embedding before the chunk it would replace is deleted
+            HnswGraph.normalize(embedding, settings.dimension());
+        }
+        lock.readLock().lock();
+        try {
+            State current = state;
+            for (KnowledgeSegment segment : current.segments()) {
+                int chunk = segment.find(id);
+                if (chunk >= 0) {
+                    segment.delete(chunk);
+                }
+            }
+            if (current.flushing() != null) {
+                current.flushing().delete(id);
+            }
+            current.buffer().add(id, label, text, embedding);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Adds {@code chunks} as one batch; if an embedding is invalid none of them is added. */
+    void addAll(List<Chunk> chunks) {
+        checkEmbeddings(chunks);
+        batchLock.writeLock().lock();
+        try {
+            for (Chunk chunk : chunks) {
+                add(chunk.id(), chunk.label(), chunk.text(), chunk.embedding());
+            }
+        } finally {
+            batchLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces every chunk of document {@code label} with {@code chunks} as one batch, so searches find
+     * the old document or the new one, never part of each; returns how many chunks were removed. If an
+     * embedding is invalid the document is left as it was.
+     */
+    int replaceDocument(int label, List<Chunk> chunks) {
+        checkEmbeddings(chunks);
+        batchLock.writeLock().lock();
+        try {
+            int removed = deleteDocument(label);
+            for (Chunk chunk : chunks) {
+                add(chunk.id(), label, chunk.text(), chunk.embedding());
+            }
+            return removed;
+        } finally {
+            batchLock.writeLock().unlock();
+        }
+    }
+
+    /** Removes every chunk of document {@code label}; returns how many there were. */
+    int deleteDocument(int label) {
+        lock.readLock().lock();
+        try {
+            State current = state;
+            int removed = 0;
+            for (KnowledgeSegment segment : current.segments()) {
+                removed += segment.deleteLabel(label);
+            }
+            if (current.flushing() != null) {
+                removed += current.flushing().deleteLabel(label);
+            }
+            return removed + current.buffer().deleteLabel(label);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** The {@code k} chunks best matching {@code query} by BM25, best first, among labels passing {@code labelFilter}. */
+    List<Hit> searchText(String query, int k, IntPredicate labelFilter) {
+        batchLock.readLock().lock();
+        try {
+            return searchText(new ArrayList<>(Bm25Index.terms(query).keySet()), k, labelFilter, state);
+        } finally {
+            batchLock.readLock().unlock();
+        }
+    }
+
+    private List<Hit> searchText(List<String> terms, int k, IntPredicate labelFilter, State current) {
+        List<Bm25Index> buffers = current.flushing() == null
+                ? List.of(current.buffer().text)
+                : List.of(current.flushing().text, current.buffer().text);
+        List<Bm25Searcher.Source> sources = new ArrayList<>();
+        for (KnowledgeSegment segment : current.segments()) {
+            sources.add(segment.source());
+        }
+        int locked = 0;
+        try {
+            for (Bm25Index buffer : buffers) {
+                buffer.readLock().lock();
+                locked++;
+                sources.add(buffer.source());
+            }
+            int segments = current.segments().size();
+            List<Hit> hits = new ArrayList<>();
+            for (Bm25Searcher.Match match : Bm25Searcher.search(sources, terms, k, labelFilter)) {
+                int chunk = match.chunk();
+                if (match.source() < segments) {
+                    KnowledgeSegment segment = current.segments().get(match.source());
+                    hits.add(new Hit(segment.id(chunk), segment.label(chunk), match.score(), segment.text(chunk)));
+                } else {
+                    Bm25Index buffer = buffers.get(match.source() - segments);
+                    hits.add(new Hit(buffer.id(chunk), buffer.source().label(chunk), match.score(), buffer.text(chunk)));
+                }
+            }
+            return hits;
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                buffers.get(i).readLock().unlock();
+            }
+        }
+    }
+
+    /** The {@code k} chunks closest to {@code embedding}, best first, among labels passing {@code labelFilter}. */
+    List<Hit> searchVectors(float[] embedding, int k, IntPredicate labelFilter) {
+        float[] q = HnswGraph.normalize(embedding, settings.dimension());
+        batchLock.readLock().lock();
+        try {
+            return searchVectors(q, k, labelFilter, state);
+        } finally {
+            batchLock.readLock().unlock();
+        }
+    }
+
+    private List<Hit> searchVectors(float[] q, int k, IntPredicate labelFilter, State current) {
+        List<Candidate> candidates = new ArrayList<>();
+        for (KnowledgeSegment segment : current.segments()) {
+            HnswGraph graph = segment.graph();
+            if (graph == null) {
+                continue;
+            }
+            HnswGraph.NodeQueue nearest = graph.nearest(q, k, settings.efSearch(), labelFilter);
+            for (; nearest.size() > 0; nearest.pop()) {
+                int chunk = segment.chunkOf(nearest.peekNode());
+                candidates.add(new Candidate(1 - nearest.peekDistance(), segment, chunk, null, 0, 0));
+            }
+        }
+        for (KnowledgeBuffer buffer : current.flushing() == null
+                ? List.of(current.buffer()) : List.of(current.flushing(), current.buffer())) {
+            for (HnswIndex.Hit hit : buffer.vectors.search(q, k, settings.efSearch(), labelFilter)) {
+                candidates.add(new Candidate(hit.score(), null, 0, buffer, hit.id(), hit.label()));
+            }
+        }
+        // Texts are read only for the hits that make it
+        return candidates.stream()
+                .sorted(Comparator.comparingDouble(candidate -> -candidate.score()))
+                .limit(k)
+                .map(c -> c.segment() != null
+                        ? new Hit(c.segment().id(c.chunk()), c.segment().label(c.chunk()), c.score(), c.segment().text(c.chunk()))
+                        : new Hit(c.id(), c.label(), c.score(), c.buffer().text.textOf(c.id())))
+                .toList();
+    }
+
+    /** Live chunks. */
+    int size() {
+        State current = state;
+        int size = current.buffer().size() + (current.flushing() != null ? current.flushing().size() : 0);
+        for (KnowledgeSegment segment : current.segments()) {
+            size += segment.liveCount();
+        }
+        return size;
+    }
+
+    int bufferedChunks() {
+        return state.buffer().size();
+    }
+
+    int segmentCount() {
+        return state.segments().size();
+    }
+
+    /** Writes the buffer out as a new segment; false if it was empty. */
+    boolean flush() throws IOException {
+        KnowledgeBuffer frozen;
+        long generation;
+        lock.writeLock().lock();
+        try {
+            State current = state;
+            if (dropped || current.buffer().size() == 0) {
+                return false;
+            }
+            frozen = current.buffer();
+            state = new State(current.segments(), frozen, newBuffer());
+            generation = nextGeneration.getAndIncrement();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        KnowledgeSegmentWriter.Chunks chunks = frozen.chunks();
+        KnowledgeSegment segment;
+        try {
+            segment = writeSegment(generation, chunks);
+        } catch (IOException | RuntimeException e) {
+            restore(frozen);
+            throw e;
+        }
+
+        lock.writeLock().lock();
+        try {
+            // Chunks deleted or replaced while the segment was written
+            for (int i = 0; i < chunks.size(); i++) {
+                if (!frozen.contains(chunks.id(i))) {
+                    segment.delete(i);
+                }
+            }
+            List<KnowledgeSegment> segments = new ArrayList<>(state.segments());
+            segments.add(segment);
+            try {
+                publish(segments, segment);
+            } catch (IOException e) {
+                deleteFiles(generation);
+                restore(frozen);
+                throw e;
+            }
+            state = new State(List.copyOf(segments), null, state.buffer());
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Merges the segments that need it: one that is mostly deleted chunks on its own, otherwise, with
+     * more than {@code mergeFactor} segments, the smallest ones holding at most {@code maxChunks} live
+     * chunks together. Returns false if no segment needed merging.
+     */
+    boolean merge(int mergeFactor, int maxChunks) throws IOException {
+        List<KnowledgeSegment> sources = pickMerge(state.segments(), mergeFactor, maxChunks);
+        if (sources.isEmpty() || dropped) {
+            return false;
+        }
+        long generation = nextGeneration.getAndIncrement();
+
+        // The live chunks as of now; chunks deleted while merging are caught up on publishing
+        int live = 0;
+        for (KnowledgeSegment source : sources) {
+            live += source.liveCount();
+        }
+        int[] fromSegment = new int[live];
+        int[] fromChunk = new int[live];
+        int count = 0;
+        for (int s = 0; s < sources.size(); s++) {
+            KnowledgeSegment source = sources.get(s);
+            for (int chunk = 0; chunk < source.chunkCount() && count < live; chunk++) {
+                if (!source.isDeleted(chunk)) {
+                    fromSegment[count] = s;
+                    fromChunk[count] = chunk;
+                    count++;
+                }
+            }
+        }
+        KnowledgeSegment merged = count == 0 ? null : writeSegment(generation, mergedChunks(sources, fromSegment, fromChunk, count));
+
+        lock.writeLock().lock();
+        try {
+            if (dropped) {
+                deleteFiles(generation);
+                return false;
+            }
+            List<KnowledgeSegment> segments = new ArrayList<>(state.segments());
+            segments.removeAll(sources);
+            if (merged != null) {
+                for (int i = 0; i < count; i++) {
+                    if (sources.get(fromSegment[i]).isDeleted(fromChunk[i])) {
+                        merged.delete(i);
+                    }
+                }
+                segments.add(merged);
+            }
+            try {
+                publish(segments, merged);
+            } catch (IOException e) {
+                deleteFiles(generation);
+                throw e;
+            }
+            state = new State(List.copyOf(segments), state.flushing(), state.buffer());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // Searches still using them keep their mappings; the files can go
+        for (KnowledgeSegment source : sources) {
+            deleteFiles(source.generation());
+        }
+        return true;
+    }
+
+    /** Saves the tombstones of segments that changed since they were last saved. */
+    void writeDeletes() throws IOException {
+        for (KnowledgeSegment segment : state.segments()) {
+            if (dropped) {
+                return;
+            }
+            segment.writeDeletes(deletesFile(dir, segment.generation()));
+        }
+    }
+
+    /** Forgets the knowledge base and deletes its directory. */
+    void drop() throws IOException {
+        lock.writeLock().lock();
+        try {
+            dropped = true;
+            state = new State(List.of(), null, newBuffer());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (Files.exists(dir)) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static List<KnowledgeSegment> pickMerge(List<KnowledgeSegment> segments, int mergeFactor, int maxChunks) {
+        for (KnowledgeSegment segment : segments) {
+            if (segment.deletedCount() > segment.chunkCount() * MAX_DELETED_RATIO) {
+                return List.of(segment);
+            }
+        }
+        if (segments.size() <= mergeFactor) {
+            return List.of();
+        }
+        List<KnowledgeSegment> smallestFirst = new ArrayList<>(segments);
+        smallestFirst.sort(Comparator.comparingInt(KnowledgeSegment::liveCount));
+        List<KnowledgeSegment> picked = new ArrayList<>();
+        long chunks = 0;
+        for (KnowledgeSegment segment : smallestFirst) {
+            if (picked.size() == mergeFactor || chunks + segment.liveCount() > maxChunks) {
+                break;
+            }
+            picked.add(segment);
+            chunks += segment.liveCount();
+        }
+        return picked.size() >= 2 ? picked : List.of();
+    }
+
+    private static KnowledgeSegmentWriter.Chunks mergedChunks(List<KnowledgeSegment> sources, int[] fromSegment,
+                                                              int[] fromChunk, int count) {
+        return new KnowledgeSegmentWriter.Chunks() {
+            @Override
+            public int size() {
+                return count;
+            }
+
+            @Override
+            public long id(int i) {
+                return sources.get(fromSegment[i]).id(fromChunk[i]);
+            }
+
+            @Override
+            public int label(int i) {
+                return sources.get(fromSegment[i]).label(fromChunk[i]);
+            }
+
+            @Override
+            public String text(int i) {
+                return sources.get(fromSegment[i]).text(fromChunk[i]);
+            }
+
+            @Override
+            public boolean hasVector(int i) {
+                return sources.get(fromSegment[i]).hasVector(fromChunk[i]);
+            }
+
+            @Override
+            public float[] vector(int i) {
+                return sources.get(fromSegment[i]).vector(fromChunk[i]);
+            }
+        };
+    }
+
+    private KnowledgeSegment writeSegment(long generation, KnowledgeSegmentWriter.Chunks chunks) throws IOException {
+        Path file = segmentFile(dir, generation);
+        KnowledgeSegmentWriter.write(file, chunks, settings.dimension(), settings.m(), settings.efConstruction(),
+                settings.buildThreads());
+        return KnowledgeSegment.open(generation, file, deletesFile(dir, generation));
+    }
+
+    /** Makes {@code segments} the live set on disk; {@code added}, if any, with its tombstones first. */
+    private void publish(List<KnowledgeSegment> segments, KnowledgeSegment added) throws IOException {
+        if (added != null) {
+            added.writeDeletes(deletesFile(dir, added.generation()));
+        }
+        Path manifest = dir.resolve(MANIFEST);
+        Path temp = dir.resolve(MANIFEST + ".tmp");
+        Files.write(temp, segments.stream().map(segment -> Long.toString(segment.generation())).toList());
+        Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Puts the chunks of a buffer that could not be flushed back into the current buffer. */
+    private void restore(KnowledgeBuffer frozen) {
+        lock.writeLock().lock();
+        try {
+            State current = state;
+            if (dropped) {
+                return;
+            }
+            KnowledgeSegmentWriter.Chunks chunks = frozen.chunks();
+            for (int i = 0; i < chunks.size(); i++) {
+                long id = chunks.id(i);
+                // Chunks added again meanwhile are newer
+                if (!current.buffer().contains(id)) {
+                    current.buffer().add(id, chunks.label(i), chunks.text(i),
+                            chunks.hasVector(i) ? chunks.vector(i) : null);
+                }
+            }
+            state = new State(current.segments(), null, current.buffer());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void deleteFiles(long generation) throws IOException {
+        Files.deleteIfExists(segmentFile(dir, generation));
+        Files.deleteIfExists(deletesFile(dir, generation));
+    }
+
+    private void checkEmbeddings(List<Chunk> chunks) {
+        for (Chunk chunk : chunks) {
+            if (chunk.embedding() != null) {
+                HnswGraph.normalize(chunk.embedding(), settings.dimension());
+            }
+        }
+    }
+
+    private KnowledgeBuffer newBuffer() {
+        return new KnowledgeBuffer(settings.dimension(), settings.m(), settings.efConstruction());
+    }
+
+    private static Path segmentFile(Path dir, long generation) {
+        return dir.resolve("segment-" + generation + ".kseg");
+    }
+
+    private static Path deletesFile(Path dir, long generation) {
+        return dir.resolve("segment-" + generation + ".del");
+    }
+}
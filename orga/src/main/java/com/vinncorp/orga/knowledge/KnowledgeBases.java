@@ -0,0 +1,331 @@
+package com.vinncorp.orga.knowledge;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntPredicate;
+
+/**
+ * The tenants' {@link KnowledgeBase}s, each in {@code knowledge.data-dir/tenant-<id>}, opened on startup
+ * by mapping their segments - nothing is read or rebuilt up front.
+ * <p>
+ * Chunks are labelled with their document id so searches can be limited to some documents and a
+ * document can be removed as a whole. Embeddings come with the chunks - this service has no embedding
+ * model of its own - and must all have {@code knowledge.vectors.dimension} dimensions. Documents posted
+ * as plain text are split into chunks of at most {@code knowledge.text.chunk-words} words along paragraph
+ * breaks; chunk {@code i} of document {@code d} gets id {@code d << 32 | i}. Chunks posted one by one must
+ * use the same id space - the high 32 bits of the id are the document id - so they can never overwrite a
+ * chunk of another document.
+ * <p>
+ * A background thread flushes each tenant's buffer to a new segment every
+ * {@code knowledge.segments.flush-interval}, or sooner once it holds {@code knowledge.segments.flush-chunks}
+ * chunks, then merges segments (see {@link KnowledgeBase#merge}) and saves tombstones; on shutdown the
+ * buffers are flushed. Search latency is published as {@code knowledge.text.search} and
+ * {@code knowledge.vector.search}, flush and merge times as {@code knowledge.segments.write}.
+ */
+@Component
+public class KnowledgeBases {
+
+    private static final Logger logger = LoggerFactory.getLogger(KnowledgeBases.class);
+    private static final String PREFIX = "tenant-";
+
+    private final Path dataDir;
+    private final int chunkWords;
+    private final int flushChunks;
+    private final int mergeFactor;
+    private final int maxSegmentChunks;
+    private final KnowledgeBase.Settings settings;
+    private final Map<Long, KnowledgeBase> bases = new ConcurrentHashMap<>();
+    private final ExecutorService maintenance = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("knowledge-segments").daemon().factory());
+    private final AtomicBoolean maintenancePending = new AtomicBoolean();
+    private final Timer textSearchTimer;
+    private final Timer vectorSearchTimer;
+    private final Timer flushTimer;
+    private final Timer mergeTimer;
+
+    public KnowledgeBases(MeterRegistry meterRegistry,
+                          @Value("${knowledge.data-dir:data/knowledge}") Path dataDir,
+                          @Value("${knowledge.text.chunk-words:200}") int chunkWords,
+                          @Value("${knowledge.vectors.dimension:1536}") int dimension,
+                          @Value("${knowledge.vectors.m:16}") int m,
+                          @Value("${knowledge.vectors.ef-construction:200}") int efConstruction,
+                          @Value("${knowledge.vectors.ef-search:64}") int efSearch,
+                          @Value("${knowledge.segments.flush-chunks:10000}") int flushChunks,
+                          @Value("${knowledge.segments.merge-factor:10}") int mergeFactor,
+                          @Value("${knowledge.segments.max-chunks:500000}") int maxSegmentChunks,
+                          @Value("${knowledge.segments.build-threads:2}") int buildThreads) {
+        this.dataDir = dataDir;
+        this.chunkWords = chunkWords;
+        this.flushChunks = flushChunks;
+        this.mergeFactor = Math.max(2, mergeFactor);
+        this.maxSegmentChunks = maxSegmentChunks;
+        this.settings = new KnowledgeBase.Settings(dimension, m, efConstruction, efSearch, buildThreads);
+        this.textSearchTimer = Timer.builder("knowledge.text.search")
+                .description("Keyword searches of tenant knowledge bases")
+                .register(meterRegistry);
+        this.vectorSearchTimer = Timer.builder("knowledge.vector.search")
+                .description("Nearest-neighbour searches of tenant knowledge bases")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("knowledge.segments.write")
+                .description("Knowledge-base segments written")
+                .tag("kind", "flush")
+                .register(meterRegistry);
+        this.mergeTimer = Timer.builder("knowledge.segments.write")
+                .description("Knowledge-base segments written")
+                .tag("kind", "merge")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void open() {
+        if (!Files.isDirectory(dataDir)) {
+            return;
+        }
+        long start = System.nanoTime();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(dataDir, PREFIX + "*")) {
+            for (Path dir : dirs) {
+                if (!Files.isDirectory(dir)) {
+                    continue;
+                }
+                try {
+                    Long tenantId = Long.valueOf(dir.getFileName().toString().substring(PREFIX.length()));
+                    bases.put(tenantId, KnowledgeBase.open(dir, settings));
+                } catch (IOException | RuntimeException e) {
+                    logger.error("Could not open knowledge base {}: {}", dir, e.getMessage(), e);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Could not list knowledge bases in {}: {}", dataDir, e.getMessage(), e);
+        }
+        logger.info("Opened knowledge bases of {} tenant(s) from {} in {} ms", bases.size(), dataDir,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /** Replaces document {@code documentId} with {@code content}; returns the number of chunks indexed. */
+    public int addDocument(Long tenantId, int documentId, String content) {
+        List<String> texts = chunk(content, chunkWords);
+        List<KnowledgeBase.Chunk> chunks = new ArrayList<>(texts.size());
+        for (int i = 0; i < texts.size(); i++) {
+            chunks.add(new KnowledgeBase.Chunk(((long) documentId << 32) | i, documentId, texts.get(i), null));
+        }
+        KnowledgeBase base = baseOf(tenantId);
+        base.replaceDocument(documentId, chunks);
+        flushIfFull(base);
+        return chunks.size();
+    }
+
+    /**
+     * Adds or replaces {@code chunks}, all of them or, if one is invalid, none.
+     *
+     * @throws IllegalArgumentException if a chunk id is not in its document's id space, or an embedding
+     *                                  has the wrong dimension or is zero
+     */
+    public void addChunks(Long tenantId, List<KnowledgeBase.Chunk> chunks) {
+        for (KnowledgeBase.Chunk chunk : chunks) {
+            if (chunk.id() >> 32 != chunk.label()) {
+                throw new IllegalArgumentException("Chunk id " + chunk.id() + " is not in the id space of document "
+                        + chunk.label() + ": its high 32 bits must be the document id");
+            }
+        }
+        KnowledgeBase base = baseOf(tenantId);
+        base.addAll(chunks);
+        flushIfFull(base);
+    }
+
+    /** Removes all chunks of {@code documentId}; returns how many there were. */
+    public int deleteDocument(Long tenantId, int documentId) {
+        KnowledgeBase base = bases.get(tenantId);
+        return base != null ? base.deleteDocument(documentId) : 0;
+    }
+
+    /** The {@code k} chunks best matching {@code query}, best first, optionally only from {@code documentIds}. */
+    public List<KnowledgeBase.Hit> searchText(Long tenantId, String query, int k, int[] documentIds) {
+        KnowledgeBase base = bases.get(tenantId);
+        if (base == null) {
+            return List.of();
+        }
+        long start = System.nanoTime();
+        try {
+            return base.searchText(query, k, documentFilter(documentIds));
+        } finally {
+            textSearchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * The {@code k} chunks closest to {@code embedding}, best first, optionally only from
+     * {@code documentIds}.
+     *
+     * @throws IllegalArgumentException if the embedding has the wrong dimension or is zero
+     */
+    public List<KnowledgeBase.Hit> searchVectors(Long tenantId, float[] embedding, int k, int[] documentIds) {
+        KnowledgeBase base = bases.get(tenantId);
+        if (base == null) {
+            return List.of();
+        }
+        long start = System.nanoTime();
+        try {
+            return base.searchVectors(embedding, k, documentFilter(documentIds));
+        } finally {
+            vectorSearchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public int size(Long tenantId) {
+        KnowledgeBase base = bases.get(tenantId);
+        return base != null ? base.size() : 0;
+    }
+
+    /** Forgets the tenant's knowledge base, on disk too. */
+    public void drop(Long tenantId) {
+        KnowledgeBase base = bases.remove(tenantId);
+        if (base == null) {
+            return;
+        }
+        try {
+            base.drop();
+        } catch (IOException e) {
+            logger.warn("Could not delete the knowledge base of tenant {}: {}", tenantId, e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${knowledge.segments.flush-interval:PT30S}",
+            initialDelayString = "${knowledge.segments.flush-interval:PT30S}")
+    public void scheduleMaintenance() {
+        requestMaintenance();
+    }
+
+    @PreDestroy
+    void close() {
+        maintenance.shutdown();
+        try {
+            if (!maintenance.awaitTermination(5, TimeUnit.MINUTES)) {
+                logger.warn("Knowledge-base maintenance did not finish in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Map.Entry<Long, KnowledgeBase> entry : bases.entrySet()) {
+            try {
+                entry.getValue().flush();
+                entry.getValue().writeDeletes();
+            } catch (IOException | RuntimeException e) {
+                logger.error("Could not flush the knowledge base of tenant {}: {}", entry.getKey(), e.getMessage(), e);
+            }
+        }
+    }
+
+    /** Splits {@code content} into chunks of at most {@code maxWords} words, breaking at paragraphs where possible. */
+    static List<String> chunk(String content, int maxWords) {
+        List<String> chunks = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int words = 0;
+        for (String paragraph : content.split("\\n\\s*\\n")) {
+            String trimmed = paragraph.strip();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            String[] paragraphWords = trimmed.split("\\s+");
+            if (words > 0 && words + paragraphWords.length > maxWords) {
+                chunks.add(current.toString());
+                current.setLength(0);
+                words = 0;
+            }
+            if (words > 0) {
+                current.append("\n\n");
+            }
+            for (int i = 0; i < paragraphWords.length; i++) {
+                if (words == maxWords) {
+                    chunks.add(current.toString());
+                    current.setLength(0);
+                    words = 0;
+                } else if (i > 0) {
+                    current.append(' ');
+                }
+                current.append(paragraphWords[i]);
+                words++;
+            }
+        }
+        if (words > 0) {
+            chunks.add(current.toString());
+        }
+        return chunks;
+    }
+
+    private KnowledgeBase baseOf(Long tenantId) {
+        return bases.computeIfAbsent(tenantId, id -> {
+            try {
+                return KnowledgeBase.open(dataDir.resolve(PREFIX + id), settings);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not open the knowledge base of tenant " + id, e);
+            }
+        });
+    }
+
+    private void flushIfFull(KnowledgeBase base) {
+        if (base.bufferedChunks() >= flushChunks) {
+            requestMaintenance();
+        }
+    }
+
+    private void requestMaintenance() {
+        // At most one round waiting; requests made while it runs queue the next
+        if (maintenancePending.compareAndSet(false, true)) {
+            try {
+                maintenance.execute(this::maintain);
+            } catch (RejectedExecutionException e) {
+                maintenancePending.set(false);
+            }
+        }
+    }
+
+    private void maintain() {
+        maintenancePending.set(false);
+        for (Map.Entry<Long, KnowledgeBase> entry : bases.entrySet()) {
+            KnowledgeBase base = entry.getValue();
+            try {
+                long start = System.nanoTime();
+                if (base.flush()) {
+                    flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+                for (start = System.nanoTime(); base.merge(mergeFactor, maxSegmentChunks); start = System.nanoTime()) {
+                    mergeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+                base.writeDeletes();
+            } catch (IOException | RuntimeException e) {
+                logger.error("Could not maintain the knowledge base of tenant {}: {}", entry.getKey(), e.getMessage(), e);
+            }
+        }
+    }
+
+    private static IntPredicate documentFilter(int[] documentIds) {
+        if (documentIds == null || documentIds.length == 0) {
+            return null;
+        }
+        int[] allowed = documentIds.clone();
+        Arrays.sort(allowed);
+        return label -> Arrays.binarySearch(allowed, label) >= 0;
+    }
+}
@@ -0,0 +1,103 @@
+package com.vinncorp.orga.knowledge;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The mutable part of a {@link KnowledgeBase}: chunks added since the last flush, indexed in the heap by
+ * a {@link Bm25Index} (text) and an {@link HnswIndex} (vectors) until they are written to a segment.
+ */
+final class KnowledgeBuffer {
+
+    final Bm25Index text = new Bm25Index();
+    final HnswIndex vectors;
+    // Live chunks and their labels; a chunk may have text, a vector or both
+    private final Map<Long, Integer> labels = new ConcurrentHashMap<>();
+
+    KnowledgeBuffer(int dimension, int m, int efConstruction) {
+        this.vectors = new HnswIndex(dimension, m, efConstruction);
+    }
+
+    /** Adds chunk {@code id}, replacing any chunk previously added with that id. */
+    void add(long id, int label, String text, float[] embedding) {
+        if (embedding != null) {
+            vectors.add(id, label, embedding);
+        } else {
+            vectors.delete(id);
+        }
+        if (text != null) {
+            this.text.add(id, label, text);
+        } else {
+            this.text.delete(id);
+        }
+        labels.put(id, label);
+    }
+
+    /** Removes chunk {@code id}; false if there is none. */
+    boolean delete(long id) {
+        vectors.delete(id);
+        text.delete(id);
+        return labels.remove(id) != null;
+    }
+
+    /** Removes every chunk carrying {@code label}; returns how many there were. */
+    int deleteLabel(int label) {
+        vectors.deleteLabel(label);
+        text.deleteLabel(label);
+        int before = labels.size();
+        labels.values().removeIf(l -> l == label);
+        return before - labels.size();
+    }
+
+    boolean contains(long id) {
+        return labels.containsKey(id);
+    }
+
+    int size() {
+        return labels.size();
+    }
+
+    /** A copy of the live chunks, ordered by id, to write to a segment. */
+    KnowledgeSegmentWriter.Chunks chunks() {
+        long[] ids = labels.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        int[] chunkLabels = new int[ids.length];
+        String[] texts = new String[ids.length];
+        float[][] embeddings = new float[ids.length][];
+        for (int i = 0; i < ids.length; i++) {
+            chunkLabels[i] = labels.getOrDefault(ids[i], 0);
+            texts[i] = text.textOf(ids[i]);
+            embeddings[i] = vectors.vectorOf(ids[i]);
+        }
+        return new KnowledgeSegmentWriter.Chunks() {
+            @Override
+            public int size() {
+                return ids.length;
+            }
+
+            @Override
+            public long id(int i) {
+                return ids[i];
+            }
+
+            @Override
+            public int label(int i) {
+                return chunkLabels[i];
+            }
+
+            @Override
+            public String text(int i) {
+                return texts[i];
+            }
+
+            @Override
+            public boolean hasVector(int i) {
+                return embeddings[i] != null;
+            }
+
+            @Override
+            public float[] vector(int i) {
+                return embeddings[i];
+            }
+        };
+    }
+}
@@ -0,0 +1,421 @@
+package com.vinncorp.orga.knowledge;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An immutable segment of a tenant's knowledge base: stored chunks, their postings, and their vectors
+ * with an HNSW graph over them, in one file that is memory-mapped rather than read, so opening it costs
+ * next to nothing and its data lives in the page cache instead of the heap.
+ * <p>
+ * The file, written by {@link KnowledgeSegmentWriter}, is a run of big-endian sections followed by a
+ * fixed-size footer giving each section's offset and length:
+ * <ul>
+ *   <li>texts: the chunks' text, UTF-8, back to back;</li>
+ *   <li>chunks: per chunk its id, label, length in terms, text offset and byte length (-1 without
+ *   text) and graph node (-1 without vector);</li>
+ *   <li>ids: (id, chunk) pairs sorted by id;</li>
+ *   <li>terms: per term, sorted by UTF-8 bytes, the offset and length of its bytes, its posting count,
+ *   highest term frequency and shortest chunk, and where its skip entries and postings are;</li>
+ *   <li>term bytes, then postings: skip entries and postings per term, as built by {@link Bm25Index};</li>
+ *   <li>vectors: the normalized vector of each graph node;</li>
+ *   <li>node chunks, links, upper offsets and upper links: per node its chunk, its level-0 neighbours
+ *   (count, then room for {@code 2m}), and where its upper-level neighbours (count, then room for
+ *   {@code m}, per level) start, -1 if it has none.</li>
+ * </ul>
+ * Deleting a chunk only marks it in a tombstone bitmap - one bit per chunk, in the heap - that is saved
+ * next to the segment in a {@code .del} file; the chunk stays in the postings and the graph, skipped by
+ * searches, until a merge leaves it out.
+ */
+final class KnowledgeSegment {
+
+    static final int MAGIC = 0x4B534547; // "KSEG"
+    static final int VERSION = 1;
+    private static final int DELETES_MAGIC = 0x4B44454C; // "KDEL"
+
+    // Sections, in file order
+    static final int TEXTS = 0;
+    static final int CHUNKS = 1;
+    static final int IDS = 2;
+    static final int TERMS = 3;
+    static final int TERM_BYTES = 4;
+    static final int POSTINGS = 5;
+    static final int VECTORS = 6;
+    static final int NODE_CHUNKS = 7;
+    static final int LINKS = 8;
+    static final int UPPER_OFFSETS = 9;
+    static final int UPPER_LINKS = 10;
+    static final int SECTIONS = 11;
+
+    static final int CHUNK_BYTES = 28;
+    static final int ID_BYTES = 12;
+    static final int TERM_ENTRY_BYTES = 32;
+    static final int FOOTER_BYTES = 48 + SECTIONS * 16;
+
+    private final long generation;
+    private final int chunkCount;
+    private final int termCount;
+    private final ByteBuffer texts;
+    private final ByteBuffer chunks;
+    private final ByteBuffer ids;
+    private final ByteBuffer terms;
+    private final ByteBuffer termBytes;
+    private final ByteBuffer postings;
+    private final IntBuffer nodeChunks;
+    private final IntBuffer links;
+    private final IntBuffer upperOffsets;
+    private final IntBuffer upperLinks;
+    // Null when no chunk has a vector
+    private final Graph graph;
+
+    private final AtomicLongArray deleted;
+    private final AtomicInteger deletedCount = new AtomicInteger();
+    private final AtomicInteger liveTextCount;
+    private final AtomicLong liveTextLength;
+    private final AtomicBoolean deletesChanged = new AtomicBoolean();
+    private final Bm25Searcher.Source source = new Source();
+
+    private KnowledgeSegment(long generation, FileChannel channel, ByteBuffer footer) throws IOException {
+        this.generation = generation;
+        if (footer.getInt() != MAGIC) {
+            throw new IOException("Not a knowledge segment");
+        }
+        int version = footer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported knowledge segment version " + version);
+        }
+        this.chunkCount = footer.getInt();
+        this.liveTextCount = new AtomicInteger(footer.getInt());
+        this.liveTextLength = new AtomicLong(footer.getLong());
+        this.termCount = footer.getInt();
+        int dimension = footer.getInt();
+        int m = footer.getInt();
+        int nodeCount = footer.getInt();
+        long entryPoint = footer.getLong();
+        long[] offsets = new long[SECTIONS];
+        long[] lengths = new long[SECTIONS];
+        for (int s = 0; s < SECTIONS; s++) {
+            offsets[s] = footer.getLong();
+            lengths[s] = footer.getLong();
+        }
+
+        this.texts = map(channel, offsets[TEXTS], lengths[TEXTS]);
+        this.chunks = map(channel, offsets[CHUNKS], lengths[CHUNKS]);
+        this.ids = map(channel, offsets[IDS], lengths[IDS]);
+        this.terms = map(channel, offsets[TERMS], lengths[TERMS]);
+        this.termBytes = map(channel, offsets[TERM_BYTES], lengths[TERM_BYTES]);
+        this.postings = map(channel, offsets[POSTINGS], lengths[POSTINGS]);
+        this.nodeChunks = map(channel, offsets[NODE_CHUNKS], lengths[NODE_CHUNKS]).asIntBuffer();
+        this.links = map(channel, offsets[LINKS], lengths[LINKS]).asIntBuffer();
+        this.upperOffsets = map(channel, offsets[UPPER_OFFSETS], lengths[UPPER_OFFSETS]).asIntBuffer();
+        this.upperLinks = map(channel, offsets[UPPER_LINKS], lengths[UPPER_LINKS]).asIntBuffer();
+        this.graph = nodeCount == 0 ? null
+                : new Graph(dimension, m, MappedVectors.map(channel, offsets[VECTORS], nodeCount, dimension),
+                        nodeCount, entryPoint);
+        this.deleted = new AtomicLongArray((chunkCount + 63) >>> 6);
+    }
+
+    /** Maps segment {@code file}, with the tombstones saved in {@code deletes} if that exists. */
+    static KnowledgeSegment open(long generation, Path file, Path deletes) throws IOException {
+        KnowledgeSegment segment;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < FOOTER_BYTES) {
+                throw new IOException("Not a knowledge segment: " + file);
+            }
+            // Mappings stay valid after the channel is closed
+            segment = new KnowledgeSegment(generation, channel,
+                    channel.map(FileChannel.MapMode.READ_ONLY, size - FOOTER_BYTES, FOOTER_BYTES));
+        }
+        if (Files.exists(deletes)) {
+            segment.readDeletes(deletes);
+        }
+        return segment;
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    /** Chunks in the segment, deleted ones included; they are numbered from 0. */
+    int chunkCount() {
+        return chunkCount;
+    }
+
+    int liveCount() {
+        return chunkCount - deletedCount.get();
+    }
+
+    int deletedCount() {
+        return deletedCount.get();
+    }
+
+    long id(int chunk) {
+        return chunks.getLong(chunk * CHUNK_BYTES);
+    }
+
+    int label(int chunk) {
+        return chunks.getInt(chunk * CHUNK_BYTES + 8);
+    }
+
+    /** The chunk's text, or null if it has none. */
+    String text(int chunk) {
+        int length = chunks.getInt(chunk * CHUNK_BYTES + 20);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        texts.get(chunks.getInt(chunk * CHUNK_BYTES + 16), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    boolean hasVector(int chunk) {
+        return chunks.getInt(chunk * CHUNK_BYTES + 24) >= 0;
+    }
+
+    /** The chunk's normalized vector, or null if it has none. */
+    float[] vector(int chunk) {
+        int node = chunks.getInt(chunk * CHUNK_BYTES + 24);
+        return node >= 0 ? graph.vectors.vector(node) : null;
+    }
+
+    /** The chunk with {@code id}, deleted or not, or -1 if there is none. */
+    int find(long id) {
+        int low = 0;
+        int high = chunkCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = ids.getLong(mid * ID_BYTES);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return ids.getInt(mid * ID_BYTES + 8);
+            }
+        }
+        return -1;
+    }
+
+    boolean isDeleted(int chunk) {
+        return (deleted.get(chunk >>> 6) & (1L << chunk)) != 0;
+    }
+
+    /** Marks {@code chunk} deleted; false if it already was. */
+    boolean delete(int chunk) {
+        long bit = 1L << chunk;
+        long before = deleted.getAndAccumulate(chunk >>> 6, bit, (a, b) -> a | b);
+        if ((before & bit) != 0) {
+            return false;
+        }
+        deletedCount.incrementAndGet();
+        if (chunks.getInt(chunk * CHUNK_BYTES + 20) >= 0) {
+            liveTextCount.decrementAndGet();
+            liveTextLength.addAndGet(-chunks.getInt(chunk * CHUNK_BYTES + 12));
+        }
+        deletesChanged.set(true);
+        return true;
+    }
+
+    /** Deletes every live chunk carrying {@code label}; returns how many there were. */
+    int deleteLabel(int label) {
+        int removed = 0;
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            if (label(chunk) == label && delete(chunk)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    Bm25Searcher.Source source() {
+        return source;
+    }
+
+    /** The graph over the segment's vectors, or null if it has none; its nodes map to chunks with {@link #chunkOf}. */
+    HnswGraph graph() {
+        return graph;
+    }
+
+    int chunkOf(int node) {
+        return nodeChunks.get(node);
+    }
+
+    /** Saves the tombstones to {@code file} if they changed since last saved; returns whether it wrote. */
+    boolean writeDeletes(Path file) throws IOException {
+        if (!deletesChanged.getAndSet(false)) {
+            return false;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream stream = Files.newOutputStream(temp)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+                out.writeInt(DELETES_MAGIC);
+                out.writeInt(chunkCount);
+                for (int i = 0; i < deleted.length(); i++) {
+                    out.writeLong(deleted.get(i));
+                }
+                out.flush();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            deletesChanged.set(true);
+            throw e;
+        }
+    }
+
+    private void readDeletes(Path file) throws IOException {
+        try (InputStream stream = Files.newInputStream(file)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+            if (in.readInt() != DELETES_MAGIC || in.readInt() != chunkCount) {
+                throw new IOException("Tombstones in " + file + " do not belong to this segment");
+            }
+            for (int i = 0; i < deleted.length(); i++) {
+                long word = in.readLong();
+                for (; word != 0; word &= word - 1) {
+                    delete((i << 6) + Long.numberOfTrailingZeros(word));
+                }
+            }
+        }
+        deletesChanged.set(false);
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Segment section of " + length + " bytes is too large to map");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    /** Postings of the term whose UTF-8 bytes are {@code key}, or null. */
+    private Bm25Searcher.PostingList postings(byte[] key) {
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = mid * TERM_ENTRY_BYTES;
+            int order = compareTerm(terms.getInt(entry), terms.getInt(entry + 4), key);
+            if (order < 0) {
+                low = mid + 1;
+            } else if (order > 0) {
+                high = mid - 1;
+            } else {
+                IntBuffer skips = postings.slice(terms.getInt(entry + 20), 8 * terms.getInt(entry + 24)).asIntBuffer();
+                return new Bm25Searcher.PostingList(postings, terms.getInt(entry + 28), terms.getInt(entry + 8),
+                        terms.getInt(entry + 12), terms.getInt(entry + 16), skips);
+            }
+        }
+        return null;
+    }
+
+    private int compareTerm(int offset, int length, byte[] key) {
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int difference = (termBytes.get(offset + i) & 0xFF) - (key[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return length - key.length;
+    }
+
+    /** The segment's text for {@link Bm25Searcher}; safe to use concurrently. */
+    private final class Source implements Bm25Searcher.Source {
+
+        @Override
+        public int liveCount() {
+            return liveTextCount.get();
+        }
+
+        @Override
+        public long liveLength() {
+            return liveTextLength.get();
+        }
+
+        @Override
+        public Bm25Searcher.PostingList postings(String term) {
+            return KnowledgeSegment.this.postings(term.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public boolean isDeleted(int chunk) {
+            return KnowledgeSegment.this.isDeleted(chunk);
+        }
+
+        @Override
+        public int label(int chunk) {
+            return KnowledgeSegment.this.label(chunk);
+        }
+
+        @Override
+        public int length(int chunk) {
+            return chunks.getInt(chunk * CHUNK_BYTES + 12);
+        }
+    }
+
+    /** The stored HNSW graph, read in place. */
+    private final class Graph extends HnswGraph {
+        private final MappedVectors vectors;
+        private final int nodeCount;
+        private final long entryPoint;
+
+        Graph(int dimension, int m, MappedVectors vectors, int nodeCount, long entryPoint) {
+            super(dimension, m);
+            this.vectors = vectors;
+            this.nodeCount = nodeCount;
+            this.entryPoint = entryPoint;
+        }
+
+        @Override
+        long entryPoint() {
+            return entryPoint;
+        }
+
+        @Override
+        int nodeCount() {
+            return nodeCount;
+        }
+
+        @Override
+        float distance(float[] q, int node) {
+            return 1 - vectors.dot(q, node);
+        }
+
+        @Override
+        int copyLinks(int node, int level, int[] into) {
+            IntBuffer list = level == 0 ? links : upperLinks;
+            int offset = level == 0 ? node * (maxM0 + 1) : upperOffsets.get(node) + (level - 1) * (m + 1);
+            int count = list.get(offset);
+            list.get(offset + 1, into, 0, count);
+            return count;
+        }
+
+        @Override
+        int label(int node) {
+            return KnowledgeSegment.this.label(nodeChunks.get(node));
+        }
+
+        @Override
+        boolean isDeleted(int node) {
+            return KnowledgeSegment.this.isDeleted(nodeChunks.get(node));
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.vinncorp.orga.knowledge;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Writes {@link KnowledgeSegment} files, from a {@link KnowledgeBuffer} being flushed or from the live
+ * chunks of segments being merged.
+ * <p>
+ * Postings are built in the heap while the texts are written. The vectors are written next and then
+ * mapped, and the HNSW graph is built over the mapped copy on {@code threads} threads, so only the
+ * graph's links - not the vectors of a large merge - need to fit in the heap.
+ */
+final class KnowledgeSegmentWriter {
+
+    /** The chunks to write, by position. */
+    interface Chunks {
+
+        int size();
+
+        long id(int i);
+
+        int label(int i);
+
+        /** Null when the chunk has no text. */
+        String text(int i);
+
+        boolean hasVector(int i);
+
+        /** Normalized; only called when {@link #hasVector} holds. */
+        float[] vector(int i);
+    }
+
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private final long[] offsets = new long[KnowledgeSegment.SECTIONS];
+    private final long[] lengths = new long[KnowledgeSegment.SECTIONS];
+
+    private KnowledgeSegmentWriter(FileChannel channel) {
+        this.channel = channel;
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+    }
+
+    /** Writes {@code chunks} to the new file {@code file}, in their order; the file is removed if that fails. */
+    static void write(Path file, Chunks chunks, int dimension, int m, int efConstruction, int threads)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            new KnowledgeSegmentWriter(channel).write(chunks, dimension, m, efConstruction, threads);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    private void write(Chunks chunks, int dimension, int m, int efConstruction, int threads) throws IOException {
+        int n = chunks.size();
+        int[] textOffsets = new int[n];
+        int[] textLengths = new int[n];
+        int[] termCounts = new int[n];
+        int[] nodes = new int[n];
+        Map<String, Bm25Index.Postings> postings = new HashMap<>();
+        int textChunks = 0;
+        long textLength = 0;
+        int nodeCount = 0;
+
+        begin(KnowledgeSegment.TEXTS);
+        long textBytes = 0;
+        for (int i = 0; i < n; i++) {
+            nodes[i] = chunks.hasVector(i) ? nodeCount++ : -1;
+            String text = chunks.text(i);
+            if (text == null) {
+                textLengths[i] = -1;
+                continue;
+            }
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            textOffsets[i] = (int) textBytes;
+            textLengths[i] = bytes.length;
+            out.write(bytes);
+            textBytes += bytes.length;
+            if (textBytes > Integer.MAX_VALUE) {
+                throw new IOException("Segment texts exceed 2 GB; lower knowledge.segments.max-chunks");
+            }
+
+            Map<String, Integer> frequencies = Bm25Index.terms(text);
+            int length = 0;
+            for (int tf : frequencies.values()) {
+                length += tf;
+            }
+            for (Map.Entry<String, Integer> term : frequencies.entrySet()) {
+                postings.computeIfAbsent(term.getKey(), t -> new Bm25Index.Postings()).add(i, term.getValue(), length);
+            }
+            termCounts[i] = length;
+            textChunks++;
+            textLength += length;
+        }
+        end(KnowledgeSegment.TEXTS);
+
+        begin(KnowledgeSegment.CHUNKS);
+        long[] ids = new long[n];
+        int[] nodeChunks = new int[nodeCount];
+        int[] nodeLabels = new int[nodeCount];
+        for (int i = 0; i < n; i++) {
+            ids[i] = chunks.id(i);
+            int label = chunks.label(i);
+            out.writeLong(ids[i]);
+            out.writeInt(label);
+            out.writeInt(termCounts[i]);
+            out.writeInt(textOffsets[i]);
+            out.writeInt(textLengths[i]);
+            out.writeInt(nodes[i]);
+            if (nodes[i] >= 0) {
+                nodeChunks[nodes[i]] = i;
+                nodeLabels[nodes[i]] = label;
+            }
+        }
+        end(KnowledgeSegment.CHUNKS);
+
+        begin(KnowledgeSegment.IDS);
+        Integer[] byId = new Integer[n];
+        Arrays.setAll(byId, i -> i);
+        Arrays.sort(byId, (a, b) -> Long.compare(ids[a], ids[b]));
+        for (int chunk : byId) {
+            out.writeLong(ids[chunk]);
+            out.writeInt(chunk);
+        }
+        end(KnowledgeSegment.IDS);
+
+        // Terms ordered by their UTF-8 bytes, the order segments search them in
+        byte[][] keys = new byte[postings.size()][];
+        Bm25Index.Postings[] lists = new Bm25Index.Postings[postings.size()];
+        Integer[] order = new Integer[postings.size()];
+        int t = 0;
+        for (Map.Entry<String, Bm25Index.Postings> term : postings.entrySet()) {
+            keys[t] = term.getKey().getBytes(StandardCharsets.UTF_8);
+            lists[t] = term.getValue();
+            order[t] = t;
+            t++;
+        }
+        postings = null;
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(keys[a], keys[b]));
+
+        begin(KnowledgeSegment.TERMS);
+        int keyOffset = 0;
+        long postingsOffset = 0;
+        for (int term : order) {
+            Bm25Index.Postings list = lists[term];
+            out.writeInt(keyOffset);
+            out.writeInt(keys[term].length);
+            out.writeInt(list.count());
+            out.writeInt(list.maxTf());
+            out.writeInt(list.minLength());
+            out.writeInt((int) postingsOffset);
+            out.writeInt(list.skipCount());
+            postingsOffset += 8L * list.skipCount();
+            out.writeInt((int) postingsOffset);
+            postingsOffset += list.dataSize();
+            if (postingsOffset > Integer.MAX_VALUE) {
+                throw new IOException("Segment postings exceed 2 GB; lower knowledge.segments.max-chunks");
+            }
+            keyOffset += keys[term].length;
+        }
+        end(KnowledgeSegment.TERMS);
+
+        begin(KnowledgeSegment.TERM_BYTES);
+        for (int term : order) {
+            out.write(keys[term]);
+        }
+        end(KnowledgeSegment.TERM_BYTES);
+
+        begin(KnowledgeSegment.POSTINGS);
+        for (int term : order) {
+            lists[term].writeTo(out);
+        }
+        end(KnowledgeSegment.POSTINGS);
+
+        begin(KnowledgeSegment.VECTORS);
+        for (int i = 0; i < n; i++) {
+            if (nodes[i] >= 0) {
+                for (float v : chunks.vector(i)) {
+                    out.writeFloat(v);
+                }
+            }
+        }
+        end(KnowledgeSegment.VECTORS);
+
+        HnswIndex graph = nodeCount == 0 ? null
+                : buildGraph(nodeCount, nodeLabels, dimension, m, efConstruction, threads);
+        int[] scratch = new int[2 * m];
+
+        begin(KnowledgeSegment.NODE_CHUNKS);
+        for (int chunk : nodeChunks) {
+            out.writeInt(chunk);
+        }
+        end(KnowledgeSegment.NODE_CHUNKS);
+
+        begin(KnowledgeSegment.LINKS);
+        for (int node = 0; node < nodeCount; node++) {
+            writeLinks(graph.copyLinks(node, 0, scratch), scratch, 2 * m);
+        }
+        end(KnowledgeSegment.LINKS);
+
+        begin(KnowledgeSegment.UPPER_OFFSETS);
+        int upperOffset = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            int level = graph.level(node);
+            out.writeInt(level > 0 ? upperOffset : -1);
+            upperOffset += level * (m + 1);
+        }
+        end(KnowledgeSegment.UPPER_OFFSETS);
+
+        begin(KnowledgeSegment.UPPER_LINKS);
+        for (int node = 0; node < nodeCount; node++) {
+            for (int level = 1; level <= graph.level(node); level++) {
+                writeLinks(graph.copyLinks(node, level, scratch), scratch, m);
+            }
+        }
+        end(KnowledgeSegment.UPPER_LINKS);
+
+        out.writeInt(KnowledgeSegment.MAGIC);
+        out.writeInt(KnowledgeSegment.VERSION);
+        out.writeInt(n);
+        out.writeInt(textChunks);
+        out.writeLong(textLength);
+        out.writeInt(order.length);
+        out.writeInt(dimension);
+        out.writeInt(m);
+        out.writeInt(nodeCount);
+        out.writeLong(graph != null ? graph.entryPoint() : -1);
+        for (int s = 0; s < KnowledgeSegment.SECTIONS; s++) {
+            out.writeLong(offsets[s]);
+            out.writeLong(lengths[s]);
+        }
+        out.flush();
+        channel.force(true);
+    }
+
+    private HnswIndex buildGraph(int nodeCount, int[] labels, int dimension, int m, int efConstruction, int threads)
+            throws IOException {
+        MappedVectors vectors = MappedVectors.map(channel, offsets[KnowledgeSegment.VECTORS], nodeCount, dimension);
+        HnswIndex graph = new HnswIndex(m, efConstruction, vectors);
+        // Parallel streams run in the pool they are started from
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            pool.submit(() -> IntStream.range(0, nodeCount).parallel().forEach(node -> graph.link(node, labels[node])))
+                    .get();
+            return graph;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while building a segment graph");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not build a segment graph", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void writeLinks(int count, int[] links, int capacity) throws IOException {
+        out.writeInt(count);
+        for (int i = 0; i < capacity; i++) {
+            out.writeInt(i < count ? links[i] : 0);
+        }
+    }
+
+    private void begin(int section) throws IOException {
+        out.flush();
+        offsets[section] = channel.position();
+    }
+
+    private void end(int section) throws IOException {
+        out.flush();
+        lengths[section] = channel.position() - offsets[section];
+    }
+}
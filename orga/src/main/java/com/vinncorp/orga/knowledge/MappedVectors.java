@@ -0,0 +1,63 @@
+package com.vinncorp.orga.knowledge;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Float vectors stored back to back in a region of a file, mapped read-only so they live in the page
+ * cache rather than the heap. A mapping is limited to 2 GB, so the region is mapped in windows of whole
+ * vectors.
+ */
+final class MappedVectors {
+
+    private static final long WINDOW_BYTES = 1L << 30;
+
+    private final int dimension;
+    private final int count;
+    private final int perWindow;
+    private final FloatBuffer[] windows;
+
+    private MappedVectors(int dimension, int count, int perWindow, FloatBuffer[] windows) {
+        this.dimension = dimension;
+        this.count = count;
+        this.perWindow = perWindow;
+        this.windows = windows;
+    }
+
+    /** Maps {@code count} vectors of {@code dimension} floats starting at {@code offset}. */
+    static MappedVectors map(FileChannel channel, long offset, int count, int dimension) throws IOException {
+        int perWindow = (int) Math.max(1, WINDOW_BYTES / (4L * dimension));
+        FloatBuffer[] windows = new FloatBuffer[(count + perWindow - 1) / perWindow];
+        for (int w = 0; w < windows.length; w++) {
+            int vectors = Math.min(perWindow, count - w * perWindow);
+            long start = offset + 4L * dimension * w * perWindow;
+            windows[w] = channel.map(FileChannel.MapMode.READ_ONLY, start, 4L * dimension * vectors).asFloatBuffer();
+        }
+        return new MappedVectors(dimension, count, perWindow, windows);
+    }
+
+    int dimension() {
+        return dimension;
+    }
+
+    int count() {
+        return count;
+    }
+
+    float dot(float[] q, int node) {
+        FloatBuffer window = windows[node / perWindow];
+        int offset = (node % perWindow) * dimension;
+        float dot = 0;
+        for (int i = 0; i < dimension; i++) {
+            dot += q[i] * window.get(offset + i);
+        }
+        return dot;
+    }
+
+    float[] vector(int node) {
+        float[] vector = new float[dimension];
+        windows[node / perWindow].get((node % perWindow) * dimension, vector);
+        return vector;
+    }
+}
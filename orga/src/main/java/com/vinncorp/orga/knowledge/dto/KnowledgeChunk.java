@@ -0,0 +1,48 @@
+package com.vinncorp.orga.knowledge.dto;
+
+import jakarta.validation.constraints.NotNull;
+
+public class KnowledgeChunk {
+
+    @NotNull
+    private Long id;
+
+    @NotNull
+    private Integer documentId;
+
+    private String text; // Optional: indexed for keyword search
+
+    private float[] embedding; // Optional: indexed for vector search
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Integer getDocumentId() {
+        return documentId;
+    }
+
+    public void setDocumentId(Integer documentId) {
+        this.documentId = documentId;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    public float[] getEmbedding() {
+        return embedding;
+    }
+
+    public void setEmbedding(float[] embedding) {
+        this.embedding = embedding;
+    }
+}
@@ -0,0 +1,20 @@
+package com.vinncorp.orga.knowledge.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+
+import java.util.List;
+
+public class KnowledgeChunksRequest {
+
+    @NotEmpty
+    private List<@Valid KnowledgeChunk> chunks;
+
+    public List<KnowledgeChunk> getChunks() {
+        return chunks;
+    }
+
+    public void setChunks(List<KnowledgeChunk> chunks) {
+        this.chunks = chunks;
+    }
+}
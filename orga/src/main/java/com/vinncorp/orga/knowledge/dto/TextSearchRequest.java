@@ -0,0 +1,39 @@
+package com.vinncorp.orga.knowledge.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
+
+public class TextSearchRequest {
+
+    @NotBlank
+    @Size(max = 1000)
+    private String query;
+
+    private Integer k; // Optional: defaults to knowledge.search.default-k
+
+    private int[] documentIds; // Optional: only search these documents
+
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    public Integer getK() {
+        return k;
+    }
+
+    public void setK(Integer k) {
+        this.k = k;
+    }
+
+    public int[] getDocumentIds() {
+        return documentIds;
+    }
+
+    public void setDocumentIds(int[] documentIds) {
+        this.documentIds = documentIds;
+    }
+}
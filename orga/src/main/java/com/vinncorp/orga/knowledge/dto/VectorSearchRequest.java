@@ -0,0 +1,37 @@
+package com.vinncorp.orga.knowledge.dto;
+
+import jakarta.validation.constraints.NotNull;
+
+public class VectorSearchRequest {
+
+    @NotNull
+    private float[] embedding;
+
+    private Integer k; // Optional: defaults to knowledge.search.default-k
+
+    private int[] documentIds; // Optional: only search these documents
+
+    public float[] getEmbedding() {
+        return embedding;
+    }
+
+    public void setEmbedding(float[] embedding) {
+        this.embedding = embedding;
+    }
+
+    public Integer getK() {
+        return k;
+    }
+
+    public void setK(Integer k) {
+        this.k = k;
+    }
+
+    public int[] getDocumentIds() {
+        return documentIds;
+    }
+
+    public void setDocumentIds(int[] documentIds) {
+        this.documentIds = documentIds;
+    }
+}
@@ -0,0 +1,195 @@
+package com.vinncorp.orga.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * BCrypt on a dedicated, bounded executor instead of the calling request thread.
+ * <p>
+ * At most {@code security.password.threads} hashes (default: one per core) run at once and at most
+ * {@code security.password.queue-capacity} wait. Requests are admitted at submit time: when the queue
+ * ahead, drained at the measured hashing time per thread, would keep a caller longer than
+ * {@code security.password.max-wait}, a {@link PasswordHashingBusyException} is thrown before any work
+ * is queued, so auth endpoints answer 429 while chat traffic keeps its CPU. A BCrypt that has started
+ * cannot be interrupted, so the wait itself is only bounded as a backstop. Used everywhere a
+ * {@link PasswordEncoder} is (login via the authentication provider, signup, user invites).
+ * <p>
+ * Hashes are created with cost {@code security.password.bcrypt-strength}. Weaker hashes are upgraded
+ * after a successful login by {@link #upgradeInBackground}, which never waits or fails the login: while
+ * the executor is busy the rehash is left for a later login.
+ * Published as {@code security.password.{queued,active,rejected}} and
+ * {@code security.password.hash{operation=encode|matches}}.
+ */
+@Component
+public class BoundedPasswordEncoder implements PasswordEncoder {
+
+    private static final Logger logger = LoggerFactory.getLogger(BoundedPasswordEncoder.class);
+
+    // Weight of the newest sample in the hashing time estimate
+    private static final double SERVICE_TIME_ALPHA = 0.2;
+
+    private final BCryptPasswordEncoder delegate;
+    private final ThreadPoolExecutor executor;
+    private final int poolSize;
+    private final long maxWaitNanos;
+    // Moving average of one hash on the executor, 0 until the first one has run
+    private volatile double serviceNanos;
+    private final Timer encodeTimer;
+    private final Timer matchesTimer;
+    private final Counter rejected;
+
+    public BoundedPasswordEncoder(MeterRegistry meterRegistry,
+                                  @Value("${security.password.bcrypt-strength:10}") int strength,
+                                  @Value("${security.password.threads:0}") int threads,
+                                  @Value("${security.password.queue-capacity:64}") int queueCapacity,
+                                  @Value("${security.password.max-wait:PT3S}") Duration maxWait) {
+        this.delegate = new BCryptPasswordEncoder(strength);
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hash-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.poolSize = poolSize;
+        this.maxWaitNanos = maxWait.toNanos();
+
+        Gauge.builder("security.password.queued", executor, e -> e.getQueue().size())
+                .description("Password hashing tasks waiting for a thread")
+                .register(meterRegistry);
+        Gauge.builder("security.password.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Password hashing tasks running")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("security.password.rejected")
+                .description("Password hashing requests refused because they would wait longer than max-wait")
+                .register(meterRegistry);
+        this.encodeTimer = Timer.builder("security.password.hash").tag("operation", "encode")
+                .description("Password hashing latency including queueing")
+                .register(meterRegistry);
+        this.matchesTimer = Timer.builder("security.password.hash").tag("operation", "matches")
+                .description("Password hashing latency including queueing")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return run(() -> delegate.encode(rawPassword), encodeTimer);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return run(() -> delegate.matches(rawPassword, encodedPassword), matchesTimer);
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    /**
+     * Rehashes a password that was just verified against {@code encodedPassword} if that hash is weaker
+     * than configured, handing the new hash to {@code store} on the hashing executor. Returns at once;
+     * skipped while other callers are queueing, or if the executor refuses it.
+     */
+    public void upgradeInBackground(CharSequence rawPassword, String encodedPassword, Consumer<String> store) {
+        if (!delegate.upgradeEncoding(encodedPassword) || estimatedWaitNanos() > maxWaitNanos / 2) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    store.accept(timed(() -> delegate.encode(rawPassword)));
+                } catch (Exception e) {
+                    logger.warn("Could not upgrade a password hash: {}", e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Left for a later login
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private <T> T run(Callable<T> task, Timer timer) {
+        long start = System.nanoTime();
+        if (estimatedWaitNanos() > maxWaitNanos) {
+            rejected.increment();
+            throw busy();
+        }
+        Future<T> future;
+        try {
+            future = executor.submit(() -> timed(task));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw busy();
+        }
+        try {
+            return future.get(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Only drops the hash if it is still queued; one that is running holds its thread regardless
+            future.cancel(false);
+            rejected.increment();
+            throw busy();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw busy();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /** Runs a hash on the executor, folding its duration into the service time estimate. */
+    private <T> T timed(Callable<T> task) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return task.call();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            // Unsynchronized: concurrent updates can drop a sample, which an estimate tolerates
+            double current = serviceNanos;
+            serviceNanos = current == 0 ? elapsed : current + SERVICE_TIME_ALPHA * (elapsed - current);
+        }
+    }
+
+    /** Expected time until a hash submitted now completes: the queue ahead of it drains poolSize at a time. */
+    private long estimatedWaitNanos() {
+        int queued = executor.getQueue().size();
+        return (long) ((queued / poolSize + 1) * serviceNanos);
+    }
+
+    private PasswordHashingBusyException busy() {
+        return new PasswordHashingBusyException("Too many sign-in requests, try again shortly",
+                TimeUnit.NANOSECONDS.toMillis(maxWaitNanos));
+    }
+}
@@ -1,62 +1,143 @@
 package com.vinncorp.orga.security;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.vinncorp.orga.user.User;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Clock;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Issues and verifies the HS256 tokens of the API.
+ * <p>
+ * The signing key and the parser are built once. {@link #verify} checks signature and expiry and extracts
+ * the claims in a single parse, and remembers the result under the SHA-256 of the token (the bearer token
+ * itself is not retained), so a client sending the same token on every request is parsed and
+ * HMAC-verified once. Entries expire with the token, or after {@code app.jwt.claims-cache.ttl} if that is
+ * sooner, and the cache is bounded by {@code app.jwt.claims-cache.max-size}. Statistics are published
+ * under {@code cache.*{cache="jwt.claims"}}.
+ */
 @Component
 public class JwtUtil {
 
-    @Value("${app.jwt.secret}")
-    private String secret;
+    public static final String CLAIM_USER_ID = "uid";
+    public static final String CLAIM_TENANT_ID = "tid";
+    public static final String CLAIM_ROLE = "role";
 
-    @Value("${app.jwt.expiration-ms:86400000}")
-    private long expirationMs;
+    private final Key signingKey;
+    private final JwtParser parser;
+    private final long expirationMs;
+    private final Cache<ByteBuffer, Claims> verifiedClaims;
+    private final Clock clock;
 
-    private Key getSigningKey() {
-        byte[] keyBytes = Decoders.BASE64.decode(secret);
-        return Keys.hmacShaKeyFor(keyBytes);
+    @Autowired
+    public JwtUtil(@Value("${app.jwt.secret}") String secret,
+                   @Value("${app.jwt.expiration-ms:86400000}") long expirationMs,
+                   @Value("${app.jwt.claims-cache.max-size:10000}") long claimsCacheSize,
+                   @Value("${app.jwt.claims-cache.ttl:PT5M}") Duration claimsCacheTtl,
+                   MeterRegistry meterRegistry) {
+        this(secret, expirationMs, claimsCacheSize, claimsCacheTtl, meterRegistry, Date::new);
     }
 
-    public String generateToken(String subject) {
-        Date now = new Date();
+    /** As above, issuing and checking expiry against {@code clock} instead of the system time. */
+    JwtUtil(String secret, long expirationMs, long claimsCacheSize, Duration claimsCacheTtl,
+            MeterRegistry meterRegistry, Clock clock) {
+        this.signingKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(secret));
+        this.parser = Jwts.parserBuilder().setSigningKey(signingKey).setClock(clock).build();
+        this.expirationMs = expirationMs;
+        this.clock = clock;
+        long maxTtlNanos = claimsCacheTtl.toNanos();
+        this.verifiedClaims = Caffeine.newBuilder()
+                .maximumSize(claimsCacheSize)
+                .expireAfter(Expiry.<ByteBuffer, Claims>creating((token, claims) -> {
+                    long untilExpiry = TimeUnit.MILLISECONDS.toNanos(
+                            claims.getExpiration().getTime() - clock.now().getTime());
+                    return Duration.ofNanos(Math.max(0, Math.min(untilExpiry, maxTtlNanos)));
+                }))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, verifiedClaims, "jwt.claims");
+    }
+
+    /**
+     * Token for {@code user}: the email as subject plus the user id, tenant id and role as claims. The
+     * filter only trusts the ids for cross-checking; role and tenant are re-read through the
+     * {@link TenantPrincipalCache}.
+     */
+    public String generateToken(User user) {
+        Date now = clock.now();
         Date expiry = new Date(now.getTime() + expirationMs);
 
         return Jwts.builder()
-                .setSubject(subject)
+                .setSubject(user.getEmail())
+                .claim(CLAIM_USER_ID, user.getId())
+                .claim(CLAIM_TENANT_ID, user.getTenant().getId())
+                .claim(CLAIM_ROLE, user.getRole().name())
                 .setIssuedAt(now)
                 .setExpiration(expiry)
-                .signWith(getSigningKey(), SignatureAlgorithm.HS256)
+                .signWith(signingKey, SignatureAlgorithm.HS256)
                 .compact();
     }
 
+    /**
+     * Claims of a token with a valid signature that has not expired, or null for any other token.
+     * The returned claims may be shared between requests and must not be modified.
+     */
+    public Claims verify(String token) {
+        ByteBuffer key = ByteBuffer.wrap(sha256(token));
+        Claims claims = verifiedClaims.getIfPresent(key);
+        if (claims != null) {
+            // The cache entry may outlive the token by up to its scheduling granularity
+            return claims.getExpiration().after(clock.now()) ? claims : null;
+        }
+        try {
+            claims = parser.parseClaimsJws(token).getBody();
+        } catch (JwtException | IllegalArgumentException e) {
+            return null;
+        }
+        if (claims.getExpiration() == null) {
+            // Every token this service issues expires; refuse to cache one that never would
+            return null;
+        }
+        verifiedClaims.put(key, claims);
+        return claims;
+    }
+
     public String extractUsername(String token) {
-        return getClaims(token).getSubject();
+        Claims claims = verify(token);
+        return claims != null ? claims.getSubject() : null;
     }
 
     public boolean isTokenValid(String token, String username) {
         String tokenUsername = extractUsername(token);
-        return tokenUsername.equals(username) && !isTokenExpired(token);
+        return tokenUsername != null && tokenUsername.equals(username);
     }
 
-    private boolean isTokenExpired(String token) {
-        return getClaims(token).getExpiration().before(new Date());
-    }
-
-    private Claims getClaims(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+    static byte[] sha256(String token) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
     }
 }
-
-
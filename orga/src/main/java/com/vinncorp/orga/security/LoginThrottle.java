@@ -0,0 +1,89 @@
+package com.vinncorp.orga.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Failed-login throttling per account and per client IP.
+ * <p>
+ * Failures are counted in a fixed window of {@code security.login-throttle.window} starting at the first
+ * failure. Once an account reaches {@code max-failures-per-account} or an IP reaches
+ * {@code max-failures-per-ip}, further attempts are refused until the window ends - before any password
+ * is hashed, so guessing costs the node no BCrypt. A successful login clears the account's window.
+ * Refusals are counted as {@code security.login.throttled}.
+ */
+@Component
+public class LoginThrottle {
+
+    private static final class Window {
+        private final long resetAtMillis;
+        private final AtomicInteger failures = new AtomicInteger();
+
+        private Window(long resetAtMillis) {
+            this.resetAtMillis = resetAtMillis;
+        }
+    }
+
+    private final long windowMillis;
+    private final int maxFailuresPerAccount;
+    private final int maxFailuresPerIp;
+    private final Cache<String, Window> accounts;
+    private final Cache<String, Window> addresses;
+    private final Counter throttled;
+
+    public LoginThrottle(MeterRegistry meterRegistry,
+                         @Value("${security.login-throttle.window:PT15M}") Duration window,
+                         @Value("${security.login-throttle.max-failures-per-account:5}") int maxFailuresPerAccount,
+                         @Value("${security.login-throttle.max-failures-per-ip:50}") int maxFailuresPerIp) {
+        this.windowMillis = window.toMillis();
+        this.maxFailuresPerAccount = maxFailuresPerAccount;
+        this.maxFailuresPerIp = maxFailuresPerIp;
+        this.accounts = Caffeine.newBuilder().maximumSize(100_000).expireAfterWrite(window).build();
+        this.addresses = Caffeine.newBuilder().maximumSize(100_000).expireAfterWrite(window).build();
+        this.throttled = Counter.builder("security.login.throttled")
+                .description("Login attempts refused after too many failures for the account or IP")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Milliseconds until {@code email} may try again from {@code ip}, or 0 if the attempt may go ahead.
+     */
+    public long retryAfterMillis(String email, String ip) {
+        long now = System.currentTimeMillis();
+        long wait = Math.max(blockedFor(accounts.getIfPresent(key(email)), maxFailuresPerAccount, now),
+                blockedFor(addresses.getIfPresent(ip), maxFailuresPerIp, now));
+        if (wait > 0) {
+            throttled.increment();
+        }
+        return wait;
+    }
+
+    public void recordFailure(String email, String ip) {
+        long resetAt = System.currentTimeMillis() + windowMillis;
+        accounts.get(key(email), k -> new Window(resetAt)).failures.incrementAndGet();
+        addresses.get(ip, k -> new Window(resetAt)).failures.incrementAndGet();
+    }
+
+    public void recordSuccess(String email) {
+        accounts.invalidate(key(email));
+    }
+
+    private static long blockedFor(Window window, int maxFailures, long now) {
+        if (window == null || window.failures.get() < maxFailures) {
+            return 0;
+        }
+        return Math.max(0, window.resetAtMillis - now);
+    }
+
+    private static String key(String email) {
+        return email == null ? "" : email.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,19 @@
+package com.vinncorp.orga.security;
+
+/**
+ * Thrown instead of hashing or verifying a password when the password-hashing executor is saturated,
+ * so the caller can answer 429 right away rather than queue behind a login storm.
+ */
+public class PasswordHashingBusyException extends RuntimeException {
+
+    private final long retryAfterMillis;
+
+    public PasswordHashingBusyException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
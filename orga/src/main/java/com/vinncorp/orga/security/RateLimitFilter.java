@@ -0,0 +1,167 @@
+package com.vinncorp.orga.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Token-bucket rate limits in front of the chat and auth endpoints, placed right after
+ * {@link JwtAuthenticationFilter} so the caller's {@link TenantPrincipal} is known.
+ * <ul>
+ *   <li>{@code POST /chat/ask[/stream]}: one bucket per user and one per tenant, sized by the tenant's
+ *       subscription plan ({@code rate-limit.chat.user.<plan>}, {@code rate-limit.chat.tenant.<plan>}).</li>
+ *   <li>{@code POST /api/auth/login|signup}: one bucket per client IP ({@code rate-limit.auth.ip}).</li>
+ * </ul>
+ * The client IP is {@link HttpServletRequest#getRemoteAddr()}, which behind a reverse proxy is only the
+ * caller's address when {@code server.forward-headers-strategy} resolves X-Forwarded-For; otherwise every
+ * client would share the proxy's bucket, so a warning is logged at startup.
+ * Limits are requests per minute, with bursts of up to the same number. A rejected request gets 429 with
+ * {@code Retry-After} and is counted as {@code rate_limit.rejected{scope=user|tenant|ip}}. Decisions go
+ * through a {@link TokenBucketLimiter} and allocate nothing.
+ */
+@Component
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    // Kinds of key, in the top bits above any id
+    private static final long USER_KEY = 1L << 60;
+    private static final long TENANT_KEY = 2L << 60;
+    private static final long IP_KEY = 3L << 60;
+    private static final String BODY = "{\"message\":\"Too many requests, slow down\"}";
+
+    private final TokenBucketLimiter limiter;
+    private final boolean enabled;
+    private final int userBasic;
+    private final int userPro;
+    private final int userEnterprise;
+    private final int tenantBasic;
+    private final int tenantPro;
+    private final int tenantEnterprise;
+    private final int authPerIp;
+    private final Counter userRejected;
+    private final Counter tenantRejected;
+    private final Counter ipRejected;
+
+    public RateLimitFilter(MeterRegistry meterRegistry,
+                           @Value("${rate-limit.enabled:true}") boolean enabled,
+                           @Value("${rate-limit.stripes:64}") int stripes,
+                           @Value("${rate-limit.max-keys:65536}") int maxKeys,
+                           @Value("${rate-limit.chat.user.basic:20}") int userBasic,
+                           @Value("${rate-limit.chat.user.pro:40}") int userPro,
+                           @Value("${rate-limit.chat.user.enterprise:60}") int userEnterprise,
+                           @Value("${rate-limit.chat.tenant.basic:200}") int tenantBasic,
+                           @Value("${rate-limit.chat.tenant.pro:600}") int tenantPro,
+                           @Value("${rate-limit.chat.tenant.enterprise:2000}") int tenantEnterprise,
+                           @Value("${rate-limit.auth.ip:20}") int authPerIp,
+                           @Value("${server.forward-headers-strategy:none}") String forwardHeadersStrategy) {
+        this.limiter = new TokenBucketLimiter(stripes, maxKeys);
+        this.enabled = enabled;
+        this.userBasic = userBasic;
+        this.userPro = userPro;
+        this.userEnterprise = userEnterprise;
+        this.tenantBasic = tenantBasic;
+        this.tenantPro = tenantPro;
+        this.tenantEnterprise = tenantEnterprise;
+        this.authPerIp = authPerIp;
+        this.userRejected = rejectedCounter(meterRegistry, "user");
+        this.tenantRejected = rejectedCounter(meterRegistry, "tenant");
+        this.ipRejected = rejectedCounter(meterRegistry, "ip");
+        if (enabled && "none".equalsIgnoreCase(forwardHeadersStrategy.trim())) {
+            logger.warn("server.forward-headers-strategy is none: behind a proxy, rate-limit.auth.ip limits "
+                    + "the proxy's address for all clients at once rather than each client IP");
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!enabled || !"POST".equals(request.getMethod())) {
+            return true;
+        }
+        String path = request.getServletPath();
+        return !isChat(path) && !isAuth(path);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request,
+                                    HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        long now = System.nanoTime();
+        String path = request.getServletPath();
+
+        if (isAuth(path)) {
+            // The forwarded client address when server.forward-headers-strategy is set, not the proxy's
+            long wait = limiter.tryAcquire(IP_KEY | (request.getRemoteAddr().hashCode() & 0xFFFFFFFFL), authPerIp, now);
+            if (wait > 0) {
+                ipRejected.increment();
+                reject(response, wait);
+                return;
+            }
+        } else {
+            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+            if (authentication != null && authentication.getPrincipal() instanceof TenantPrincipal principal) {
+                String plan = principal.getSubscriptionPlan();
+                long wait = limiter.tryAcquire(USER_KEY | principal.getUserId(), forPlan(plan, userBasic, userPro, userEnterprise), now);
+                if (wait > 0) {
+                    userRejected.increment();
+                    reject(response, wait);
+                    return;
+                }
+                // A user over their own limit does not use up the tenant's
+                Long tenantId = principal.getTenantId();
+                wait = tenantId == null ? 0
+                        : limiter.tryAcquire(TENANT_KEY | tenantId, forPlan(plan, tenantBasic, tenantPro, tenantEnterprise), now);
+                if (wait > 0) {
+                    tenantRejected.increment();
+                    reject(response, wait);
+                    return;
+                }
+            }
+        }
+
+        filterChain.doFilter(request, response);
+    }
+
+    private static boolean isChat(String path) {
+        return path.equals("/chat/ask") || path.equals("/chat/ask/stream");
+    }
+
+    private static boolean isAuth(String path) {
+        return path.equals("/api/auth/login") || path.equals("/api/auth/signup");
+    }
+
+    private static int forPlan(String plan, int basic, int pro, int enterprise) {
+        if ("ENTERPRISE".equalsIgnoreCase(plan)) {
+            return enterprise;
+        }
+        if ("PRO".equalsIgnoreCase(plan)) {
+            return pro;
+        }
+        return basic;
+    }
+
+    private static void reject(HttpServletResponse response, long waitNanos) throws IOException {
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setIntHeader(HttpHeaders.RETRY_AFTER, (int) Math.max(1, (waitNanos + 999_999_999L) / 1_000_000_000L));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.getWriter().write(BODY);
+    }
+
+    private static Counter rejectedCounter(MeterRegistry meterRegistry, String scope) {
+        return Counter.builder("rate_limit.rejected")
+                .description("Requests refused by the token-bucket rate limiter")
+                .tag("scope", scope)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,90 @@
+package com.vinncorp.orga.security;
+
+import com.vinncorp.orga.user.User;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The authenticated user of a request together with the tenant context controllers need: ids, role and
+ * the tenant settings checked on every chat call. Built by {@link JwtAuthenticationFilter} from the
+ * token and the {@link TenantPrincipalCache}, so handlers taking
+ * {@code @AuthenticationPrincipal TenantPrincipal} need no user or tenant query.
+ * <p>
+ * Holds no password; password login still goes through {@link CustomUserDetailsService}.
+ */
+public class TenantPrincipal implements UserDetails {
+
+    private final Long userId;
+    private final String email;
+    private final User.UserRole role;
+    private final Long tenantId;
+    private final String tenantName;
+    private final boolean tenantActive;
+    private final String subscriptionPlan;
+    private final long maxMessagesPerMonth;
+    private final List<GrantedAuthority> authorities;
+
+    public TenantPrincipal(Long userId, String email, User.UserRole role, Long tenantId, String tenantName,
+                           Boolean tenantActive, String subscriptionPlan, Long maxMessagesPerMonth) {
+        this.userId = userId;
+        this.email = email;
+        this.role = role;
+        this.tenantId = tenantId;
+        this.tenantName = tenantName;
+        this.tenantActive = Boolean.TRUE.equals(tenantActive);
+        this.subscriptionPlan = subscriptionPlan;
+        this.maxMessagesPerMonth = maxMessagesPerMonth != null ? maxMessagesPerMonth : 0L;
+        this.authorities = List.of(new SimpleGrantedAuthority("ROLE_" + role.name()));
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public User.UserRole getRole() {
+        return role;
+    }
+
+    public Long getTenantId() {
+        return tenantId;
+    }
+
+    public String getTenantName() {
+        return tenantName;
+    }
+
+    public boolean isTenantActive() {
+        return tenantActive;
+    }
+
+    public String getSubscriptionPlan() {
+        return subscriptionPlan;
+    }
+
+    public long getMaxMessagesPerMonth() {
+        return maxMessagesPerMonth;
+    }
+
+    @Override
+    public Collection<? extends GrantedAuthority> getAuthorities() {
+        return authorities;
+    }
+
+    @Override
+    public String getPassword() {
+        return null;
+    }
+
+    @Override
+    public String getUsername() {
+        return email;
+    }
+}
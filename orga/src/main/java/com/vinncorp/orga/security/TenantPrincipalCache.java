@@ -0,0 +1,51 @@
+package com.vinncorp.orga.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.vinncorp.orga.user.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * {@link TenantPrincipal}s by email, loaded with one joined projection query on a miss.
+ * <p>
+ * Role, tenant and tenant settings can change while a token is still valid, so entries live for at most
+ * {@code security.principal-cache.ttl}; the admin endpoints changing them also invalidate the affected
+ * entries on this node right away. Statistics are published under {@code cache.*{cache="security.principal"}}.
+ */
+@Component
+public class TenantPrincipalCache {
+
+    private final UserRepository userRepository;
+    private final Cache<String, TenantPrincipal> principals;
+
+    public TenantPrincipalCache(UserRepository userRepository,
+                                MeterRegistry meterRegistry,
+                                @Value("${security.principal-cache.max-size:10000}") long maxSize,
+                                @Value("${security.principal-cache.ttl:PT1M}") Duration ttl) {
+        this.userRepository = userRepository;
+        this.principals = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, principals, "security.principal");
+    }
+
+    /** The principal for {@code email}, or null if there is no such user. */
+    public TenantPrincipal get(String email) {
+        return principals.get(email, key -> userRepository.findPrincipalByEmail(key).orElse(null));
+    }
+
+    public void invalidateUser(String email) {
+        principals.invalidate(email);
+    }
+
+    public void invalidateTenant(Long tenantId) {
+        principals.asMap().values().removeIf(principal -> principal.getTenantId().equals(tenantId));
+    }
+}
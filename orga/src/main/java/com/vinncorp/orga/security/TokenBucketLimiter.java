@@ -0,0 +1,109 @@
+package com.vinncorp.orga.security;
+
+/**
+ * Token buckets for many keys in fixed, preallocated memory.
+ * <p>
+ * A bucket allowing {@code perMinute} requests holds up to {@code perMinute} tokens and refills
+ * continuously at {@code perMinute} per minute; tokens are kept as fixed-point millionths in a
+ * {@code long}. Buckets live in {@code stripes} independent open-addressing tables of primitive arrays,
+ * each guarded by its own monitor, so a decision takes one short uncontended lock, a few array reads and
+ * no allocation. A key probes {@link #PROBES} consecutive slots; when all are taken by other keys the
+ * least recently used one is recycled. A recycled bucket starts full again, which only ever errs on the
+ * side of letting a request through.
+ * <p>
+ * Keys are arbitrary non-zero longs; callers fold the kind of key (user, tenant, address) into them.
+ */
+public class TokenBucketLimiter {
+
+    static final int PROBES = 8;
+    private static final long MICROS_PER_TOKEN = 1_000_000L;
+    private static final long NANOS_PER_MINUTE = 60_000_000_000L;
+
+    private static final class Stripe {
+        private final long[] keys;
+        private final long[] tokens;
+        private final long[] updatedAt;
+
+        private Stripe(int slots) {
+            keys = new long[slots];
+            tokens = new long[slots];
+            updatedAt = new long[slots];
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final int slotMask;
+
+    /**
+     * @param stripes number of independently locked tables, rounded up to a power of two
+     * @param maxKeys total bucket capacity across stripes, rounded up to a power of two per stripe
+     */
+    public TokenBucketLimiter(int stripes, int maxKeys) {
+        int stripeCount = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        int slots = Math.max(PROBES, Integer.highestOneBit(Math.max(1, maxKeys / stripeCount - 1)) << 1);
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe(slots);
+        }
+        this.stripeMask = stripeCount - 1;
+        this.slotMask = slots - 1;
+    }
+
+    /**
+     * Takes one token from {@code key}'s bucket.
+     *
+     * @return 0 if the request may proceed, otherwise the nanoseconds until a token will be available
+     */
+    public long tryAcquire(long key, int perMinute, long nowNanos) {
+        if (perMinute <= 0) {
+            return 0;
+        }
+        long hash = mix(key);
+        Stripe stripe = stripes[(int) (hash >>> 32) & stripeMask];
+        long capacity = perMinute * MICROS_PER_TOKEN;
+        synchronized (stripe) {
+            int slot = find(stripe, key, (int) hash);
+            long available;
+            if (stripe.keys[slot] != key) {
+                stripe.keys[slot] = key;
+                available = capacity;
+            } else {
+                long elapsed = Math.min(nowNanos - stripe.updatedAt[slot], NANOS_PER_MINUTE);
+                // micro-tokens refilled = elapsed * perMinute * 1e6 / 60e9
+                available = Math.min(capacity, stripe.tokens[slot] + Math.max(0, elapsed) * perMinute / 60_000L);
+            }
+            stripe.updatedAt[slot] = nowNanos;
+            if (available >= MICROS_PER_TOKEN) {
+                stripe.tokens[slot] = available - MICROS_PER_TOKEN;
+                return 0;
+            }
+            stripe.tokens[slot] = available;
+            return Math.max(1, (MICROS_PER_TOKEN - available) * 60_000L / perMinute);
+        }
+    }
+
+    // The key's slot, else an empty slot, else the least recently used slot in its probe window
+    private int find(Stripe stripe, long key, int hash) {
+        int victim = -1;
+        for (int i = 0; i < PROBES; i++) {
+            int slot = (hash + i) & slotMask;
+            long current = stripe.keys[slot];
+            if (current == key) {
+                return slot;
+            }
+            if (current == 0) {
+                return slot;
+            }
+            if (victim < 0 || stripe.updatedAt[slot] - stripe.updatedAt[victim] < 0) {
+                victim = slot;
+            }
+        }
+        return victim;
+    }
+
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+}
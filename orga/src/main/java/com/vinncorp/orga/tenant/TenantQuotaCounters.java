@@ -0,0 +1,183 @@
+package com.vinncorp.orga.tenant;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Messages sent per tenant per calendar month, readable in O(1) for quota checks.
+ * <p>
+ * Appends bump a striped in-memory counter; every {@code quota.counters.flush-interval} the pending
+ * increments are added to {@code tenant_message_counters} with an additive UPSERT, which is what keeps
+ * several orga nodes correct: each only ever adds its own increments, and the UPSERT returns the total
+ * across all of them. The usage this node reports is the last known total (re-read after at most one
+ * flush interval) plus its own unflushed increments, so other nodes' traffic shows up within about one
+ * flush interval.
+ * <p>
+ * Counters only ever move through those additive UPSERTs. Recounting the messages table on startup
+ * would add the messages other nodes committed but have not flushed yet a second time, so the current
+ * month is only backfilled from {@code messages} when {@code quota.counters.backfill.enabled} is set
+ * (e.g. on the first deploy with counters), and then only for tenants that have no counter row yet.
+ */
+@Service
+@DependsOn("entityManagerFactory")
+public class TenantQuotaCounters {
+
+    private static final Logger logger = LoggerFactory.getLogger(TenantQuotaCounters.class);
+
+    private static final String CREATE_TABLE = """
+            CREATE TABLE IF NOT EXISTS tenant_message_counters (
+                tenant_id     BIGINT    NOT NULL REFERENCES tenants(id) ON DELETE CASCADE,
+                month         DATE      NOT NULL,
+                message_count BIGINT    NOT NULL DEFAULT 0,
+                updated_at    TIMESTAMP NOT NULL DEFAULT now(),
+                PRIMARY KEY (tenant_id, month)
+            )""";
+
+    private static final String ADD = """
+            INSERT INTO tenant_message_counters (tenant_id, month, message_count, updated_at)
+            VALUES (?, ?, ?, ?)
+            ON CONFLICT (tenant_id, month)
+            DO UPDATE SET message_count = tenant_message_counters.message_count + EXCLUDED.message_count,
+                          updated_at = EXCLUDED.updated_at
+            RETURNING message_count""";
+
+    private static final String BACKFILL = """
+            INSERT INTO tenant_message_counters (tenant_id, month, message_count, updated_at)
+            SELECT u.tenant_id, ?, count(*), now()
+            FROM messages m
+            JOIN conversations c ON c.id = m.conversation_id
+            JOIN users u ON u.id = c.user_id
+            WHERE m.created_at >= ? AND m.created_at < ?
+            GROUP BY u.tenant_id
+            ON CONFLICT (tenant_id, month) DO NOTHING""";
+
+    private static final String SELECT = """
+            SELECT message_count FROM tenant_message_counters WHERE tenant_id = ? AND month = ?""";
+
+    private record CounterKey(Long tenantId, YearMonth month) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<CounterKey, LongAdder> pending = new ConcurrentHashMap<>();
+    private final Cache<CounterKey, Long> flushedTotals;
+    private final boolean backfillEnabled;
+
+    public TenantQuotaCounters(JdbcTemplate jdbcTemplate,
+                               @Value("${quota.counters.flush-interval:PT5S}") Duration flushInterval,
+                               @Value("${quota.counters.backfill.enabled:false}") boolean backfillEnabled) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.backfillEnabled = backfillEnabled;
+        this.flushedTotals = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterWrite(flushInterval)
+                .build();
+    }
+
+    /** Counts {@code messages} new messages of the tenant in the current month. */
+    public void recordMessages(Long tenantId, int messages) {
+        pending.computeIfAbsent(new CounterKey(tenantId, YearMonth.now()), key -> new LongAdder()).add(messages);
+    }
+
+    /** Messages the tenant has sent this month, as far as this node knows. */
+    public long messagesThisMonth(Long tenantId) {
+        CounterKey key = new CounterKey(tenantId, YearMonth.now());
+        long flushed = flushedTotals.get(key, this::load);
+        LongAdder unflushed = pending.get(key);
+        return flushed + (unflushed != null ? unflushed.sum() : 0);
+    }
+
+    /** Whether the tenant, allowed {@code maxMessagesPerMonth}, may send another message this month. */
+    public boolean hasQuota(Long tenantId, long maxMessagesPerMonth) {
+        return messagesThisMonth(tenantId) < maxMessagesPerMonth;
+    }
+
+    @Scheduled(fixedDelayString = "${quota.counters.flush-interval:PT5S}",
+            initialDelayString = "${quota.counters.flush-interval:PT5S}")
+    public void flush() {
+        YearMonth currentMonth = YearMonth.now();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        for (Map.Entry<CounterKey, LongAdder> entry : pending.entrySet()) {
+            CounterKey key = entry.getKey();
+            // Per-cell getAndSet: increments racing with the flush stay pending, none are lost
+            long delta = entry.getValue().sumThenReset();
+            if (delta == 0) {
+                if (!key.month().equals(currentMonth)) {
+                    pending.remove(key, entry.getValue());
+                    flushedTotals.invalidate(key);
+                }
+                continue;
+            }
+            try {
+                Long total = jdbcTemplate.queryForObject(ADD, Long.class,
+                        key.tenantId(), Date.valueOf(key.month().atDay(1)), delta, now);
+                flushedTotals.put(key, total != null ? total : 0L);
+            } catch (DataAccessException e) {
+                entry.getValue().add(delta);
+                logger.warn("Could not flush {} message(s) for tenant {}: {}", delta, key.tenantId(), e.getMessage());
+            }
+        }
+    }
+
+    @PostConstruct
+    void createTable() {
+        // Runs after Hibernate's schema update, so tenants exist to be referenced
+        try {
+            jdbcTemplate.execute(CREATE_TABLE);
+        } catch (DataAccessException e) {
+            logger.error("Could not create tenant message counters: {}", e.getMessage(), e);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillIfEnabled() {
+        if (backfillEnabled) {
+            backfill();
+        }
+    }
+
+    /** Creates the current month's counter of every tenant that has messages but no counter yet. */
+    public void backfill() {
+        YearMonth month = YearMonth.now();
+        try {
+            int tenants = jdbcTemplate.update(BACKFILL, Date.valueOf(month.atDay(1)),
+                    Timestamp.valueOf(month.atDay(1).atStartOfDay()),
+                    Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay()));
+            flushedTotals.invalidateAll();
+            logger.info("Backfilled message counters of {} tenant(s) for {}", tenants, month);
+        } catch (DataAccessException e) {
+            logger.error("Could not backfill tenant message counters: {}", e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    void flushOnShutdown() {
+        flush();
+    }
+
+    private long load(CounterKey key) {
+        List<Long> counts = jdbcTemplate.queryForList(SELECT, Long.class,
+                key.tenantId(), Date.valueOf(key.month().atDay(1)));
+        return counts.isEmpty() ? 0L : counts.get(0);
+    }
+}
@@ -7,5 +7,6 @@ import java.util.Optional;
 public interface TenantRepository extends JpaRepository<Tenant, Long> {
     Optional<Tenant> findByDomain(String domain);
     Optional<Tenant> findByName(String name);
+    long countByIsActiveTrue();
 }
 
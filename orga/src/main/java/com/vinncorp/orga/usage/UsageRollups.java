@@ -0,0 +1,175 @@
+package com.vinncorp.orga.usage;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Message counts rolled up per tenant per day, per user per day and per tenant per hour.
+ * <p>
+ * The rollups are maintained in the transaction that inserts the messages, by one statement that
+ * upserts all three tables, so they are exactly as committed as the messages they count. Admin
+ * dashboards read them with grouped queries touching at most a few hundred rows, however large the
+ * messages table grows. {@code db/migration/usage_rollups.sql} backfills them from existing messages.
+ */
+@Repository
+@DependsOn("entityManagerFactory")
+public class UsageRollups {
+
+    public enum Granularity {
+        DAY, HOUR
+    }
+
+    /** One bucket of a usage histogram: the start of the day or hour and the messages in it. */
+    public record UsagePoint(LocalDateTime bucket, long messages) {
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(UsageRollups.class);
+
+    private static final String[] CREATE_TABLES = {
+            """
+            CREATE TABLE IF NOT EXISTS tenant_usage_daily (
+                tenant_id     BIGINT NOT NULL REFERENCES tenants(id) ON DELETE CASCADE,
+                day           DATE   NOT NULL,
+                message_count BIGINT NOT NULL DEFAULT 0,
+                PRIMARY KEY (tenant_id, day)
+            )""",
+            """
+            CREATE TABLE IF NOT EXISTS user_usage_daily (
+                user_id       BIGINT NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+                day           DATE   NOT NULL,
+                tenant_id     BIGINT NOT NULL,
+                message_count BIGINT NOT NULL DEFAULT 0,
+                PRIMARY KEY (user_id, day)
+            )""",
+            "CREATE INDEX IF NOT EXISTS idx_user_usage_daily_tenant_day ON user_usage_daily (tenant_id, day)",
+            """
+            CREATE TABLE IF NOT EXISTS tenant_usage_hourly (
+                tenant_id     BIGINT    NOT NULL REFERENCES tenants(id) ON DELETE CASCADE,
+                hour          TIMESTAMP NOT NULL,
+                message_count BIGINT    NOT NULL DEFAULT 0,
+                PRIMARY KEY (tenant_id, hour)
+            )"""
+    };
+
+    // Each message is bucketed by its own timestamp, so a turn straddling midnight lands in both days
+    private static final String RECORD_TURN = """
+            WITH msgs(ts) AS (
+                VALUES (CAST(:askedAt AS timestamp)), (CAST(:answeredAt AS timestamp))
+            ), tenant_daily AS (
+                INSERT INTO tenant_usage_daily (tenant_id, day, message_count)
+                SELECT :tenantId, CAST(ts AS date), count(*) FROM msgs GROUP BY CAST(ts AS date)
+                ON CONFLICT (tenant_id, day)
+                DO UPDATE SET message_count = tenant_usage_daily.message_count + EXCLUDED.message_count
+            ), user_daily AS (
+                INSERT INTO user_usage_daily (user_id, day, tenant_id, message_count)
+                SELECT :userId, CAST(ts AS date), :tenantId, count(*) FROM msgs GROUP BY CAST(ts AS date)
+                ON CONFLICT (user_id, day)
+                DO UPDATE SET message_count = user_usage_daily.message_count + EXCLUDED.message_count
+            )
+            INSERT INTO tenant_usage_hourly (tenant_id, hour, message_count)
+            SELECT :tenantId, date_trunc('hour', ts), count(*) FROM msgs GROUP BY date_trunc('hour', ts)
+            ON CONFLICT (tenant_id, hour)
+            DO UPDATE SET message_count = tenant_usage_hourly.message_count + EXCLUDED.message_count""";
+
+    private static final String USER_TOTALS = """
+            SELECT user_id, SUM(message_count) FROM user_usage_daily
+            WHERE tenant_id = ? AND day >= ? AND day < ?
+            GROUP BY user_id""";
+
+    private static final String DAILY_SERIES = """
+            SELECT day, message_count FROM tenant_usage_daily
+            WHERE tenant_id = ? AND day >= ? AND day < ?""";
+
+    private static final String HOURLY_SERIES = """
+            SELECT hour, message_count FROM tenant_usage_hourly
+            WHERE tenant_id = ? AND hour >= ? AND hour < ?""";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public UsageRollups(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    void createTables() {
+        // Runs after Hibernate's schema update, so tenants and users exist to be referenced
+        try {
+            for (String ddl : CREATE_TABLES) {
+                jdbcTemplate.execute(ddl);
+            }
+        } catch (DataAccessException e) {
+            logger.error("Could not create usage rollup tables: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Counts a question asked at {@code askedAt} and its reply at {@code answeredAt}. Must run in the
+     * transaction inserting the two messages.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordTurn(Long tenantId, Long userId, LocalDateTime askedAt, LocalDateTime answeredAt) {
+        entityManager.createNativeQuery(RECORD_TURN)
+                .setParameter("askedAt", askedAt)
+                .setParameter("answeredAt", answeredAt)
+                .setParameter("tenantId", tenantId)
+                .setParameter("userId", userId)
+                .executeUpdate();
+    }
+
+    /** Messages per user of the tenant in {@code [from, to)}; users without messages are absent. */
+    public Map<Long, Long> messagesByUser(Long tenantId, LocalDate from, LocalDate to) {
+        Map<Long, Long> totals = new HashMap<>();
+        jdbcTemplate.query(USER_TOTALS, rs -> {
+            totals.put(rs.getLong(1), rs.getLong(2));
+        }, tenantId, Date.valueOf(from), Date.valueOf(to));
+        return totals;
+    }
+
+    /**
+     * The tenant's messages per day or hour in {@code [from, to)}, one point per bucket including empty
+     * ones. {@code from} is truncated to the start of its bucket.
+     */
+    public List<UsagePoint> series(Long tenantId, Granularity granularity, LocalDateTime from, LocalDateTime to) {
+        ChronoUnit unit = granularity == Granularity.DAY ? ChronoUnit.DAYS : ChronoUnit.HOURS;
+        LocalDateTime start = from.truncatedTo(unit);
+
+        Map<LocalDateTime, Long> counts = new HashMap<>();
+        if (granularity == Granularity.DAY) {
+            jdbcTemplate.query(DAILY_SERIES, rs -> {
+                counts.put(rs.getDate(1).toLocalDate().atStartOfDay(), rs.getLong(2));
+            }, tenantId, Date.valueOf(start.toLocalDate()), Date.valueOf(to.toLocalDate().plusDays(1)));
+        } else {
+            jdbcTemplate.query(HOURLY_SERIES, rs -> {
+                counts.put(rs.getTimestamp(1).toLocalDateTime(), rs.getLong(2));
+            }, tenantId, Timestamp.valueOf(start), Timestamp.valueOf(to));
+        }
+
+        List<UsagePoint> points = new ArrayList<>();
+        for (LocalDateTime bucket = start; bucket.isBefore(to); bucket = bucket.plus(1, unit)) {
+            points.add(new UsagePoint(bucket, counts.getOrDefault(bucket, 0L)));
+        }
+        return points;
+    }
+}
@@ -1,12 +1,41 @@
 package com.vinncorp.orga.user;
 
+import com.vinncorp.orga.security.TenantPrincipal;
+import com.vinncorp.orga.tenant.Tenant;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByEmail(String email);
     boolean existsByEmail(String email);
-}
+    long countByTenant(Tenant tenant);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.passwordHash = :passwordHash WHERE u.email = :email")
+    int updatePasswordHash(@Param("email") String email, @Param("passwordHash") String passwordHash);
+
+    // Read-only projections: only the selected columns, no managed entities or lazy proxies
 
+    @Transactional(readOnly = true)
+    @Query("SELECT new com.vinncorp.orga.security.TenantPrincipal(u.id, u.email, u.role, t.id, t.name,"
+            + " t.isActive, t.subscriptionPlan, t.maxMessagesPerMonth)"
+            + " FROM User u JOIN u.tenant t WHERE u.email = :email")
+    Optional<TenantPrincipal> findPrincipalByEmail(@Param("email") String email);
 
+    @Transactional(readOnly = true)
+    @Query("SELECT new com.vinncorp.orga.user.UserSummary(u.id, u.email, u.fullName, u.role)"
+            + " FROM User u WHERE u.tenant.id = :tenantId ORDER BY u.id")
+    List<UserSummary> findSummariesByTenantId(@Param("tenantId") Long tenantId);
+
+    @Transactional(readOnly = true)
+    @Query("SELECT new com.vinncorp.orga.user.UserTenantSummary(u.id, u.email, u.role, t.id, t.name)"
+            + " FROM User u JOIN u.tenant t ORDER BY u.id")
+    List<UserTenantSummary> findAllWithTenant();
+}
@@ -0,0 +1,5 @@
+package com.vinncorp.orga.user;
+
+/** Read-only row of a tenant's user list. */
+public record UserSummary(Long id, String email, String fullName, User.UserRole role) {
+}
@@ -0,0 +1,5 @@
+package com.vinncorp.orga.user;
+
+/** Read-only row of the platform-wide user list, with the user's tenant joined in. */
+public record UserTenantSummary(Long id, String email, User.UserRole role, Long tenantId, String tenantName) {
+}
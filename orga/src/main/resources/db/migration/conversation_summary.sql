@@ -0,0 +1,21 @@
+-- Sidebar summary columns on conversations. Hibernate adds them on startup when missing; after that
+-- ConversationSummaryBackfill fills them for existing conversations in batches in the background.
+-- The UPDATE below does the same in one statement, for running the backfill by hand instead
+-- (set chat.summary-backfill.enabled=false).
+
+ALTER TABLE conversations ADD COLUMN IF NOT EXISTS message_count BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE conversations ADD COLUMN IF NOT EXISTS last_message_at TIMESTAMP;
+ALTER TABLE conversations ADD COLUMN IF NOT EXISTS last_message_preview VARCHAR(120);
+
+UPDATE conversations c
+SET message_count = s.message_count,
+    last_message_at = s.created_at,
+    last_message_preview = left(btrim(regexp_replace(s.content, '\s+', ' ', 'g')), 120)
+FROM (
+    SELECT DISTINCT ON (m.conversation_id)
+           m.conversation_id, m.created_at, m.content,
+           count(*) OVER (PARTITION BY m.conversation_id) AS message_count
+    FROM messages m
+    ORDER BY m.conversation_id, m.created_at DESC, m.id DESC
+) s
+WHERE c.id = s.conversation_id AND c.last_message_at IS NULL;
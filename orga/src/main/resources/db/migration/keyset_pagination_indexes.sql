@@ -0,0 +1,9 @@
+-- Indexes behind the keyset-paginated conversation list and message history. Hibernate creates them
+-- on startup when missing, which locks the tables while it builds them; on large existing databases
+-- run this first so they are built without blocking writes (CONCURRENTLY cannot run in a transaction).
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_conversations_user_updated
+    ON conversations (user_id, updated_at, id);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_messages_conversation_created
+    ON messages (conversation_id, created_at, id);
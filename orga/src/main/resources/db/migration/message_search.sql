@@ -0,0 +1,11 @@
+-- Full-text search over messages (GET /chat/search). Until the column exists, search answers 503 and
+-- the rest of the application runs normally (chat.search.create-schema adds it on startup instead, for
+-- new or small databases). Adding a stored generated column rewrites the messages table under an
+-- exclusive lock, so run it in a maintenance window. The index is built CONCURRENTLY, so run that
+-- statement outside a transaction.
+
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS search_vector tsvector
+    GENERATED ALWAYS AS (to_tsvector('simple', content)) STORED;
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_messages_search
+    ON messages USING gin (search_vector);
@@ -0,0 +1,14 @@
+-- Message ids are now allocated by Hibernate in blocks of 50 from messages_id_seq, so chat turns can be
+-- inserted as JDBC batches. Run this once on databases created while messages.id was an IDENTITY column.
+
+DO $$
+BEGIN
+    IF EXISTS (
+        SELECT 1 FROM information_schema.columns
+        WHERE table_name = 'messages' AND column_name = 'id' AND is_identity = 'YES'
+    ) THEN
+        ALTER TABLE messages ALTER COLUMN id SET INCREMENT BY 50;
+    ELSE
+        ALTER SEQUENCE IF EXISTS messages_id_seq INCREMENT BY 50;
+    END IF;
+END $$;
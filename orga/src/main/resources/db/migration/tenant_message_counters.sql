@@ -0,0 +1,16 @@
+-- Messages per tenant per calendar month, maintained by TenantQuotaCounters: each orga node adds its
+-- increments with an UPSERT every few seconds. The application also creates this table on startup if it
+-- is missing. With quota.counters.backfill.enabled the current month is counted from the messages table
+-- for tenants without a counter, using the created_at index below (Hibernate creates it on startup when
+-- missing, which locks messages while it builds; on large existing databases run this first).
+
+CREATE TABLE IF NOT EXISTS tenant_message_counters (
+    tenant_id     BIGINT    NOT NULL REFERENCES tenants(id) ON DELETE CASCADE,
+    month         DATE      NOT NULL,
+    message_count BIGINT    NOT NULL DEFAULT 0,
+    updated_at    TIMESTAMP NOT NULL DEFAULT now(),
+    PRIMARY KEY (tenant_id, month)
+);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_messages_created_at
+    ON messages (created_at);
@@ -0,0 +1,56 @@
+-- Message counts per tenant per day, per user per day and per tenant per hour, maintained by
+-- UsageRollups in the same transaction that inserts the messages. The application creates the tables
+-- on startup if they are missing; the backfill below fills them from existing messages and is safe to
+-- rerun (it never lowers a count).
+
+CREATE TABLE IF NOT EXISTS tenant_usage_daily (
+    tenant_id     BIGINT NOT NULL REFERENCES tenants(id) ON DELETE CASCADE,
+    day           DATE   NOT NULL,
+    message_count BIGINT NOT NULL DEFAULT 0,
+    PRIMARY KEY (tenant_id, day)
+);
+
+CREATE TABLE IF NOT EXISTS user_usage_daily (
+    user_id       BIGINT NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    day           DATE   NOT NULL,
+    tenant_id     BIGINT NOT NULL,
+    message_count BIGINT NOT NULL DEFAULT 0,
+    PRIMARY KEY (user_id, day)
+);
+
+CREATE INDEX IF NOT EXISTS idx_user_usage_daily_tenant_day ON user_usage_daily (tenant_id, day);
+
+CREATE TABLE IF NOT EXISTS tenant_usage_hourly (
+    tenant_id     BIGINT    NOT NULL REFERENCES tenants(id) ON DELETE CASCADE,
+    hour          TIMESTAMP NOT NULL,
+    message_count BIGINT    NOT NULL DEFAULT 0,
+    PRIMARY KEY (tenant_id, hour)
+);
+
+-- Backfill
+INSERT INTO user_usage_daily (user_id, day, tenant_id, message_count)
+SELECT c.user_id, CAST(m.created_at AS date), u.tenant_id, count(*)
+FROM messages m
+JOIN conversations c ON c.id = m.conversation_id
+JOIN users u ON u.id = c.user_id
+GROUP BY c.user_id, CAST(m.created_at AS date), u.tenant_id
+ON CONFLICT (user_id, day)
+DO UPDATE SET message_count = GREATEST(user_usage_daily.message_count, EXCLUDED.message_count);
+
+INSERT INTO tenant_usage_daily (tenant_id, day, message_count)
+SELECT u.tenant_id, CAST(m.created_at AS date), count(*)
+FROM messages m
+JOIN conversations c ON c.id = m.conversation_id
+JOIN users u ON u.id = c.user_id
+GROUP BY u.tenant_id, CAST(m.created_at AS date)
+ON CONFLICT (tenant_id, day)
+DO UPDATE SET message_count = GREATEST(tenant_usage_daily.message_count, EXCLUDED.message_count);
+
+INSERT INTO tenant_usage_hourly (tenant_id, hour, message_count)
+SELECT u.tenant_id, date_trunc('hour', m.created_at), count(*)
+FROM messages m
+JOIN conversations c ON c.id = m.conversation_id
+JOIN users u ON u.id = c.user_id
+GROUP BY u.tenant_id, date_trunc('hour', m.created_at)
+ON CONFLICT (tenant_id, hour)
+DO UPDATE SET message_count = GREATEST(tenant_usage_hourly.message_count, EXCLUDED.message_count);
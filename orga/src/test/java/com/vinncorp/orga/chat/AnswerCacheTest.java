@@ -0,0 +1,103 @@
+package com.vinncorp.orga.chat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AnswerCacheTest {
+
+    private static final List<ChatTurn> HISTORY = List.of(
+            new ChatTurn(Message.MessageRole.USER, "How do I book leave?"),
+            new ChatTurn(Message.MessageRole.BOT, "Through the HR portal."));
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicLong now = new AtomicLong();
+    // Fresh for an hour, kept as a fallback for a day
+    private final AnswerCache cache = new AnswerCache(meterRegistry, true, Duration.ofHours(1), Duration.ofDays(1),
+            1 << 20, now::get);
+
+    @Test
+    void sharesAnEntryBetweenTriviallyDifferentSpellings() {
+        AnswerCache.Key key = cache.keyFor(1L, "  How do I   reset my password?! ", HISTORY);
+        assertThat(key).isEqualTo(cache.keyFor(1L, "how do i reset my password", HISTORY));
+        assertThat(key.question()).isEqualTo("how do i reset my password");
+
+        cache.put(key, "Use the login page.");
+        assertThat(cache.getFresh(cache.keyFor(1L, "HOW DO I RESET MY PASSWORD.", HISTORY)))
+                .contains("Use the login page.");
+    }
+
+    @Test
+    void keysByTenantQuestionAndHistory() {
+        AnswerCache.Key key = cache.keyFor(1L, "Where is the office?", HISTORY);
+        cache.put(key, "Downtown.");
+
+        assertThat(cache.getFresh(cache.keyFor(2L, "Where is the office?", HISTORY))).isEmpty();
+        assertThat(cache.getFresh(cache.keyFor(1L, "Where is the canteen?", HISTORY))).isEmpty();
+        assertThat(cache.getFresh(cache.keyFor(1L, "Where is the office?", List.of()))).isEmpty();
+        // Same words, different speaker
+        List<ChatTurn> swapped = List.of(
+                new ChatTurn(Message.MessageRole.BOT, "How do I book leave?"),
+                new ChatTurn(Message.MessageRole.USER, "Through the HR portal."));
+        assertThat(cache.getFresh(cache.keyFor(1L, "Where is the office?", swapped))).isEmpty();
+        // Turn boundaries count: "ab" + "c" is not "a" + "bc"
+        assertThat(AnswerCache.fingerprint(List.of(user("ab"), user("c"))))
+                .isNotEqualTo(AnswerCache.fingerprint(List.of(user("a"), user("bc"))));
+
+        assertThat(cache.getFresh(cache.keyFor(1L, "where is the office", HISTORY))).contains("Downtown.");
+    }
+
+    @Test
+    void servesAnAnswerPastItsTtlOnlyAsAStaleFallback() {
+        AnswerCache.Key key = cache.keyFor(1L, "What are the opening hours?", HISTORY);
+        cache.put(key, "9 to 5.");
+
+        now.addAndGet(Duration.ofMinutes(59).toNanos());
+        assertThat(cache.getFresh(key)).contains("9 to 5.");
+        now.addAndGet(Duration.ofMinutes(1).toNanos());
+        assertThat(cache.getFresh(key)).isEmpty();
+        assertThat(cache.getStale(key)).contains("9 to 5.");
+
+        now.addAndGet(Duration.ofHours(23).toNanos());
+        assertThat(cache.getStale(key)).isEmpty();
+
+        assertThat(lookups("hit")).isEqualTo(1);
+        assertThat(lookups("miss")).isEqualTo(1);
+        assertThat(lookups("stale")).isEqualTo(1);
+    }
+
+    @Test
+    void dropsOnlyTheInvalidatedTenantsAnswers() {
+        cache.put(cache.keyFor(1L, "a", HISTORY), "A");
+        cache.put(cache.keyFor(1L, "b", HISTORY), "B");
+        cache.put(cache.keyFor(2L, "a", HISTORY), "A");
+
+        assertThat(cache.invalidateTenant(1L)).isEqualTo(2);
+        assertThat(cache.getStale(cache.keyFor(1L, "a", HISTORY))).isEmpty();
+        assertThat(cache.getFresh(cache.keyFor(2L, "a", HISTORY))).contains("A");
+    }
+
+    @Test
+    void cachesNothingWhenDisabled() {
+        AnswerCache disabled = new AnswerCache(meterRegistry, false, Duration.ofHours(1), Duration.ofDays(1),
+                1 << 20, now::get);
+        AnswerCache.Key key = disabled.keyFor(1L, "Anything?", HISTORY);
+        disabled.put(key, "Nothing.");
+
+        assertThat(disabled.getFresh(key)).isEmpty();
+        assertThat(disabled.getStale(key)).isEmpty();
+    }
+
+    private static ChatTurn user(String content) {
+        return new ChatTurn(Message.MessageRole.USER, content);
+    }
+
+    private double lookups(String result) {
+        return meterRegistry.get("chat.answer.cache").tag("result", result).counter().count();
+    }
+}
@@ -0,0 +1,110 @@
+package com.vinncorp.orga.chat;
+
+import com.vinncorp.orga.chatbot.StubChatbotServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChatbotSessionsTest {
+
+    private static final long CONVERSATION_ID = 42L;
+
+    private final RestTemplate restTemplate = new RestTemplate();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<ChatTurn> history = new ArrayList<>();
+    private StubChatbotServer upstream;
+    private ChatbotSessions sessions;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        upstream = new StubChatbotServer();
+        sessions = new ChatbotSessions(meterRegistry, ChatbotSessions.PROTOCOL_DELTA, 20, Duration.ofMinutes(30));
+    }
+
+    @AfterEach
+    void tearDown() {
+        upstream.close();
+    }
+
+    @Test
+    void sendsOnlyNewTurnsOnceTheSessionIsEstablished() {
+        assertThat(ask("first question")).isEqualTo("echo: first question (history 0)");
+        assertThat(ask("second question")).isEqualTo("echo: second question (history 2)");
+        assertThat(ask("third question")).isEqualTo("echo: third question (history 4)");
+
+        assertThat(upstream.session(CONVERSATION_ID)).hasSize(6);
+        assertThat(requests("full")).isEqualTo(1);
+        assertThat(requests("delta")).isEqualTo(2);
+        // Delta requests do not grow with the conversation
+        List<Integer> bytes = upstream.requestBytes();
+        assertThat(bytes.get(2) - bytes.get(1)).isEqualTo("third".length() - "second".length());
+    }
+
+    @Test
+    void catchesTheSessionUpOnRepliesTheChatbotDidNotProduce() {
+        ask("first question");
+        // e.g. served from the answer cache: saved locally, never sent upstream
+        ChatbotSessions.Call cached = open("cached question");
+        save(cached, "cached question", "cached answer");
+
+        assertThat(ask("next question")).isEqualTo("echo: next question (history 4)");
+        assertThat(upstream.session(CONVERSATION_ID)).extracting(turn -> turn.get("content"))
+                .containsExactly("first question", "echo: first question (history 0)",
+                        "cached question", "cached answer",
+                        "next question", "echo: next question (history 4)");
+        assertThat(requests("delta")).isEqualTo(1);
+    }
+
+    @Test
+    void resyncsWithTheFullWindowWhenTheUpstreamLostTheSession() {
+        ask("first question");
+        upstream.reset();
+
+        assertThat(ask("second question")).isEqualTo("echo: second question (history 2)");
+        assertThat(requests("conflict")).isEqualTo(1);
+        assertThat(ask("third question")).isEqualTo("echo: third question (history 4)");
+        assertThat(requests("delta")).isEqualTo(2);
+    }
+
+    @Test
+    void protocolOneAlwaysSendsTheWholeWindow() {
+        sessions = new ChatbotSessions(meterRegistry, 1, 20, Duration.ofMinutes(30));
+        ask("first question");
+        assertThat(ask("second question")).isEqualTo("echo: second question (history 2)");
+        assertThat(upstream.session(CONVERSATION_ID)).isNull();
+    }
+
+    private String ask(String question) {
+        ChatbotSessions.Call call = open(question);
+        String reply = sessions.ask(call, payload -> {
+            Map<?, ?> response = restTemplate.postForObject(upstream.baseUrl() + "/chat", payload, Map.class);
+            return String.valueOf(response.get("reply"));
+        });
+        save(call, question, reply);
+        return reply;
+    }
+
+    private ChatbotSessions.Call open(String question) {
+        return sessions.open(CONVERSATION_ID, question,
+                new ConversationContextAssembler.HistoryWindow(List.copyOf(history), 0, 0), 2000);
+    }
+
+    private void save(ChatbotSessions.Call call, String question, String reply) {
+        history.add(new ChatTurn(Message.MessageRole.USER, question));
+        history.add(new ChatTurn(Message.MessageRole.BOT, reply));
+        sessions.complete(call, reply);
+    }
+
+    private double requests(String mode) {
+        return meterRegistry.counter("chatbot.session.requests", "mode", mode).count();
+    }
+}
@@ -0,0 +1,104 @@
+package com.vinncorp.orga.chat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConversationContextAssemblerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ConversationContextAssembler assembler = new ConversationContextAssembler(meterRegistry);
+
+    ConversationContextAssemblerTest() {
+        ReflectionTestUtils.setField(assembler, "basicBudget", 100);
+        ReflectionTestUtils.setField(assembler, "proBudget", 300);
+        ReflectionTestUtils.setField(assembler, "enterpriseBudget", 1000);
+    }
+
+    @Test
+    void estimatesTokensFromCharactersWordsAndNonAsciiText() {
+        assertThat(TokenEstimator.estimate(null)).isZero();
+        assertThat(TokenEstimator.estimate("")).isZero();
+        // 35 characters, 2 words: four characters a token
+        assertThat(TokenEstimator.estimate("internationalization considerations")).isEqualTo(9);
+        // Short words and punctuation cost a token each
+        assertThat(TokenEstimator.estimate("a, b, c")).isEqualTo(5);
+        assertThat(TokenEstimator.estimate("日本語")).isEqualTo(3);
+        // A surrogate pair is one character
+        assertThat(TokenEstimator.estimate("ok 😀")).isEqualTo(2);
+    }
+
+    @Test
+    void keepsTheNewestTurnsThatFitTheBudget() {
+        List<ChatTurn> history = List.of(turn("a", 30), turn("b", 30), turn("c", 30), turn("d", 30), turn("e", 30));
+
+        // 10 tokens left after three turns is too little for a truncated fourth
+        ConversationContextAssembler.HistoryWindow window = assembler.assemble(history, "BASIC");
+        assertThat(window.turns()).containsExactlyElementsOf(history.subList(2, 5));
+        assertThat(window.tokensSent()).isEqualTo(90);
+        assertThat(window.tokensSaved()).isEqualTo(60);
+
+        assertThat(assembler.assemble(history, "pro").turns()).containsExactlyElementsOf(history);
+    }
+
+    @Test
+    void truncatesTheFirstTurnThatDoesNotFitWhenEnoughBudgetIsLeft() {
+        // 100 - 68 leaves 32 tokens, the least worth a truncated turn
+        List<ChatTurn> history = List.of(turn("a", 20), turn("b", 50), turn("c", 68));
+        ConversationContextAssembler.HistoryWindow window = assembler.assemble(history, "BASIC");
+
+        assertThat(window.turns()).hasSize(2);
+        ChatTurn truncated = window.turns().get(0);
+        assertThat(truncated.role()).isEqualTo(Message.MessageRole.USER);
+        assertThat(truncated.content()).startsWith("b b b").endsWith(" [...]");
+        assertThat(TokenEstimator.estimate(truncated.content())).isLessThanOrEqualTo(32);
+        assertThat(window.turns().get(1)).isEqualTo(history.get(2));
+        // Older turns are dropped even though the oldest would fit what is left
+        assertThat(window.tokensSent()).isEqualTo(68 + TokenEstimator.estimate(truncated.content()));
+        assertThat(window.tokensSent() + window.tokensSaved()).isEqualTo(138);
+    }
+
+    @Test
+    void dropsTheFirstTurnThatDoesNotFitWhenTooLittleBudgetIsLeft() {
+        // 100 - 69 leaves 31 tokens
+        List<ChatTurn> history = List.of(turn("a", 20), turn("b", 50), turn("c", 69));
+        ConversationContextAssembler.HistoryWindow window = assembler.assemble(history, "BASIC");
+
+        assertThat(window.turns()).containsExactly(history.get(2));
+        assertThat(window.tokensSent()).isEqualTo(69);
+        assertThat(window.tokensSaved()).isEqualTo(70);
+    }
+
+    @Test
+    void countsTokensSentAndSavedPerPlan() {
+        List<ChatTurn> history = List.of(turn("a", 80), turn("b", 80));
+        assembler.assemble(history, "BASIC");
+        assembler.assemble(history, "basic");
+        assembler.assemble(history, "ENTERPRISE");
+
+        assertThat(tokens("BASIC", "sent")).isEqualTo(160);
+        assertThat(tokens("BASIC", "saved")).isEqualTo(160);
+        assertThat(tokens("ENTERPRISE", "sent")).isEqualTo(160);
+        assertThat(tokens("ENTERPRISE", "saved")).isZero();
+    }
+
+    // A message estimated at exactly that many tokens: that many one-letter words
+    private static ChatTurn turn(String word, int tokens) {
+        List<String> words = new ArrayList<>(tokens);
+        for (int i = 0; i < tokens; i++) {
+            words.add(word);
+        }
+        ChatTurn turn = new ChatTurn(Message.MessageRole.USER, String.join(" ", words));
+        assertThat(TokenEstimator.estimate(turn.content())).isEqualTo(tokens);
+        return turn;
+    }
+
+    private double tokens(String plan, String kind) {
+        return meterRegistry.get("chat.history.tokens").tag("plan", plan).tag("kind", kind).counter().count();
+    }
+}
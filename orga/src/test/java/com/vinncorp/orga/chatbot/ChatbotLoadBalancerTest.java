@@ -0,0 +1,149 @@
+package com.vinncorp.orga.chatbot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChatbotLoadBalancerTest {
+
+    private static final String URLS = "http://a, http://b, http://c";
+
+    private final AtomicLong now = new AtomicLong(Duration.ofHours(1).toNanos());
+
+    @Test
+    void sendsLessTrafficToASlowReplica() {
+        ChatbotLoadBalancer balancer = balancer(URLS, false);
+        ChatbotEndpoint slow = endpoint(balancer, "http://c");
+        for (ChatbotEndpoint endpoint : balancer.getEndpoints()) {
+            long latency = endpoint == slow ? Duration.ofSeconds(5).toNanos() : Duration.ofMillis(200).toNanos();
+            for (int i = 0; i < 10; i++) {
+                balancer.succeeded(endpoint, latency);
+            }
+        }
+
+        // Of any two replicas at least one is fast, and the fast one wins
+        Map<ChatbotEndpoint, Integer> picks = picks(balancer, 300);
+        assertThat(picks.getOrDefault(slow, 0)).isZero();
+        assertThat(picks.get(endpoint(balancer, "http://a"))).isGreaterThan(50);
+        assertThat(picks.get(endpoint(balancer, "http://b"))).isGreaterThan(50);
+    }
+
+    @Test
+    void weighsLatencyByOutstandingRequests() {
+        ChatbotLoadBalancer balancer = balancer("http://a, http://b", false);
+        ChatbotEndpoint busy = endpoint(balancer, "http://a");
+        balancer.started(busy);
+
+        assertThat(picks(balancer, 20)).containsOnlyKeys(endpoint(balancer, "http://b"));
+        balancer.finished(busy);
+        assertThat(busy.getOutstanding()).isZero();
+    }
+
+    @Test
+    void skipsAnEjectedReplicaUntilItsEjectionRunsOut() {
+        ChatbotLoadBalancer balancer = balancer("http://a, http://b", false);
+        ChatbotEndpoint failing = endpoint(balancer, "http://a");
+        ChatbotEndpoint healthy = endpoint(balancer, "http://b");
+        balancer.succeeded(healthy, Duration.ofSeconds(2).toNanos());
+
+        balancer.failed(failing);
+        assertThat(failing.isEjected(now.get())).isFalse();
+        balancer.failed(failing);
+        assertThat(failing.isEjected(now.get())).isTrue();
+        assertThat(failing.getEwmaLatencyMillis()).isEqualTo(10_000);
+
+        now.addAndGet(Duration.ofSeconds(29).toNanos());
+        assertThat(picks(balancer, 20)).containsOnlyKeys(healthy);
+
+        // Back with its initial latency, which beats the healthy replica's 1.2 s
+        now.addAndGet(Duration.ofSeconds(1).toNanos());
+        assertThat(picks(balancer, 20)).containsOnlyKeys(failing);
+        assertThat(failing.getEwmaLatencyMillis()).isEqualTo(1_000);
+    }
+
+    @Test
+    void usesTheReplicaDueBackFirstWhenAllAreEjected() {
+        ChatbotLoadBalancer balancer = balancer("http://a, http://b", false);
+        ChatbotEndpoint first = endpoint(balancer, "http://a");
+        ChatbotEndpoint second = endpoint(balancer, "http://b");
+        balancer.failed(first);
+        balancer.failed(first);
+        now.addAndGet(Duration.ofSeconds(1).toNanos());
+        balancer.failed(second);
+        balancer.failed(second);
+
+        assertThat(balancer.choose(null)).isSameAs(first);
+        assertThat(balancer.choose(first)).isSameAs(second);
+    }
+
+    @Test
+    void hedgesOnlyOnceThereAreEnoughSamples() {
+        ChatbotLoadBalancer balancer = balancer(URLS, true);
+        ChatbotEndpoint endpoint = endpoint(balancer, "http://a");
+        for (int i = 1; i < 20; i++) {
+            balancer.succeeded(endpoint, Duration.ofMillis(100L * i).toNanos());
+        }
+        assertThat(balancer.hedgeDelayMillis()).isEqualTo(-1);
+
+        balancer.succeeded(endpoint, Duration.ofSeconds(2).toNanos());
+        // The 95th percentile of 100 ms .. 1.9 s and 2 s
+        assertThat(balancer.hedgeDelayMillis()).isEqualTo(1_900);
+    }
+
+    @Test
+    void keepsHedgesWithinTheBudget() {
+        ChatbotLoadBalancer balancer = balancer(URLS, true);
+        ChatbotEndpoint endpoint = endpoint(balancer, "http://a");
+        // The budget starts full, at 5 hedges
+        int hedges = 0;
+        while (balancer.tryAcquireHedge()) {
+            hedges++;
+        }
+        assertThat(hedges).isEqualTo(5);
+
+        // then earns 5% of a hedge per call
+        hedges = 0;
+        for (int i = 0; i < 200; i++) {
+            balancer.started(endpoint);
+            if (balancer.tryAcquireHedge()) {
+                hedges++;
+            }
+            balancer.finished(endpoint);
+        }
+        assertThat(hedges).isBetween(9, 10);
+    }
+
+    @Test
+    void neverHedgesASingleReplica() {
+        ChatbotLoadBalancer balancer = balancer("http://a", true);
+        assertThat(balancer.isHedgingEnabled()).isFalse();
+        for (int i = 0; i < 50; i++) {
+            balancer.succeeded(balancer.choose(null), Duration.ofSeconds(1).toNanos());
+        }
+        assertThat(balancer.hedgeDelayMillis()).isEqualTo(-1);
+    }
+
+    // EWMA alpha 0.2, initial latency 1 s, ejected for 30 s after 2 failures, hedging at the p95 (at least 1 s)
+    private ChatbotLoadBalancer balancer(String urls, boolean hedging) {
+        return new ChatbotLoadBalancer(new SimpleMeterRegistry(), urls, "", 0.2, Duration.ofSeconds(1), 2,
+                Duration.ofSeconds(30), hedging, 0.95, Duration.ofSeconds(1), 0.05, now::get);
+    }
+
+    private static ChatbotEndpoint endpoint(ChatbotLoadBalancer balancer, String url) {
+        return balancer.getEndpoints().stream().filter(e -> e.getBaseUrl().equals(url)).findFirst().orElseThrow();
+    }
+
+    private static Map<ChatbotEndpoint, Integer> picks(ChatbotLoadBalancer balancer, int count) {
+        Map<ChatbotEndpoint, Integer> picks = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            picks.merge(balancer.choose(null), 1, Integer::sum);
+        }
+        return picks;
+    }
+}
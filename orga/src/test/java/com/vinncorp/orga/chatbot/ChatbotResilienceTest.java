@@ -0,0 +1,120 @@
+package com.vinncorp.orga.chatbot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChatbotResilienceTest {
+
+    private static final ChatbotCaller CALLER = new ChatbotCaller(1L, "BASIC");
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void stopsRetryingOnceTheBudgetIsSpent() {
+        // 2 slots x 0.5 = a budget of one retry, refilled by half a retry per call
+        ChatbotResilience resilience = resilience(100, Duration.ZERO, 3, 0.5);
+        AtomicInteger attempts = new AtomicInteger();
+        Supplier<String> unavailable = () -> {
+            attempts.incrementAndGet();
+            throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+        };
+
+        assertThat(attemptsOf(resilience, unavailable, attempts)).isEqualTo(2);
+        assertThat(attemptsOf(resilience, unavailable, attempts)).isEqualTo(1);
+        assertThat(attemptsOf(resilience, unavailable, attempts)).isEqualTo(2);
+        assertThat(meterRegistry.get("chatbot.retries").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void retriesTransientFailuresOnly() {
+        ChatbotResilience resilience = resilience(100, Duration.ZERO, 3, 0.5);
+        AtomicInteger attempts = new AtomicInteger();
+        assertThat(attemptsOf(resilience, () -> {
+            attempts.incrementAndGet();
+            throw new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR);
+        }, attempts)).isEqualTo(1);
+
+        AtomicInteger retried = new AtomicInteger();
+        assertThat(resilience.call(CALLER, () -> retried.incrementAndGet() == 1 ? fail() : "answer", true))
+                .isEqualTo("answer");
+        assertThat(retried).hasValue(2);
+    }
+
+    @Test
+    void returnsTheRetryTokenWhenTheBreakerDeniesTheRetry() {
+        // The first failure opens the breaker, so the retry it paid for is denied
+        ChatbotResilience resilience = resilience(1, Duration.ofMinutes(1), 3, 0.5);
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThat(attemptsOf(resilience, () -> {
+            attempts.incrementAndGet();
+            throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+        }, attempts)).isEqualTo(1);
+        assertThat(resilience.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(meterRegistry.get("chatbot.retry.budget").gauge().value()).isEqualTo(1.0);
+    }
+
+    @Test
+    void failsFastWhileTheCircuitIsOpen() {
+        ChatbotResilience resilience = resilience(1, Duration.ofMinutes(1), 1, 0.5);
+        assertThatThrownBy(() -> resilience.call(CALLER, ChatbotResilienceTest::fail, true))
+                .isInstanceOf(HttpServerErrorException.class);
+
+        AtomicInteger attempts = new AtomicInteger();
+        assertThatThrownBy(() -> resilience.call(CALLER, attempts::incrementAndGet, true))
+                .isInstanceOf(ChatbotUnavailableException.class);
+        assertThat(attempts).hasValue(0);
+    }
+
+    @Test
+    void tagsTheSchedulerMetersByPlanNotByTenant() {
+        ChatbotResilience resilience = resilience(100, Duration.ZERO, 1, 0.5);
+        for (long tenantId = 1; tenantId <= 20; tenantId++) {
+            ChatbotCaller caller = new ChatbotCaller(tenantId, tenantId % 2 == 0 ? "pro" : null);
+            assertThat(resilience.call(caller, () -> "answer", true)).isEqualTo("answer");
+            // The call holds its slot until it returns
+            assertThat(resilience.call(caller, () -> inFlight("PRO") + inFlight("BASIC"), true)).isEqualTo(1.0);
+        }
+
+        assertThat(meterRegistry.find("chatbot.scheduler.wait").timers()).hasSize(3);
+        assertThat(meterRegistry.get("chatbot.scheduler.wait").tag("plan", "PRO").timer().count()).isEqualTo(20);
+        assertThat(meterRegistry.get("chatbot.scheduler.wait").tag("plan", "BASIC").timer().count()).isEqualTo(20);
+        assertThat(meterRegistry.find("chatbot.scheduler.queued").gauges()).hasSize(3);
+        assertThat(meterRegistry.find("chatbot.scheduler.in_flight").tagKeys("tenant").gauges()).isEmpty();
+        assertThat(inFlight("PRO") + inFlight("BASIC")).isZero();
+    }
+
+    /**
+     * Breaker over 100 calls opening after {@code minimumCalls} at 50% failures, with one half-open probe;
+     * two bulkhead slots; no retry backoff.
+     */
+    private ChatbotResilience resilience(int minimumCalls, Duration openDuration, int maxAttempts,
+                                         double retryBudgetRatio) {
+        return new ChatbotResilience(meterRegistry, 100, minimumCalls, 0.5, 0.8, Duration.ofSeconds(20),
+                openDuration, 1, 2, Duration.ofMillis(100), maxAttempts, Duration.ZERO, retryBudgetRatio,
+                1, 2, 4, 20, 50, 100);
+    }
+
+    private static int attemptsOf(ChatbotResilience resilience, Supplier<String> call, AtomicInteger attempts) {
+        int before = attempts.get();
+        assertThatThrownBy(() -> resilience.call(CALLER, call, true)).isInstanceOf(HttpServerErrorException.class);
+        return attempts.get() - before;
+    }
+
+    private static String fail() {
+        throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+    }
+
+    private double inFlight(String plan) {
+        return meterRegistry.get("chatbot.scheduler.in_flight").tag("plan", plan).gauge().value();
+    }
+}
@@ -0,0 +1,146 @@
+package com.vinncorp.orga.chatbot;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    private static final long FAST = Duration.ofMillis(10).toNanos();
+    private static final long SLOW = Duration.ofSeconds(2).toNanos();
+
+    private final List<String> transitions = new ArrayList<>();
+
+    @Test
+    void opensOnceTheFailureRateReachesTheThreshold() {
+        CircuitBreaker breaker = breaker(Duration.ofMinutes(1), 3);
+        for (int i = 0; i < 6; i++) {
+            call(breaker, false, FAST);
+        }
+        // 4 failures out of 10 calls stay below 50%
+        for (int i = 0; i < 4; i++) {
+            call(breaker, true, FAST);
+        }
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        // The oldest success leaves the window: 5 failures out of 10
+        call(breaker, true, FAST);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquirePermission()).isFalse();
+        assertThat(breaker.remainingOpenMillis()).isPositive();
+        assertThat(transitions).containsExactly("CLOSED->OPEN");
+    }
+
+    @Test
+    void opensOnceTheSlowCallRateReachesTheThreshold() {
+        CircuitBreaker breaker = breaker(Duration.ofMinutes(1), 3);
+        for (int i = 0; i < 3; i++) {
+            call(breaker, false, FAST);
+        }
+        // 7 slow calls out of 10 stay below 80%
+        for (int i = 0; i < 7; i++) {
+            call(breaker, false, SLOW);
+        }
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        call(breaker, false, SLOW);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void waitsForTheMinimumNumberOfCalls() {
+        CircuitBreaker breaker = breaker(Duration.ofMinutes(1), 3);
+        for (int i = 0; i < 9; i++) {
+            call(breaker, true, FAST);
+        }
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        call(breaker, true, FAST);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void admitsOnlyTheConfiguredNumberOfHalfOpenProbes() {
+        CircuitBreaker breaker = openBreaker(Duration.ZERO, 3);
+
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        assertThat(breaker.tryAcquirePermission()).isFalse();
+
+        // A probe released without an outcome frees its slot
+        breaker.onIgnored();
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        assertThat(breaker.tryAcquirePermission()).isFalse();
+    }
+
+    @Test
+    void closesAfterEnoughSuccessfulProbes() {
+        CircuitBreaker breaker = openBreaker(Duration.ZERO, 3);
+        for (int i = 0; i < 3; i++) {
+            assertThat(breaker.tryAcquirePermission()).isTrue();
+        }
+        breaker.onSuccess(FAST);
+        breaker.onSuccess(FAST);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        breaker.onSuccess(FAST);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(transitions).containsExactly("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED");
+
+        // The window starts over: one failure does not re-open it
+        call(breaker, true, FAST);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void reopensOnAFailedOrSlowProbe() {
+        CircuitBreaker breaker = openBreaker(Duration.ofMillis(50), 2);
+        assertThat(breaker.tryAcquirePermission()).isFalse();
+
+        sleep(Duration.ofMillis(80));
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        breaker.onSuccess(SLOW);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquirePermission()).isFalse();
+
+        sleep(Duration.ofMillis(80));
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        breaker.onFailure(FAST);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    // Window of 10 calls, opens at 50% failures or 80% slow calls (slower than 1s) once 10 are recorded
+    private CircuitBreaker breaker(Duration openDuration, int halfOpenProbes) {
+        return new CircuitBreaker(10, 10, 0.5, 0.8, Duration.ofSeconds(1), openDuration, halfOpenProbes,
+                (from, to) -> transitions.add(from + "->" + to));
+    }
+
+    private CircuitBreaker openBreaker(Duration openDuration, int halfOpenProbes) {
+        CircuitBreaker breaker = breaker(openDuration, halfOpenProbes);
+        for (int i = 0; i < 10; i++) {
+            call(breaker, true, FAST);
+        }
+        return breaker;
+    }
+
+    private static void call(CircuitBreaker breaker, boolean failed, long durationNanos) {
+        assertThat(breaker.tryAcquirePermission()).isTrue();
+        if (failed) {
+            breaker.onFailure(durationNanos);
+        } else {
+            breaker.onSuccess(durationNanos);
+        }
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.vinncorp.orga.chatbot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FairSchedulerTest {
+
+    private static final long BASIC_TENANT = 1L;
+    private static final long PRO_TENANT = 2L;
+    private static final long CAPPED_TENANT = 3L;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void servesBackloggedTenantsInProportionToTheirWeight() throws Exception {
+        FairScheduler scheduler = scheduler(1);
+        FairScheduler.Permit held = scheduler.acquire(0L, "BASIC", 1, TimeUnit.SECONDS);
+
+        record Grant(long tenantId, FairScheduler.Permit permit) {
+        }
+        BlockingQueue<Grant> grants = new LinkedBlockingQueue<>();
+        for (int i = 0; i < 20; i++) {
+            for (long tenantId : new long[]{BASIC_TENANT, PRO_TENANT}) {
+                String plan = tenantId == PRO_TENANT ? "PRO" : "BASIC";
+                executor.submit(() -> {
+                    grants.add(new Grant(tenantId, scheduler.acquire(tenantId, plan, 10, TimeUnit.SECONDS)));
+                    return null;
+                });
+            }
+        }
+        awaitWaiting(scheduler, 40);
+
+        // One slot: every release hands it to exactly one waiter
+        scheduler.release(held);
+        List<Long> order = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            Grant grant = grants.poll(5, TimeUnit.SECONDS);
+            assertThat(grant).isNotNull();
+            order.add(grant.tenantId());
+            scheduler.release(grant.permit());
+        }
+
+        // Weight 4 against weight 1: 8 of the first 10 slots, then basic catches up once pro has drained
+        assertThat(order.subList(0, 10)).filteredOn(id -> id == PRO_TENANT).hasSize(8);
+        assertThat(order.subList(0, 25)).filteredOn(id -> id == PRO_TENANT).hasSize(20);
+        assertThat(scheduler.availableSlots()).isEqualTo(1);
+    }
+
+    @Test
+    void capsTheSlotsATenantHoldsAtItsPlansMaxInFlight() throws Exception {
+        FairScheduler scheduler = scheduler(10);
+        FairScheduler.Permit first = scheduler.acquire(CAPPED_TENANT, "CAPPED", 0, TimeUnit.MILLISECONDS);
+        FairScheduler.Permit second = scheduler.acquire(CAPPED_TENANT, "CAPPED", 0, TimeUnit.MILLISECONDS);
+        assertThat(first).isNotNull();
+        assertThat(second).isNotNull();
+
+        assertThat(scheduler.acquire(CAPPED_TENANT, "CAPPED", 50, TimeUnit.MILLISECONDS)).isNull();
+        // Free capacity is left to the other tenants
+        assertThat(scheduler.acquire(BASIC_TENANT, "BASIC", 0, TimeUnit.MILLISECONDS)).isNotNull();
+        assertThat(scheduler.inFlightCount(CAPPED_TENANT)).isEqualTo(2);
+        assertThat(scheduler.availableSlots()).isEqualTo(7);
+
+        Future<FairScheduler.Permit> third = executor.submit(
+                () -> scheduler.acquire(CAPPED_TENANT, "CAPPED", 5, TimeUnit.SECONDS));
+        awaitWaiting(scheduler, 1);
+        scheduler.release(first);
+        assertThat(third.get(5, TimeUnit.SECONDS)).isNotNull();
+        assertThat(scheduler.inFlightCount(CAPPED_TENANT)).isEqualTo(2);
+    }
+
+    @Test
+    void givesUpAfterTheMaximumWait() throws Exception {
+        FairScheduler scheduler = scheduler(1);
+        FairScheduler.Permit held = scheduler.acquire(BASIC_TENANT, "BASIC", 0, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        assertThat(scheduler.acquire(PRO_TENANT, "PRO", 100, TimeUnit.MILLISECONDS)).isNull();
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isGreaterThanOrEqualTo(100);
+        assertThat(scheduler.waitingCount()).isZero();
+        assertThat(scheduler.waitingCount(PRO_TENANT)).isZero();
+
+        scheduler.release(held);
+        assertThat(scheduler.acquire(PRO_TENANT, "PRO", 0, TimeUnit.MILLISECONDS)).isNotNull();
+    }
+
+    @Test
+    void handsTheSlotToTheNextWaiterWhenACallCompletes() throws Exception {
+        FairScheduler scheduler = scheduler(1);
+        FairScheduler.Permit held = scheduler.acquire(BASIC_TENANT, "BASIC", 0, TimeUnit.MILLISECONDS);
+        Future<FairScheduler.Permit> waiter = executor.submit(
+                () -> scheduler.acquire(PRO_TENANT, "PRO", 5, TimeUnit.SECONDS));
+        awaitWaiting(scheduler, 1);
+        assertThat(waiter.isDone()).isFalse();
+
+        scheduler.release(held);
+        assertThat(waiter.get(5, TimeUnit.SECONDS)).isNotNull();
+        assertThat(scheduler.inFlightCount(BASIC_TENANT)).isZero();
+        assertThat(scheduler.inFlightCount(PRO_TENANT)).isEqualTo(1);
+        assertThat(scheduler.availableSlots()).isZero();
+    }
+
+    @Test
+    void skipsAWaiterThatWasCancelled() throws Exception {
+        FairScheduler scheduler = scheduler(1);
+        FairScheduler.Permit held = scheduler.acquire(0L, "BASIC", 0, TimeUnit.MILLISECONDS);
+        Future<FairScheduler.Permit> cancelled = executor.submit(
+                () -> scheduler.acquire(PRO_TENANT, "PRO", 5, TimeUnit.SECONDS));
+        awaitWaiting(scheduler, 1);
+        Future<FairScheduler.Permit> next = executor.submit(
+                () -> scheduler.acquire(BASIC_TENANT, "BASIC", 5, TimeUnit.SECONDS));
+        awaitWaiting(scheduler, 2);
+
+        // Interrupts the thread waiting for the slot
+        cancelled.cancel(true);
+        awaitWaiting(scheduler, 1);
+        assertThat(scheduler.waitingCount(PRO_TENANT)).isZero();
+
+        scheduler.release(held);
+        assertThat(next.get(5, TimeUnit.SECONDS)).isNotNull();
+        assertThat(scheduler.inFlightCount(PRO_TENANT)).isZero();
+        assertThat(scheduler.availableSlots()).isZero();
+    }
+
+    // Basic weight 1, pro weight 4, capped weight 1 with at most 2 calls in flight
+    private static FairScheduler scheduler(int capacity) {
+        FairScheduler.PlanPolicy basic = new FairScheduler.PlanPolicy(1, 100);
+        FairScheduler.PlanPolicy pro = new FairScheduler.PlanPolicy(4, 100);
+        FairScheduler.PlanPolicy capped = new FairScheduler.PlanPolicy(1, 2);
+        return new FairScheduler(capacity, plan -> switch (plan) {
+            case "PRO" -> pro;
+            case "CAPPED" -> capped;
+            default -> basic;
+        });
+    }
+
+    private static void awaitWaiting(FairScheduler scheduler, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (scheduler.waitingCount() != count) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Expected " + count + " waiters, found " + scheduler.waitingCount());
+            }
+            Thread.sleep(5);
+        }
+    }
+}
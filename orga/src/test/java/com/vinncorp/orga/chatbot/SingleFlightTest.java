@@ -0,0 +1,175 @@
+package com.vinncorp.orga.chatbot;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void sharesOneCallBetweenConcurrentCallers() throws Exception {
+        Future<String> leader = executor.submit(() -> singleFlight.execute("q", blocking(() -> "answer")));
+        awaitInFlight(1);
+        List<Future<String>> followers = followers("q", 3);
+        // A different key runs on its own
+        assertThat(singleFlight.execute("other", () -> "other answer")).isEqualTo("other answer");
+
+        release.countDown();
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("answer");
+        for (Future<String> follower : followers) {
+            assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo("answer");
+        }
+        assertThat(calls).hasValue(1);
+        assertThat(singleFlight.sharedCount()).isEqualTo(3);
+        assertThat(singleFlight.inFlightCount()).isZero();
+    }
+
+    @Test
+    void rethrowsTheCallsRuntimeExceptionItselfToEveryCaller() throws Exception {
+        HttpServerErrorException failure = new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+        Future<String> leader = executor.submit(() -> singleFlight.execute("q", blocking(() -> {
+            throw failure;
+        })));
+        awaitInFlight(1);
+        List<Future<String>> followers = followers("q", 2);
+
+        release.countDown();
+        assertThat(causeOf(leader)).isSameAs(failure);
+        for (Future<String> follower : followers) {
+            // Not wrapped in an ExecutionException or CompletionException
+            assertThat(causeOf(follower)).isSameAs(failure);
+        }
+    }
+
+    @Test
+    void rethrowsTheCallsErrorItselfToEveryCaller() throws Exception {
+        AssertionError failure = new AssertionError("boom");
+        Future<String> leader = executor.submit(() -> singleFlight.execute("q", blocking(() -> {
+            throw failure;
+        })));
+        awaitInFlight(1);
+        List<Future<String>> followers = followers("q", 1);
+
+        release.countDown();
+        assertThat(causeOf(leader)).isSameAs(failure);
+        assertThat(causeOf(followers.get(0))).isSameAs(failure);
+    }
+
+    @Test
+    void neverReusesAFinishedCall() {
+        assertThat(singleFlight.execute("q", () -> "first")).isEqualTo("first");
+        assertThat(singleFlight.execute("q", () -> "second")).isEqualTo("second");
+
+        assertThatThrownBy(() -> singleFlight.execute("q", () -> {
+            throw new IllegalStateException("failed");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(singleFlight.execute("q", () -> "after the failure")).isEqualTo("after the failure");
+        assertThat(singleFlight.sharedCount()).isZero();
+        assertThat(singleFlight.inFlightCount()).isZero();
+    }
+
+    @Test
+    void cancelsAnInterruptedFollowerWithoutDisturbingTheCall() throws Exception {
+        Future<String> leader = executor.submit(() -> singleFlight.execute("q", blocking(() -> "answer")));
+        awaitInFlight(1);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        CountDownLatch followerDone = new CountDownLatch(1);
+        Future<?> follower = executor.submit(() -> {
+            try {
+                singleFlight.execute("q", () -> "not called");
+            } catch (CancellationException e) {
+                // and the interrupt is kept for the caller
+                cancelled.set(Thread.currentThread().isInterrupted());
+            } finally {
+                followerDone.countDown();
+            }
+        });
+        awaitShared(1);
+
+        follower.cancel(true);
+        assertThat(followerDone.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(cancelled).isTrue();
+        release.countDown();
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("answer");
+        assertThat(calls).hasValue(1);
+    }
+
+    // Counts the call and holds it until release
+    private Supplier<String> blocking(Supplier<String> result) {
+        return () -> {
+            calls.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return result.get();
+        };
+    }
+
+    private List<Future<String>> followers(String key, int count) throws InterruptedException {
+        List<Future<String>> followers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            followers.add(executor.submit(() -> singleFlight.execute(key, () -> "not called")));
+        }
+        awaitShared(count);
+        return followers;
+    }
+
+    private static Throwable causeOf(Future<String> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        throw new AssertionError("Expected the call to fail");
+    }
+
+    private void awaitInFlight(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (singleFlight.inFlightCount() != count) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Expected " + count + " calls in flight");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private void awaitShared(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (singleFlight.sharedCount() != count) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Expected " + count + " waiting callers");
+            }
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.vinncorp.orga.chatbot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process stand-in for the Python chatbot service, speaking both payload protocols on
+ * {@code POST /chat} and {@code POST /chat/stream}.
+ * <p>
+ * Protocol 1 answers from the {@code conversation_history} sent with each question. Protocol 2 keeps a
+ * session per {@code conversation_id}: a {@code resync} replaces it with the history sent, otherwise
+ * {@code seq} must equal the number of turns it holds (409 if not) and {@code messages} are appended.
+ * Either way the question and the generated reply are then recorded. Replies read
+ * {@code "echo: <question> (history <n>)"}, n being the turns the answer was based on, and are
+ * streamed word by word.
+ */
+public class StubChatbotServer implements AutoCloseable {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final Map<Long, List<Map<String, Object>>> sessions = new ConcurrentHashMap<>();
+    private final List<Integer> requestBytes = new ArrayList<>();
+
+    public StubChatbotServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/chat", exchange -> handle(exchange, false));
+        server.createContext("/chat/stream", exchange -> handle(exchange, true));
+        server.start();
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /** Turns held in the protocol 2 session of a conversation, or null if there is none. */
+    public List<Map<String, Object>> session(long conversationId) {
+        return sessions.get(conversationId);
+    }
+
+    /** Forgets every session, as after a restart of the chatbot service. */
+    public void reset() {
+        sessions.clear();
+    }
+
+    public synchronized List<Integer> requestBytes() {
+        return List.copyOf(requestBytes);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handle(HttpExchange exchange, boolean stream) throws IOException {
+        byte[] body = exchange.getRequestBody().readAllBytes();
+        synchronized (this) {
+            requestBytes.add(body.length);
+        }
+        Map<String, Object> request = objectMapper.readValue(body, Map.class);
+        String question = (String) request.get("question");
+
+        List<Map<String, Object>> history;
+        if (Integer.valueOf(2).equals(request.get("protocol"))) {
+            long conversationId = ((Number) request.get("conversation_id")).longValue();
+            if (Boolean.TRUE.equals(request.get("resync"))) {
+                history = new ArrayList<>((List<Map<String, Object>>) request.getOrDefault("conversation_history", List.of()));
+                sessions.put(conversationId, history);
+            } else {
+                history = sessions.get(conversationId);
+                long seq = ((Number) request.get("seq")).longValue();
+                if (history == null || history.size() != seq) {
+                    respond(exchange, 409, "application/json", objectMapper.writeValueAsBytes(
+                            Map.of("detail", "seq mismatch", "expected_seq", history == null ? 0 : history.size())));
+                    return;
+                }
+                history.addAll((List<Map<String, Object>>) request.get("messages"));
+            }
+        } else {
+            history = new ArrayList<>((List<Map<String, Object>>) request.getOrDefault("conversation_history", List.of()));
+        }
+
+        String reply = "echo: " + question + " (history " + history.size() + ")";
+        history.add(Map.of("role", "user", "content", question));
+        history.add(Map.of("role", "assistant", "content", reply));
+
+        if (!stream) {
+            respond(exchange, 200, "application/json", objectMapper.writeValueAsBytes(Map.of("reply", reply)));
+            return;
+        }
+        StringBuilder events = new StringBuilder();
+        String[] words = reply.split(" ");
+        for (int i = 0; i < words.length; i++) {
+            String token = i == 0 ? words[i] : " " + words[i];
+            events.append("data: ").append(objectMapper.writeValueAsString(Map.of("token", token))).append("\n\n");
+        }
+        events.append("data: [DONE]\n\n");
+        respond(exchange, 200, "text/event-stream", events.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.vinncorp.orga.knowledge;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class Bm25IndexTest {
+
+    private static final int CHUNKS = 5000;
+
+    private final List<String> texts = List.of(KnowledgeFixtures.texts(new Random(11), CHUNKS, 60, 2000));
+
+    @Test
+    void returnsTheSameTopKAsExhaustiveScoring() {
+        Bm25Index index = build();
+        for (String query : List.of("w1 w2", "w1 w37 w512", "w3 w1500 w7 w1", "w999", "w1 w2 w3 w4 w5 w6")) {
+            List<Bm25Index.Hit> hits = index.search(query, 10, null);
+            List<double[]> expected = exhaustive(query, i -> true, i -> true);
+
+            assertThat(hits).hasSize(10);
+            for (int i = 0; i < hits.size(); i++) {
+                assertThat((double) hits.get(i).score()).isCloseTo(expected.get(i)[1], within(1e-3));
+            }
+        }
+    }
+
+    @Test
+    void matchesProductCodesWholeAndByPart() {
+        Bm25Index index = new Bm25Index();
+        index.add(1, 0, "Replace filter SKU-4411/B every six months.");
+        index.add(2, 0, "SKU-4412 is the larger filter.");
+
+        // The whole code outranks chunks sharing only a part of it
+        assertThat(index.search("sku-4411/b", 5, null)).extracting(Bm25Index.Hit::id).containsExactly(1L, 2L);
+        assertThat(index.search("4412", 5, null)).extracting(Bm25Index.Hit::id).containsExactly(2L);
+        assertThat(index.search("filter", 5, null)).hasSize(2);
+    }
+
+    @Test
+    void dropsDeletedChunksAndCompacts() {
+        Bm25Index index = build();
+        for (int i = 0; i < CHUNKS; i += 2) {
+            index.delete(i);
+        }
+        index.deleteLabel(3);
+
+        List<Bm25Index.Hit> hits = index.search("w1 w2 w3", 20, label -> label != 5);
+        assertThat(index.size()).isEqualTo(CHUNKS / 2 - CHUNKS / 10);
+        assertThat(hits).hasSize(20).allSatisfy(hit -> {
+            assertThat(hit.id() % 2).isEqualTo(1);
+            assertThat(hit.label()).isNotIn(3, 5);
+        });
+    }
+
+    private Bm25Index build() {
+        Bm25Index index = new Bm25Index();
+        for (int i = 0; i < CHUNKS; i++) {
+            index.add(i, i % 10, texts.get(i));
+        }
+        return index;
+    }
+
+    // (chunk, score) of every live chunk passing the filter and matching the query, best first
+    private List<double[]> exhaustive(String query, IntPredicate live, IntPredicate filter) {
+        List<Map<String, Integer>> terms = texts.stream().map(Bm25Index::terms).toList();
+        int[] liveChunks = IntStream.range(0, CHUNKS).filter(live).toArray();
+        double averageLength = IntStream.of(liveChunks)
+                .mapToDouble(i -> terms.get(i).values().stream().mapToInt(Integer::intValue).sum())
+                .average().orElse(0);
+        Map<String, Long> documentFrequencies = new HashMap<>();
+        for (String term : Bm25Index.terms(query).keySet()) {
+            documentFrequencies.put(term, IntStream.of(liveChunks).filter(c -> terms.get(c).containsKey(term)).count());
+        }
+        List<double[]> scored = new ArrayList<>();
+        for (int i : liveChunks) {
+            Map<String, Integer> chunk = terms.get(i);
+            int length = chunk.values().stream().mapToInt(Integer::intValue).sum();
+            double score = 0;
+            for (Map.Entry<String, Long> term : documentFrequencies.entrySet()) {
+                Integer tf = chunk.get(term.getKey());
+                if (tf != null) {
+                    long df = term.getValue();
+                    double idf = Math.log(1 + (liveChunks.length - df + 0.5) / (df + 0.5));
+                    score += idf * tf * 2.2 / (tf + 1.2 * (0.25 + 0.75 * length / averageLength));
+                }
+            }
+            if (score > 0 && filter.test(i)) {
+                scored.add(new double[]{i, score});
+            }
+        }
+        scored.sort(Comparator.comparingDouble(e -> -e[1]));
+        return scored;
+    }
+}
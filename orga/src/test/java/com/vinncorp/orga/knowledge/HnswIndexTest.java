@@ -0,0 +1,76 @@
+package com.vinncorp.orga.knowledge;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntPredicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswIndexTest {
+
+    private static final int DIMENSION = 32;
+    private static final int VECTORS = 3000;
+
+    private final Random random = new Random(7);
+    private final float[][] vectors = KnowledgeFixtures.randomVectors(random, VECTORS, DIMENSION);
+
+    @Test
+    void findsTheTrueNearestNeighboursWhenBuiltConcurrently() throws Exception {
+        HnswIndex index = new HnswIndex(DIMENSION, 16, 200);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> inserts = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int first = t;
+                inserts.add(pool.submit(() -> {
+                    for (int i = first; i < VECTORS; i += 4) {
+                        index.add(i, i % 10, vectors[i]);
+                    }
+                }));
+            }
+            for (Future<?> insert : inserts) {
+                insert.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        assertThat(index.size()).isEqualTo(VECTORS);
+        assertThat(recall(index, null, i -> true)).isGreaterThan(0.95);
+    }
+
+    @Test
+    void filtersByLabelAndSkipsDeletedVectors() {
+        HnswIndex index = build();
+        index.delete(17);
+        assertThat(index.deleteLabel(3)).isEqualTo(VECTORS / 10);
+
+        float[] query = vectors[17];
+        List<HnswIndex.Hit> hits = index.search(query, 10, 64, label -> label == 7 || label == 3);
+
+        assertThat(hits).hasSize(10);
+        assertThat(hits).allSatisfy(hit -> assertThat(hit.label()).isEqualTo(7));
+        assertThat(index.search(query, 10, 64, null)).noneMatch(hit -> hit.id() == 17);
+        assertThat(recall(index, label -> label == 7, i -> i != 17)).isGreaterThan(0.95);
+    }
+
+    private HnswIndex build() {
+        HnswIndex index = new HnswIndex(DIMENSION, 16, 200);
+        for (int i = 0; i < VECTORS; i++) {
+            index.add(i, i % 10, vectors[i]);
+        }
+        return index;
+    }
+
+    // Share of the true top 10 among live vectors passing the filter that the index returns
+    private double recall(HnswIndex index, IntPredicate labelFilter, IntPredicate live) {
+        return KnowledgeFixtures.recall(vectors, i -> live.test(i) && (labelFilter == null || labelFilter.test(i % 10)),
+                random, 50, query -> index.search(query, 10, 64, labelFilter).stream().map(HnswIndex.Hit::id).toList());
+    }
+}
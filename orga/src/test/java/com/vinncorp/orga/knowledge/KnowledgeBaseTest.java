@@ -0,0 +1,125 @@
+package com.vinncorp.orga.knowledge;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class KnowledgeBaseTest {
+
+    private static final int DIMENSION = 16;
+    private static final int CHUNKS = 2000;
+    private static final KnowledgeBase.Settings SETTINGS = new KnowledgeBase.Settings(DIMENSION, 16, 100, 64, 2);
+
+    @TempDir
+    Path dir;
+
+    private final Random random = new Random(5);
+    private final String[] texts = KnowledgeFixtures.texts(random, CHUNKS, 40, 500);
+    private final float[][] vectors = KnowledgeFixtures.randomVectors(random, CHUNKS, DIMENSION);
+
+    @Test
+    void ranksSegmentsAndBufferAsOneIndex() throws Exception {
+        KnowledgeBase base = KnowledgeBase.open(dir, SETTINGS);
+        Bm25Index reference = new Bm25Index();
+        // Three segments and some chunks still buffered
+        for (int i = 0; i < CHUNKS; i++) {
+            base.add(i, i % 10, texts[i], vectors[i]);
+            reference.add(i, i % 10, texts[i]);
+            if (i % 600 == 599) {
+                assertThat(base.flush()).isTrue();
+            }
+        }
+        assertThat(base.segmentCount()).isEqualTo(3);
+
+        for (String query : List.of("w1 w2", "w3 w400 w7", "w250")) {
+            List<Bm25Index.Hit> expected = reference.search(query, 10, label -> label != 4);
+            List<KnowledgeBase.Hit> hits = base.searchText(query, 10, label -> label != 4);
+            assertThat(hits).hasSameSizeAs(expected);
+            for (int i = 0; i < hits.size(); i++) {
+                assertThat(hits.get(i).score()).isCloseTo(expected.get(i).score(), within(1e-4f));
+                assertThat(hits.get(i).text()).isEqualTo(texts[(int) hits.get(i).id()]);
+            }
+        }
+        assertThat(recall(base, i -> true)).isGreaterThan(0.9);
+    }
+
+    @Test
+    void reopensFromItsSegmentsWithDeletesAndMerges() throws Exception {
+        KnowledgeBase base = KnowledgeBase.open(dir, SETTINGS);
+        for (int i = 0; i < CHUNKS; i++) {
+            base.add(i, i % 10, texts[i], vectors[i]);
+            if (i % 500 == 499) {
+                base.flush();
+            }
+        }
+        // Replace one chunk, drop a document and a chunk that is only buffered
+        base.add(7, 7, "replacement text w9999", null);
+        base.deleteDocument(3);
+        base.flush();
+        base.writeDeletes();
+
+        KnowledgeBase reopened = KnowledgeBase.open(dir, SETTINGS);
+        assertThat(reopened.size()).isEqualTo(CHUNKS - CHUNKS / 10);
+        assertThat(reopened.searchText("w9999", 5, null)).extracting(KnowledgeBase.Hit::id).containsExactly(7L);
+        assertThat(reopened.searchText("w1 w2 w3", 50, null)).noneMatch(hit -> hit.documentId() == 3);
+        assertThat(reopened.searchVectors(vectors[7], 1, null)).noneMatch(hit -> hit.id() == 7);
+
+        assertThat(reopened.merge(2, CHUNKS)).isTrue();
+        while (reopened.merge(2, CHUNKS)) {
+            // merge down to two segments
+        }
+        assertThat(reopened.segmentCount()).isEqualTo(2);
+        assertThat(dir.toFile().list()).hasSizeLessThanOrEqualTo(5);
+
+        // Every segment has been merged, so no deleted chunk is left to count towards the statistics
+        Bm25Index reference = new Bm25Index();
+        for (int i = 0; i < CHUNKS; i++) {
+            if (i % 10 != 3) {
+                reference.add(i, i % 10, i == 7 ? "replacement text w9999" : texts[i]);
+            }
+        }
+        List<Bm25Index.Hit> expected = reference.search("w1 w40", 20, null);
+        List<KnowledgeBase.Hit> hits = reopened.searchText("w1 w40", 20, null);
+        assertThat(hits).hasSameSizeAs(expected);
+        for (int i = 0; i < hits.size(); i++) {
+            assertThat(hits.get(i).score()).isCloseTo(expected.get(i).score(), within(1e-4f));
+        }
+        assertThat(recall(KnowledgeBase.open(dir, SETTINGS), i -> i % 10 != 3 && i != 7)).isGreaterThan(0.9);
+    }
+
+    @Test
+    void replacesADocumentOnlyWhenTheWholeBatchIsValid() throws Exception {
+        KnowledgeBase base = KnowledgeBase.open(dir, SETTINGS);
+        base.replaceDocument(1, List.of(
+                new KnowledgeBase.Chunk(1L << 32, 1, "first version w9001", null),
+                new KnowledgeBase.Chunk(1L << 32 | 1, 1, "first version w9002", vectors[0])));
+        base.flush();
+
+        List<KnowledgeBase.Chunk> invalid = List.of(
+                new KnowledgeBase.Chunk(1L << 32, 1, "second version w9003", null),
+                new KnowledgeBase.Chunk(1L << 32 | 1, 1, "second version w9004", new float[DIMENSION]));
+        assertThatThrownBy(() -> base.replaceDocument(1, invalid)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(base.searchText("w9001 w9002", 5, null)).hasSize(2);
+        assertThat(base.searchText("w9003", 5, null)).isEmpty();
+
+        assertThat(base.replaceDocument(1, List.of(new KnowledgeBase.Chunk(1L << 32, 1, "second version w9003", null))))
+                .isEqualTo(2);
+        assertThat(base.searchText("version", 5, null)).extracting(KnowledgeBase.Hit::text)
+                .containsExactly("second version w9003");
+        assertThat(base.size()).isEqualTo(1);
+    }
+
+    // Share of the true top 10 among live vectors that the knowledge base returns
+    private double recall(KnowledgeBase base, IntPredicate live) {
+        return KnowledgeFixtures.recall(vectors, live, random, 30,
+                query -> base.searchVectors(query, 10, null).stream().map(KnowledgeBase.Hit::id).toList());
+    }
+}
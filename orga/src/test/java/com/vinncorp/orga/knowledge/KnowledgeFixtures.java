@@ -0,0 +1,87 @@
+package com.vinncorp.orga.knowledge;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Synthetic corpora and the brute-force recall check shared by the knowledge index tests.
+ */
+final class KnowledgeFixtures {
+
+    private KnowledgeFixtures() {
+    }
+
+    /**
+     * {@code count} texts of 5 to {@code 4 + maxExtraWords} words over a Zipf-ish vocabulary of
+     * {@code vocabulary} words: a few very common words, a long tail of rare ones.
+     */
+    static String[] texts(Random random, int count, int maxExtraWords, int vocabulary) {
+        String[] texts = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder text = new StringBuilder();
+            int words = 5 + random.nextInt(maxExtraWords);
+            for (int w = 0; w < words; w++) {
+                text.append(" w").append((int) Math.pow(vocabulary, random.nextDouble()));
+            }
+            texts[i] = text.toString();
+        }
+        return texts;
+    }
+
+    static float[][] randomVectors(Random random, int count, int dimension) {
+        float[][] vectors = new float[count][];
+        for (int i = 0; i < count; i++) {
+            vectors[i] = randomVector(random, dimension);
+        }
+        return vectors;
+    }
+
+    static float[] randomVector(Random random, int dimension) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+
+    /**
+     * Share of the true top 10 that {@code search} returns for {@code queries} random queries, the truth
+     * being the 10 vectors closest by cosine among those whose index passes {@code candidates}.
+     */
+    static double recall(float[][] vectors, IntPredicate candidates, Random random, int queries,
+                         Function<float[], List<Long>> search) {
+        int found = 0;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVector(random, vectors[0].length);
+            Set<Long> expected = new HashSet<>();
+            IntStream.range(0, vectors.length).filter(candidates).boxed()
+                    .sorted(Comparator.comparingDouble(i -> -cosine(query, vectors[i])))
+                    .limit(10)
+                    .forEach(i -> expected.add((long) i));
+            for (long id : search.apply(query)) {
+                if (expected.contains(id)) {
+                    found++;
+                }
+            }
+        }
+        return found / (queries * 10.0);
+    }
+}
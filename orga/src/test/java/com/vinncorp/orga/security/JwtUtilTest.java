@@ -0,0 +1,105 @@
+package com.vinncorp.orga.security;
+
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JwtUtilTest {
+
+    private static final String SECRET = "lZB52evfOi3gpHJ2OmLnsD53W6hH9abX1gZvqRkfcJo=";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    // Whole seconds, as tokens carry their expiry
+    private final AtomicLong now = new AtomicLong(1_800_000_000_000L);
+    private final JwtUtil jwtUtil = new JwtUtil(SECRET, 60_000, 100, Duration.ofMinutes(5), meterRegistry,
+            () -> new Date(now.get()));
+
+    @Test
+    void servesARepeatedTokenFromTheCache() {
+        String token = token(Duration.ofMinutes(1));
+        assertThat(jwtUtil.verify(token).getSubject()).isEqualTo("user@example.com");
+        assertThat(jwtUtil.verify(token).getSubject()).isEqualTo("user@example.com");
+
+        assertThat(cached()).isEqualTo(1);
+        assertThat(hits()).isEqualTo(1);
+    }
+
+    @Test
+    void stopsAcceptingACachedTokenOnceItExpires() {
+        String token = token(Duration.ofMinutes(1));
+        assertThat(jwtUtil.verify(token)).isNotNull();
+
+        now.addAndGet(Duration.ofSeconds(59).toMillis());
+        assertThat(jwtUtil.verify(token)).isNotNull();
+        now.addAndGet(Duration.ofSeconds(1).toMillis());
+        assertThat(jwtUtil.verify(token)).isNull();
+        assertThat(hits()).isEqualTo(2);
+    }
+
+    @Test
+    void neverCachesATamperedToken() {
+        String token = token(Duration.ofMinutes(1));
+        assertThat(jwtUtil.verify(token)).isNotNull();
+
+        String[] parts = token.split("\\.");
+        String otherPayload = token(Duration.ofMinutes(2)).split("\\.")[1];
+        String forged = parts[0] + "." + otherPayload + "." + parts[2];
+        String badSignature = parts[0] + "." + parts[1] + "." + (parts[2].charAt(0) == 'A' ? 'B' : 'A')
+                + parts[2].substring(1);
+        for (int i = 0; i < 2; i++) {
+            assertThat(jwtUtil.verify(forged)).isNull();
+            assertThat(jwtUtil.verify(badSignature)).isNull();
+        }
+
+        assertThat(cached()).isEqualTo(1);
+        assertThat(hits()).isZero();
+    }
+
+    @Test
+    void doesNotCacheATokenWithoutExpiry() {
+        String token = builder().signWith(Keys.hmacShaKeyFor(Decoders.BASE64.decode(SECRET)), SignatureAlgorithm.HS256)
+                .compact();
+        assertThat(jwtUtil.verify(token)).isNull();
+        assertThat(cached()).isZero();
+    }
+
+    @Test
+    void hashesNonAsciiTokensByTheirUtf8Bytes() {
+        // Both would be "abc?" in a single-byte platform charset
+        assertThat(JwtUtil.sha256("abcä")).isNotEqualTo(JwtUtil.sha256("abcö"));
+        assertThat(JwtUtil.sha256("abc一")).isNotEqualTo(JwtUtil.sha256("abc丁"));
+    }
+
+    private String token(Duration validity) {
+        return builder()
+                .setExpiration(new Date(now.get() + validity.toMillis()))
+                .signWith(Keys.hmacShaKeyFor(Decoders.BASE64.decode(SECRET)), SignatureAlgorithm.HS256)
+                .compact();
+    }
+
+    private JwtBuilder builder() {
+        return Jwts.builder()
+                .setSubject("user@example.com")
+                .claim(JwtUtil.CLAIM_USER_ID, 1L)
+                .setIssuedAt(new Date(now.get()));
+    }
+
+    private double cached() {
+        return meterRegistry.get("cache.size").tag("cache", "jwt.claims").gauge().value();
+    }
+
+    private double hits() {
+        return meterRegistry.get("cache.gets").tag("cache", "jwt.claims").tag("result", "hit")
+                .functionCounter().count();
+    }
+}
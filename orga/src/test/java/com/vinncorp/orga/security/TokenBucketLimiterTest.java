@@ -0,0 +1,82 @@
+package com.vinncorp.orga.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenBucketLimiterTest {
+
+    private static final long START = Duration.ofHours(1).toNanos();
+    private static final long SECOND = Duration.ofSeconds(1).toNanos();
+
+    @Test
+    void allowsABurstOfAtMostPerMinute() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(4, 1024);
+        assertThat(acquired(limiter, 1L, 60, START, 100)).isEqualTo(60);
+
+        // Idle for ten minutes: the bucket refills to its capacity, not beyond
+        assertThat(acquired(limiter, 1L, 60, START + Duration.ofMinutes(10).toNanos(), 100)).isEqualTo(60);
+    }
+
+    @Test
+    void refillsContinuously() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(4, 1024);
+        acquired(limiter, 1L, 60, START, 60);
+
+        // 60 a minute is one a second
+        assertThat(limiter.tryAcquire(1L, 60, START + SECOND / 2)).isPositive();
+        assertThat(limiter.tryAcquire(1L, 60, START + SECOND)).isZero();
+        assertThat(limiter.tryAcquire(1L, 60, START + SECOND)).isPositive();
+        assertThat(acquired(limiter, 1L, 60, START + 11 * SECOND, 100)).isEqualTo(10);
+    }
+
+    @Test
+    void reportsTheTimeUntilTheNextToken() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(4, 1024);
+        acquired(limiter, 1L, 60, START, 60);
+
+        assertThat(limiter.tryAcquire(1L, 60, START)).isEqualTo(SECOND);
+        assertThat(limiter.tryAcquire(1L, 60, START + SECOND / 4)).isEqualTo(SECOND * 3 / 4);
+
+        // 6 a minute is one every ten seconds, a tenth of which has refilled after one second
+        acquired(limiter, 2L, 6, START, 6);
+        assertThat(limiter.tryAcquire(2L, 6, START + SECOND)).isEqualTo(SECOND * 9);
+    }
+
+    @Test
+    void keepsABucketPerKey() {
+        TokenBucketLimiter limiter = new TokenBucketLimiter(4, 1024);
+        acquired(limiter, 1L, 60, START, 60);
+        assertThat(limiter.tryAcquire(1L, 60, START)).isPositive();
+
+        assertThat(acquired(limiter, 2L, 60, START, 100)).isEqualTo(60);
+        assertThat(acquired(limiter, -1L, 60, START, 100)).isEqualTo(60);
+    }
+
+    @Test
+    void startsARecycledSlotFull() {
+        // One stripe of eight slots, all in every key's probe window
+        TokenBucketLimiter limiter = new TokenBucketLimiter(1, TokenBucketLimiter.PROBES);
+        acquired(limiter, 1L, 60, START, 60);
+        for (long key = 2; key <= TokenBucketLimiter.PROBES; key++) {
+            limiter.tryAcquire(key, 60, START + key);
+        }
+
+        // The table is full: the least recently used bucket, key 1's, is recycled for key 100
+        assertThat(acquired(limiter, 100L, 60, START + 100, 100)).isEqualTo(60);
+        // and key 1, which had spent its tokens, comes back with a full bucket
+        assertThat(acquired(limiter, 1L, 60, START + 101, 100)).isEqualTo(60);
+    }
+
+    private static int acquired(TokenBucketLimiter limiter, long key, int perMinute, long nowNanos, int attempts) {
+        int acquired = 0;
+        for (int i = 0; i < attempts; i++) {
+            if (limiter.tryAcquire(key, perMinute, nowNanos) == 0) {
+                acquired++;
+            }
+        }
+        return acquired;
+    }
+}